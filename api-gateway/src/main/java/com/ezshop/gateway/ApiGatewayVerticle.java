@@ -1,9 +1,30 @@
 package com.ezshop.gateway;
 
 import com.ezshop.common.BaseHttpMicroServicesVerticle;
-import com.ezshop.common.ConfigKeys;
+import com.ezshop.common.concurrent.SharedResources;
+import com.ezshop.common.concurrent.SingleFlight;
+import com.ezshop.gateway.aggregate.CompositeCallException;
+import com.ezshop.gateway.aggregate.CompositeRequest;
+import com.ezshop.gateway.assets.StaticAssetCache;
+import com.ezshop.gateway.assets.StaticAssetHandler;
+import com.ezshop.gateway.cache.CacheControl;
+import com.ezshop.gateway.cache.CachedResponse;
+import com.ezshop.gateway.cache.ResponseCache;
+import com.ezshop.gateway.ratelimit.ClusterRateLimiter;
+import com.ezshop.gateway.route.RouteMatch;
+import com.ezshop.gateway.route.RouteTable;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.vertx.circuitbreaker.CircuitBreakerState;
 import io.vertx.core.Future;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.RxHelper;
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.http.HttpServerResponse;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 import io.vertx.reactivex.ext.web.handler.BodyHandler;
@@ -12,9 +33,14 @@ import io.vertx.servicediscovery.rest.ServiceDiscoveryRestEndpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static com.ezshop.common.ConfigKeys.KEY_HTTP_SERVER;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.ezshop.common.ConfigKeys.*;
 import static com.ezshop.common.ErrorCodes.SYSTEM_ERROR_CODE;
-import static com.ezshop.common.HttpResponseCodes.SC_BAD_REQUEST;
+import static com.ezshop.common.HttpResponseCodes.*;
 
 /**
  * The verticle for application gateway
@@ -23,47 +49,514 @@ import static com.ezshop.common.HttpResponseCodes.SC_BAD_REQUEST;
  */
 public class ApiGatewayVerticle extends BaseHttpMicroServicesVerticle {
     private static final Logger logger = LoggerFactory.getLogger(ApiGatewayVerticle.class);
-    private static final String PREFIX_API = "/api/";
     private static final String URI_API = "/api/*";
     private static final String URI_STATIC = "/*";
+    private static final String URI_STATIC_ASSETS = "^(?!/api/).*";
+    private static final String DEFAULT_WEB_ROOT = "webroot";
+    private static final long DEFAULT_STATIC_CACHE_MAX_SIZE = 16 * 1024 * 1024;
+    private static final int DEFAULT_STATIC_CACHE_MAX_ENTRIES = 10000;
+    private static final String SHARED_STATIC_ASSET_CACHES = "ezshop.staticAssetCaches";
+
+    private static final String ERROR_NO_ROUTE = "No route found";
+    private static final JsonArray DEFAULT_ROUTES = new JsonArray().add(new JsonObject().put(KEY_PATH, "/api/{service}"));
+    private static final long DEFAULT_ROUTES_RELOAD_INTERVAL = 5000;
+    private static final String METRICS_ROUTE_TABLE = "routeTable";
+
+    private static final long DEFAULT_CACHE_MAX_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_CACHE_MAX_ENTRY_SIZE = 1024 * 1024;
+    private static final JsonArray DEFAULT_VARY_HEADERS = new JsonArray().add("accept").add("accept-encoding");
+    private static final String HEADER_AUTHORIZATION = "authorization";
+    private static final String HEADER_COOKIE = "cookie";
+    private static final String HEADER_CACHE_CONTROL = "cache-control";
+    private static final String HEADER_ETAG = "etag";
+    private static final String HEADER_IF_NONE_MATCH = "if-none-match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "if-modified-since";
+    private static final String HEADER_VARY = "vary";
+    private static final String HEADER_X_CACHE = "x-cache";
+    private static final String HEADER_ACCEPT_ENCODING = "accept-encoding";
+    private static final String HEADER_CONTENT_ENCODING = "content-encoding";
+    private static final String HEADER_CONTENT_LENGTH = "content-length";
+    private static final String CACHE_HIT = "HIT";
+    private static final String CACHE_MISS = "MISS";
+    private static final String CACHE_REVALIDATED = "REVALIDATED";
+    private static final String CACHE_STALE = "STALE";
+    private static final String HEADER_WARNING = "warning";
+    private static final String WARNING_STALE = "110 - \"Response is Stale\"";
+    private static final String METRICS_CACHE_COALESCING = "responseCacheCoalescing";
+    private static final String SHARED_RESPONSE_CACHES = "ezshop.responseCaches";
+    private static final String DEFAULT_AGGREGATION_PATH = "/aggregate";
+    private static final long DEFAULT_AGGREGATION_TIMEOUT = 5000;
+    private static final int DEFAULT_AGGREGATION_MAX_CALLS = 16;
+    private static final long DEFAULT_AGGREGATION_BODY_LIMIT = 64 * 1024;
+    private static final String SHARED_RATE_LIMITERS = "ezshop.rateLimiters";
+    private static final String RATE_LIMIT_TOTALS = "ezshop.rateLimitTotals";
+    private static final JsonArray DEFAULT_RATE_LIMIT_KEY_BY = new JsonArray().add("principal").add("apiKey").add("ip");
+    private static final String DEFAULT_API_KEY_HEADER = "x-api-key";
+    private static final double DEFAULT_RATE_LIMIT_RATE = 100;
+    private static final long DEFAULT_RATE_LIMIT_SYNC_INTERVAL = 100;
+    private static final long DEFAULT_RATE_LIMIT_IDLE_TIMEOUT = 60000;
+    private static final String HEADER_RETRY_AFTER = "retry-after";
+    private static final String ERROR_RATE_LIMITED = "Too many requests";
 
-    private static final String ERROR_EMPTY_SERVICE_NAME = "Empty service name";
+    private SharedResources<ResponseCache> sharedResponseCaches;
+    private ResponseCache responseCache;
+    private SharedResources<StaticAssetCache> sharedStaticAssetCaches;
+    private SharedResources<ClusterRateLimiter> sharedRateLimiters;
+    private ClusterRateLimiter rateLimiter;
+    private SingleFlight<CachedResponse> cacheFlights = SingleFlight.create();
+    private volatile RouteTable routeTable;
+    private long routesLastModified = -1;
+    private long routeTableReloads;
+    private long aggregations;
+    private long partialAggregations;
+    private long failedAggregations;
 
     @Override
     public void start(Future<Void> startFuture) {
         super.start();
         JsonObject httpConfig = this.config().getJsonObject(KEY_HTTP_SERVER);
+        JsonObject cacheConfig = this.config().getJsonObject(KEY_RESPONSE_CACHE, new JsonObject());
+        // all gateway instances on the node serve from one cache
+        this.sharedResponseCaches = SharedResources.create(vertx, SHARED_RESPONSE_CACHES);
+        this.responseCache = sharedResponseCaches.acquire(KEY_RESPONSE_CACHE,
+                key -> ResponseCache.create(cacheConfig.getLong(KEY_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE)));
+        this.registerMetrics(KEY_RESPONSE_CACHE, responseCache::toJson);
+        this.registerMetrics(METRICS_CACHE_COALESCING, cacheFlights::toJson);
+        this.registerMetrics(METRICS_ROUTE_TABLE, this::getRouteTableMetrics);
+        this.registerMetrics(KEY_AGGREGATION, this::getAggregationMetrics);
+        this.configureRateLimiter();
         Router router = Router.router(vertx);
+        this.configureStaticAssets(router);
         this.enableCorsSupport(router);
-        ServiceDiscoveryRestEndpoint.create(router.getDelegate(), discovery.getDelegate());
+        this.enableMetricsSupport(router);
         this.configureRouter(router);
-        this.createHttpServer(httpConfig, router)
+        this.configureRouteTable()
+                .andThen(this.createHttpServer(httpConfig, router))
                 .subscribe(s -> startFuture.complete(), startFuture::fail);
     }
 
+    @Override
+    public void stop() {
+        sharedResponseCaches.release(KEY_RESPONSE_CACHE);
+        sharedStaticAssetCaches.release(KEY_STATIC_ASSETS);
+        if (null != rateLimiter) {
+            sharedRateLimiters.release(KEY_RATE_LIMIT);
+        }
+        super.stop();
+    }
+
+    /**
+     * Compile the routes given in config, when a routes file is configured it replaces them and is polled
+     * for changes so routes can be updated without restart
+     */
+    private Completable configureRouteTable() {
+        JsonObject routeTableConfig = this.config().getJsonObject(KEY_ROUTE_TABLE, new JsonObject());
+        try {
+            this.routeTable = RouteTable.compile(routeTableConfig.getJsonArray(KEY_ROUTES, DEFAULT_ROUTES));
+        } catch (RuntimeException e) {
+            return Completable.error(e);
+        }
+        String file = routeTableConfig.getString(KEY_FILE);
+        if (null == file) {
+            return Completable.complete();
+        }
+        vertx.setPeriodic(routeTableConfig.getLong(KEY_RELOAD_INTERVAL, DEFAULT_ROUTES_RELOAD_INTERVAL),
+                id -> this.reloadRouteTable(file).subscribe());
+        return this.reloadRouteTable(file);
+    }
+
+    private Completable reloadRouteTable(String file) {
+        return vertx.fileSystem().rxProps(file)
+                .filter(props -> props.lastModifiedTime() != routesLastModified)
+                .flatMapCompletable(props -> vertx.fileSystem().rxReadFile(file).doOnSuccess(buffer -> {
+                    // an invalid file leaves the current table in place until the file is changed again
+                    this.routesLastModified = props.lastModifiedTime();
+                    this.routeTable = RouteTable.compile(new JsonObject(buffer.toString()).getJsonArray(KEY_ROUTES, DEFAULT_ROUTES));
+                    this.routeTableReloads++;
+                    logger.debug("Route table loaded from {}, {} routes", file, routeTable.size());
+                }).toCompletable())
+                .doOnError(error -> logger.warn("Failed to load route table from {}: {}", file, error.getMessage()))
+                .onErrorComplete();
+    }
+
+    private JsonObject getRouteTableMetrics() {
+        return new JsonObject().put(KEY_ROUTES, routeTable.size()).put("reloads", routeTableReloads);
+    }
+
+    /**
+     * Static assets are served ahead of the CORS and body handlers so a hit costs one cache lookup, whatever
+     * the handler passes on is left to the StaticHandler at the end of the chain
+     */
+    private void configureStaticAssets(Router router) {
+        JsonObject staticConfig = this.config().getJsonObject(KEY_STATIC_ASSETS, new JsonObject());
+        this.sharedStaticAssetCaches = SharedResources.create(vertx, SHARED_STATIC_ASSET_CACHES);
+        StaticAssetCache cache = sharedStaticAssetCaches.acquire(KEY_STATIC_ASSETS, key -> StaticAssetCache.create(
+                staticConfig.getLong(KEY_MAX_SIZE, DEFAULT_STATIC_CACHE_MAX_SIZE),
+                staticConfig.getInteger(KEY_MAX_ENTRIES, DEFAULT_STATIC_CACHE_MAX_ENTRIES)));
+        this.registerMetrics(KEY_STATIC_ASSETS, cache::toJson);
+        router.routeWithRegex(URI_STATIC_ASSETS).method(HttpMethod.GET).method(HttpMethod.HEAD)
+                .handler(StaticAssetHandler.create(vertx, cache, staticConfig));
+    }
+
+    /**
+     * Client rate limits are shared by all gateway instances on the node, each instance keeps them in sync
+     * with the cluster so none of them owns the synchronization
+     */
+    private void configureRateLimiter() {
+        JsonObject rateLimitConfig = this.config().getJsonObject(KEY_RATE_LIMIT, new JsonObject());
+        if (!rateLimitConfig.getBoolean(KEY_ENABLED, false)) {
+            return;
+        }
+        double rate = rateLimitConfig.getDouble(KEY_RATE, DEFAULT_RATE_LIMIT_RATE);
+        long syncInterval = rateLimitConfig.getLong(KEY_SYNC_INTERVAL, DEFAULT_RATE_LIMIT_SYNC_INTERVAL);
+        this.sharedRateLimiters = SharedResources.create(vertx, SHARED_RATE_LIMITERS);
+        this.rateLimiter = sharedRateLimiters.acquire(KEY_RATE_LIMIT, key -> ClusterRateLimiter.create(vertx.getDelegate(),
+                RATE_LIMIT_TOTALS, rate, rateLimitConfig.getDouble(KEY_BURST, rate), syncInterval,
+                rateLimitConfig.getLong(KEY_IDLE_TIMEOUT, DEFAULT_RATE_LIMIT_IDLE_TIMEOUT)));
+        vertx.setPeriodic(syncInterval, id -> rateLimiter.synchronize());
+        this.registerMetrics(KEY_RATE_LIMIT, rateLimiter::toJson);
+    }
+
+    /**
+     * Admit a request within the rate limit of its client, a request over the limit is answered with 429
+     *
+     * @return true if the request may be dispatched
+     */
+    private boolean checkRateLimit(RoutingContext context) {
+        if (null == rateLimiter) {
+            return true;
+        }
+        String clientKey = this.rateLimitKey(context);
+        if (rateLimiter.tryAcquire(clientKey)) {
+            return true;
+        }
+        logger.debug("Client {} is over its rate limit", clientKey);
+        context.response().putHeader(HEADER_RETRY_AFTER, String.valueOf(rateLimiter.getRetryAfter(clientKey)));
+        this.restErrorHandler(context, SC_TOO_MANY_REQUESTS, SYSTEM_ERROR_CODE, ERROR_RATE_LIMITED);
+        return false;
+    }
+
+    /**
+     * Return the key of client a request is counted against, the first of the configured "keyBy" identities
+     * the request carries: its authenticated principal, its API key or its remote address
+     */
+    private String rateLimitKey(RoutingContext context) {
+        JsonObject rateLimitConfig = this.config().getJsonObject(KEY_RATE_LIMIT);
+        for (Object keyBy : rateLimitConfig.getJsonArray(KEY_KEY_BY, DEFAULT_RATE_LIMIT_KEY_BY)) {
+            if ("principal".equals(keyBy) && null != context.user()) {
+                return "principal:" + context.user().principal().encode();
+            }
+            if ("apiKey".equals(keyBy)) {
+                String apiKey = context.request().getHeader(rateLimitConfig.getString(KEY_API_KEY_HEADER, DEFAULT_API_KEY_HEADER));
+                if (null != apiKey) {
+                    return "apiKey:" + apiKey;
+                }
+            }
+        }
+        return "ip:" + context.request().remoteAddress().host();
+    }
+
     private void configureRouter(Router router) {
-        router.route().handler(BodyHandler.create());
+        String aggregationPath = this.config().getJsonObject(KEY_AGGREGATION, new JsonObject()).getString(KEY_PATH, DEFAULT_AGGREGATION_PATH);
+        router.post(aggregationPath).handler(BodyHandler.create().setBodyLimit(DEFAULT_AGGREGATION_BODY_LIMIT));
+        router.post(aggregationPath).handler(this::aggregationHandler);
+        // API requests are streamed to the services, so they must be routed before the BodyHandler
+        // which the discovery REST endpoint installs on every route
         router.route(URI_API).handler(this::apiHandler);
-        router.route(URI_STATIC).handler(StaticHandler.create());
+        ServiceDiscoveryRestEndpoint.create(router.getDelegate(), discovery.getDelegate());
+        String webRoot = this.config().getJsonObject(KEY_STATIC_ASSETS, new JsonObject()).getString(KEY_WEB_ROOT, DEFAULT_WEB_ROOT);
+        router.route(URI_STATIC).handler(StaticHandler.create(webRoot));
     }
 
     private void apiHandler(RoutingContext context) {
+        if (!this.checkRateLimit(context)) {
+            return;
+        }
         String path = context.request().uri();
         logger.debug("service path:{}", path);
-        String serviceName = null;
-        if (path.length() >= PREFIX_API.length()) {
-            serviceName = path.substring(PREFIX_API.length()).split("/")[0];
+        RouteMatch match = routeTable.match(path);
+        if (null == match) {
+            this.restErrorHandler(context, SC_NOT_FOUND, SYSTEM_ERROR_CODE, ERROR_NO_ROUTE);
+            return;
+        }
+        String serviceName = match.getServiceName();
+        String serviceUri = match.getServiceUri();
+        long timeout = match.getRoute().getTimeout();
+        logger.debug("Service Name:{}, Service uri:{}", serviceName, serviceUri);
+        this.logAccessTarget(context, match.getRoute().getPath(), serviceName);
+        JsonObject cacheConfig = this.getServiceConfig(KEY_RESPONSE_CACHE, serviceName);
+        if (null != match.getRoute().getCacheConfig()) {
+            cacheConfig.mergeIn(match.getRoute().getCacheConfig());
         }
-        logger.debug("Service Name:{}", serviceName);
-        if (null == serviceName || serviceName.trim().equalsIgnoreCase("")) {
-            this.restErrorHandler(context, SC_BAD_REQUEST, SYSTEM_ERROR_CODE, ERROR_EMPTY_SERVICE_NAME);
+        if (this.isCacheable(context, cacheConfig)) {
+            this.dispatchCachedRequest(context, serviceName, serviceUri, cacheConfig, timeout);
+        } else if (this.isHedged(serviceName, context.request().method(), null) && !this.hasBody(context.request())) {
+            // a hedged request is buffered, the attempt which loses is dropped before anything is written.
+            // A request with a body is streamed instead, whatever its method
+            long startTime = System.nanoTime();
+            this.invokeHttpService(serviceName, context.request().method(), serviceUri, this.getForwardHeaders(context), null, timeout).subscribe(response -> {
+                this.logAccessUpstream(context, null, startTime);
+                this.writeDispatchResponse(context, response);
+            }, error -> this.restErrorHandler(context, error));
         } else {
-            String serviceUri = path.substring(PREFIX_API.length() + serviceName.length());
-            if (serviceUri.trim().length() == 0) {
-                serviceUri = "/";
+            this.dispatchStreamRequest(context, serviceName, serviceUri, timeout, error -> this.restErrorHandler(context, error));
+        }
+    }
+
+    /**
+     * Run the service calls of a composite request, independent calls in parallel, and answer their merged results
+     * in one response. A failed optional call is reported in "errors", any other failed call fails with 502
+     */
+    private void aggregationHandler(RoutingContext context) {
+        if (!this.checkRateLimit(context)) {
+            return;
+        }
+        JsonObject aggregationConfig = this.config().getJsonObject(KEY_AGGREGATION, new JsonObject());
+        CompositeRequest request;
+        try {
+            request = CompositeRequest.fromJson(context.getBodyAsJson(),
+                    aggregationConfig.getLong(KEY_TIMEOUT, DEFAULT_AGGREGATION_TIMEOUT),
+                    aggregationConfig.getInteger(KEY_MAX_CALLS, DEFAULT_AGGREGATION_MAX_CALLS));
+        } catch (RuntimeException e) {
+            // an invalid definition, or a body which is not a JSON object
+            this.restErrorHandler(context, SC_BAD_REQUEST, SYSTEM_ERROR_CODE, e.getMessage());
+            return;
+        }
+        logger.debug("Aggregating {} calls", request.size());
+        request.execute((call, uri) -> this.invokeJsonService(call.getServiceName(), call.getMethod(), uri, call.getBody(), call.getTimeout()),
+                RxHelper.scheduler(vertx.getDelegate()))
+                .subscribe(result -> {
+                    this.recordAggregation(!result.getJsonObject(CompositeRequest.KEY_ERRORS).isEmpty(), false);
+                    this.restResponseHandler(context, result.encode());
+                }, error -> {
+                    this.recordAggregation(false, true);
+                    if (error instanceof CompositeCallException) {
+                        this.restErrorHandler(context, SC_BAD_GATEWAY, SYSTEM_ERROR_CODE, error.getMessage());
+                    } else {
+                        this.restErrorHandler(context, error);
+                    }
+                });
+    }
+
+    private void recordAggregation(boolean partial, boolean failed) {
+        aggregations++;
+        if (partial) {
+            partialAggregations++;
+        }
+        if (failed) {
+            failedAggregations++;
+        }
+    }
+
+    private JsonObject getAggregationMetrics() {
+        return new JsonObject().put("requests", aggregations).put("partial", partialAggregations).put("failed", failedAggregations);
+    }
+
+    /**
+     * Only anonymous GETs are cached, a request which carries credentials or a session cookie may be answered
+     * with a personalised response
+     */
+    private boolean isCacheable(RoutingContext context, JsonObject cacheConfig) {
+        return context.request().method() == HttpMethod.GET
+                && null == context.request().getHeader(HEADER_AUTHORIZATION)
+                && null == context.request().getHeader(HEADER_COOKIE)
+                && cacheConfig.getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * Serve an idempotent GET from the response cache, the request only leaves the gateway on a miss or to revalidate
+     * a stale entry which carries an ETag. Concurrent misses of the same key share one upstream request.
+     * <p>
+     * A stale entry is served without waiting for the service while the circuit of service is open, or when the
+     * service fails, as long as it is within its stale-if-error allowance. It is also served within its
+     * stale-while-revalidate allowance while the circuit is closed, then revalidated in background, and in half
+     * open state the background revalidation is the trial call which decides whether the circuit closes
+     */
+    private void dispatchCachedRequest(RoutingContext context, String serviceName, String uri, JsonObject cacheConfig, long timeout) {
+        String key = this.cacheKey(context, serviceName, uri, cacheConfig);
+        CachedResponse cached = responseCache.get(key);
+        long now = System.currentTimeMillis();
+        if (null != cached && cached.isFresh(now)) {
+            responseCache.recordHit();
+            this.writeCachedResponse(context, key, cached, CACHE_HIT);
+            return;
+        }
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        this.copyHeaders(context.request().headers(), headers);
+        Single<CachedResponse> fetch = cacheFlights.execute(key,
+                () -> this.fetchCachedResponse(serviceName, uri, headers, timeout, key, cached, cacheConfig));
+        if (null != cached) {
+            CircuitBreakerState state = this.getCircuitBreaker(serviceName).state();
+            boolean usableOnError = cached.isUsable(now, this.staleAllowance(cached, cacheConfig, KEY_STALE_IF_ERROR));
+            if (state == CircuitBreakerState.OPEN && usableOnError) {
+                this.writeStaleResponse(context, key, cached);
+                return;
+            }
+            if ((state == CircuitBreakerState.HALF_OPEN && usableOnError)
+                    || (state == CircuitBreakerState.CLOSED && cached.isUsable(now, this.staleAllowance(cached, cacheConfig, KEY_STALE_WHILE_REVALIDATE)))) {
+                this.writeStaleResponse(context, key, cached);
+                fetch.subscribe(response -> logger.debug("Revalidated {} {} in background", serviceName, uri),
+                        error -> logger.debug("Background revalidation of {} {} failed: {}", serviceName, uri, error.getMessage()));
+                return;
+            }
+        }
+        long startTime = System.nanoTime();
+        fetch.subscribe(response -> {
+            this.logAccessUpstream(context, null, startTime);
+            if (response.getStatusCode() >= SC_INTERNAL_SERVER_ERROR && this.isUsableOnError(cached, cacheConfig)) {
+                this.writeStaleResponse(context, key, cached);
+            } else {
+                this.writeCachedResponse(context, key, response, response == cached ? CACHE_REVALIDATED : CACHE_MISS);
+            }
+        }, error -> {
+            if (this.isUsableOnError(cached, cacheConfig)) {
+                this.writeStaleResponse(context, key, cached);
+            } else {
+                this.restErrorHandler(context, error);
+            }
+        });
+    }
+
+    private boolean isUsableOnError(CachedResponse cached, JsonObject cacheConfig) {
+        return null != cached && cached.isUsable(System.currentTimeMillis(), this.staleAllowance(cached, cacheConfig, KEY_STALE_IF_ERROR));
+    }
+
+    /**
+     * Return how long a response may be served after it became stale in milliseconds, the per-service
+     * "staleIfError" and "staleWhileRevalidate" in seconds override the directives given by the service
+     */
+    private long staleAllowance(CachedResponse cached, JsonObject cacheConfig, String allowanceKey) {
+        Long seconds = cacheConfig.getLong(allowanceKey);
+        if (null == seconds) {
+            CacheControl cacheControl = CacheControl.parse(cached.getHeaders().get(HEADER_CACHE_CONTROL));
+            seconds = KEY_STALE_IF_ERROR.equals(allowanceKey) ? cacheControl.getStaleIfError() : cacheControl.getStaleWhileRevalidate();
+        }
+        return TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+    }
+
+    private void writeStaleResponse(RoutingContext context, String key, CachedResponse cached) {
+        responseCache.recordStaleHit();
+        this.writeCachedResponse(context, key, cached, CACHE_STALE);
+    }
+
+    /**
+     * Fetch a response from the service and update the cache, a stale entry with an ETag is revalidated
+     * and returned as is when the service answers 304
+     */
+    private Single<CachedResponse> fetchCachedResponse(String serviceName, String uri, MultiMap headers, long timeout, String key,
+                                                       CachedResponse cached, JsonObject cacheConfig) {
+        headers.remove(HEADER_IF_NONE_MATCH).remove(HEADER_IF_MODIFIED_SINCE);
+        if (null != cached && null != cached.getEtag()) {
+            headers.set(HEADER_IF_NONE_MATCH, cached.getEtag());
+        }
+        return this.invokeHttpService(serviceName, HttpMethod.GET, uri, headers, null, timeout).map(response -> {
+            long now = System.currentTimeMillis();
+            if (null != cached && response.statusCode() == SC_NOT_MODIFIED) {
+                responseCache.recordRevalidation();
+                cached.refresh(now + this.freshnessLifetime(response, cacheConfig));
+                return cached;
+            }
+            responseCache.recordMiss();
+            CachedResponse fetched = this.toCachedResponse(response, cacheConfig, now);
+            if (this.isStorable(response, fetched, cacheConfig)) {
+                responseCache.put(key, fetched);
+            } else if (response.statusCode() < SC_INTERNAL_SERVER_ERROR) {
+                // a failing service does not evict the entry, it may still be served as stale
+                responseCache.remove(key);
             }
-            logger.debug("Service uri:{}", serviceUri);
-            this.dispatchRequest(context, serviceName, serviceUri, error -> this.restErrorHandler(context, error));
+            return fetched;
+        });
+    }
+
+    private String cacheKey(RoutingContext context, String serviceName, String uri, JsonObject cacheConfig) {
+        StringBuilder key = new StringBuilder(serviceName).append(' ').append(uri);
+        for (Object header : cacheConfig.getJsonArray(KEY_VARY_HEADERS, DEFAULT_VARY_HEADERS)) {
+            String value = context.request().getHeader(header.toString());
+            key.append('\n').append(null == value ? "" : value);
+        }
+        return key.toString();
+    }
+
+    private CachedResponse toCachedResponse(HttpResponse<Buffer> response, JsonObject cacheConfig, long now) {
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        this.copyHeaders(response.headers(), headers);
+        Buffer body = null == response.body() ? Buffer.buffer() : response.body();
+        return new CachedResponse(response.statusCode(), headers, body, response.getHeader(HEADER_ETAG),
+                now + this.freshnessLifetime(response, cacheConfig));
+    }
+
+    private boolean isStorable(HttpResponse<Buffer> response, CachedResponse cached, JsonObject cacheConfig) {
+        CacheControl cacheControl = CacheControl.parse(response.getHeader(HEADER_CACHE_CONTROL));
+        boolean reusable = this.freshnessLifetime(response, cacheConfig) > 0 || null != cached.getEtag();
+        return response.statusCode() == SC_OK
+                && !cacheControl.isNoStore()
+                && this.isVaryCovered(response.headers().getAll(HEADER_VARY), cacheConfig)
+                && cached.getBody().length() <= cacheConfig.getInteger(KEY_MAX_ENTRY_SIZE, DEFAULT_CACHE_MAX_ENTRY_SIZE)
+                && reusable;
+    }
+
+    /**
+     * Return whether the cache key covers every request header a response varies on, the key only holds the
+     * configured "varyHeaders" so a response which varies on any other header, or on "*", is not stored
+     */
+    private boolean isVaryCovered(List<String> vary, JsonObject cacheConfig) {
+        Set<String> varyHeaders = new HashSet<>();
+        cacheConfig.getJsonArray(KEY_VARY_HEADERS, DEFAULT_VARY_HEADERS).forEach(header -> varyHeaders.add(header.toString().toLowerCase()));
+        for (String header : String.join(",", vary).split(",")) {
+            String name = header.trim().toLowerCase();
+            if (!name.isEmpty() && !varyHeaders.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return how long a response stays fresh in milliseconds, the per-service "ttl" in seconds overrides
+     * the max-age given by the service
+     */
+    private long freshnessLifetime(HttpResponse<Buffer> response, JsonObject cacheConfig) {
+        CacheControl cacheControl = CacheControl.parse(response.getHeader(HEADER_CACHE_CONTROL));
+        Long ttl = cacheConfig.getLong(KEY_TTL);
+        if (null != ttl) {
+            return TimeUnit.SECONDS.toMillis(ttl);
+        }
+        if (cacheControl.isNoCache() || cacheControl.getMaxAge() < 0) {
+            return 0;
+        }
+        return TimeUnit.SECONDS.toMillis(cacheControl.getMaxAge());
+    }
+
+    private void writeCachedResponse(RoutingContext context, String key, CachedResponse cached, String cacheStatus) {
+        if (context.response().ended()) {
+            return;
+        }
+        HttpServerResponse response = context.response();
+        String encoding = this.getResponseEncoding(cached.getStatusCode(), cached.getHeaders(), context.request().getHeader(HEADER_ACCEPT_ENCODING));
+        if (this.etagMatches(context.request().getHeader(HEADER_IF_NONE_MATCH), cached.getEtag())) {
+            response.setStatusCode(SC_NOT_MODIFIED).putHeader(HEADER_ETAG, cached.getEtag());
+            if (null != encoding) {
+                this.weakenEtag(response.headers());
+            }
+            response.putHeader(HEADER_X_CACHE, cacheStatus).end();
+            return;
+        }
+        response.setStatusCode(cached.getStatusCode());
+        response.headers().addAll(cached.getHeaders());
+        response.putHeader(HEADER_X_CACHE, cacheStatus);
+        if (CACHE_STALE.equals(cacheStatus)) {
+            response.putHeader(HEADER_WARNING, WARNING_STALE);
+        }
+        if (null == encoding) {
+            response.end(cached.getBody());
+            return;
         }
+        // compressed once per cached response and encoding, later hits are served from the variant kept in the cache
+        Buffer body = responseCache.getEncodedBody(key, cached, encoding,
+                (plain, coding) -> Buffer.newInstance(this.getCompressionPolicy().compress(plain.getDelegate(), coding)));
+        response.headers().set(HEADER_CONTENT_ENCODING, encoding).set(HEADER_CONTENT_LENGTH, String.valueOf(body.length()));
+        this.addVaryAcceptEncoding(response.headers());
+        this.weakenEtag(response.headers());
+        response.end(body);
     }
 }
\ No newline at end of file
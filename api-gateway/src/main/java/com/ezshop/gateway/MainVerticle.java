@@ -0,0 +1,26 @@
+package com.ezshop.gateway;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.reactivex.core.AbstractVerticle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.ezshop.common.ConfigKeys.KEY_INSTANCES;
+
+/**
+ * The Main Verticle of application gateway
+ *
+ * @author Gary Cheng
+ */
+public class MainVerticle extends AbstractVerticle {
+    private static final Logger logger = LoggerFactory.getLogger(MainVerticle.class);
+
+    @Override
+    public void start(Future<Void> startFuture) {
+        int instances = this.config().getInteger(KEY_INSTANCES, Runtime.getRuntime().availableProcessors());
+        logger.debug("Deploying {} instances of application gateway", instances);
+        vertx.rxDeployVerticle(ApiGatewayVerticle.class.getName(), new DeploymentOptions().setConfig(this.config()).setInstances(instances))
+                .subscribe(id -> startFuture.complete(), startFuture::fail);
+    }
+}
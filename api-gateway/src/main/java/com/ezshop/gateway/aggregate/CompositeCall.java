@@ -0,0 +1,196 @@
+package com.ezshop.gateway.aggregate;
+
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.ezshop.common.ConfigKeys.*;
+
+/**
+ * One service call of a composite request
+ * <p>
+ * The uri may refer to the results of other calls with placeholders like "${products.0.id}", the name of call
+ * followed by the keys and array indexes to walk, such a call implicitly depends on the calls it refers to.
+ * A failed "optional" call leaves its "fallback", null by default, in the aggregated result instead of failing
+ * the whole request
+ *
+ * @author Gary Cheng
+ */
+public class CompositeCall {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}.]+)((?:\\.[^}.]+)*)}");
+
+    private final String name;
+    private final String serviceName;
+    private final HttpMethod method;
+    private final String uri;
+    private final JsonObject body;
+    private final long timeout;
+    private final boolean optional;
+    private final Object fallback;
+    private final Set<String> dependencies;
+
+    private CompositeCall(String name, String serviceName, HttpMethod method, String uri, JsonObject body, long timeout,
+                          boolean optional, Object fallback, Set<String> dependencies) {
+        this.name = name;
+        this.serviceName = serviceName;
+        this.method = method;
+        this.uri = uri;
+        this.body = body;
+        this.timeout = timeout;
+        this.optional = optional;
+        this.fallback = fallback;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Create a call from its JSON definition
+     *
+     * @param name           the name of call, its result is put under this name
+     * @param json           the call definition
+     * @param defaultTimeout the timeout in milliseconds of a call which gives none
+     * @return
+     * @throws IllegalArgumentException if the definition is invalid
+     */
+    public static CompositeCall fromJson(String name, JsonObject json, long defaultTimeout) {
+        String serviceName = json.getString(KEY_SERVICE);
+        String uri = json.getString(KEY_URI);
+        if (null == serviceName || null == uri || !uri.startsWith("/")) {
+            throw new IllegalArgumentException("Call " + name + " must name a service and an uri starting with '/'");
+        }
+        HttpMethod method;
+        try {
+            method = HttpMethod.valueOf(json.getString(KEY_METHOD, HttpMethod.GET.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Call " + name + " has unknown method " + json.getString(KEY_METHOD));
+        }
+        Set<String> dependencies = new LinkedHashSet<>();
+        for (Object dependency : json.getJsonArray(KEY_DEPENDS_ON, new JsonArray())) {
+            dependencies.add(String.valueOf(dependency));
+        }
+        Matcher matcher = PLACEHOLDER.matcher(uri);
+        while (matcher.find()) {
+            dependencies.add(matcher.group(1));
+        }
+        if (dependencies.contains(name)) {
+            throw new IllegalArgumentException("Call " + name + " depends on itself");
+        }
+        return new CompositeCall(name, serviceName, method, uri, json.getJsonObject(KEY_BODY),
+                json.getLong(KEY_TIMEOUT, defaultTimeout), json.getBoolean(KEY_OPTIONAL, false),
+                json.getValue(KEY_FALLBACK), Collections.unmodifiableSet(dependencies));
+    }
+
+    /**
+     * Return the uri with its placeholders replaced by the results of calls it depends on
+     *
+     * @param results the results of calls by name
+     * @return
+     * @throws IllegalArgumentException if a placeholder refers to a value which does not exist
+     */
+    public String resolveUri(Map<String, Object> results) {
+        Matcher matcher = PLACEHOLDER.matcher(uri);
+        StringBuffer resolved = new StringBuffer();
+        while (matcher.find()) {
+            Object value = results.get(matcher.group(1));
+            // the keys start with a dot, so the first element of split is empty
+            String[] keys = matcher.group(2).split("\\.");
+            for (int i = 1; i < keys.length; i++) {
+                value = select(value, keys[i]);
+            }
+            if (null == value || value instanceof JsonObject || value instanceof JsonArray) {
+                throw new IllegalArgumentException("Placeholder " + matcher.group() + " of call " + name + " does not refer to a value");
+            }
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(encode(value.toString())));
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    private static Object select(Object value, String key) {
+        if (value instanceof JsonObject) {
+            return ((JsonObject) value).getValue(key);
+        }
+        if (value instanceof JsonArray) {
+            try {
+                int index = Integer.parseInt(key);
+                JsonArray array = (JsonArray) value;
+                return index >= 0 && index < array.size() ? array.getValue(index) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the name of call
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the name of target service
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * @return the HTTP method of call
+     */
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the JSON body of call, null if it has none
+     */
+    public JsonObject getBody() {
+        return body;
+    }
+
+    /**
+     * @return the timeout of call in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return whether the composite request still succeeds when this call fails
+     */
+    public boolean isOptional() {
+        return optional;
+    }
+
+    /**
+     * @return the result of call when an optional call fails
+     */
+    public Object getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @return the names of calls which must complete before this call is sent
+     */
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+}
@@ -0,0 +1,22 @@
+package com.ezshop.gateway.aggregate;
+
+/**
+ * Thrown when a call which is not optional fails, which fails the whole composite request
+ *
+ * @author Gary Cheng
+ */
+public class CompositeCallException extends RuntimeException {
+    private final String callName;
+
+    public CompositeCallException(String callName, String message) {
+        super("Call " + callName + " failed: " + message);
+        this.callName = callName;
+    }
+
+    /**
+     * @return the name of call which failed
+     */
+    public String getCallName() {
+        return callName;
+    }
+}
@@ -0,0 +1,176 @@
+package com.ezshop.gateway.aggregate;
+
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+import static com.ezshop.common.ConfigKeys.KEY_CALLS;
+
+/**
+ * A declarative composite request, a set of named service calls whose results are merged into one response.
+ * Every call is sent as soon as the calls it depends on have completed, so independent calls run in parallel
+ * and the latency of request is that of its longest chain of dependent calls
+ * <p>
+ * The aggregated result holds the result of each call under its name in "results", and the error of each
+ * failed optional call in "errors". The first failed call which is not optional fails the whole request
+ *
+ * @author Gary Cheng
+ */
+public class CompositeRequest {
+    public static final String KEY_RESULTS = "results";
+    public static final String KEY_ERRORS = "errors";
+
+    private final Map<String, CompositeCall> calls;
+
+    private CompositeRequest(Map<String, CompositeCall> calls) {
+        this.calls = calls;
+    }
+
+    /**
+     * Create a composite request from its JSON definition
+     *
+     * @param json           the request definition, its "calls" object maps call names to call definitions
+     * @param defaultTimeout the timeout in milliseconds of a call which gives none
+     * @param maxCalls       the maximum number of calls
+     * @return
+     * @throws IllegalArgumentException if the definition is invalid
+     */
+    public static CompositeRequest fromJson(JsonObject json, long defaultTimeout, int maxCalls) {
+        Object definitions = null == json ? null : json.getValue(KEY_CALLS);
+        if (!(definitions instanceof JsonObject) || ((JsonObject) definitions).isEmpty()) {
+            throw new IllegalArgumentException("Composite request must define its calls");
+        }
+        if (((JsonObject) definitions).size() > maxCalls) {
+            throw new IllegalArgumentException("Composite request must not have more than " + maxCalls + " calls");
+        }
+        Map<String, CompositeCall> calls = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : (JsonObject) definitions) {
+            if (!(entry.getValue() instanceof JsonObject)) {
+                throw new IllegalArgumentException("Call " + entry.getKey() + " must be a JSON object");
+            }
+            calls.put(entry.getKey(), CompositeCall.fromJson(entry.getKey(), (JsonObject) entry.getValue(), defaultTimeout));
+        }
+        Set<String> checked = new HashSet<>();
+        for (String name : calls.keySet()) {
+            checkDependencies(calls, name, new HashSet<>(), checked);
+        }
+        return new CompositeRequest(Collections.unmodifiableMap(calls));
+    }
+
+    private static void checkDependencies(Map<String, CompositeCall> calls, String name, Set<String> path, Set<String> checked) {
+        if (checked.contains(name)) {
+            return;
+        }
+        if (!path.add(name)) {
+            throw new IllegalArgumentException("Calls depend on each other in a cycle through " + name);
+        }
+        for (String dependency : calls.get(name).getDependencies()) {
+            if (!calls.containsKey(dependency)) {
+                throw new IllegalArgumentException("Call " + name + " depends on unknown call " + dependency);
+            }
+            checkDependencies(calls, dependency, path, checked);
+        }
+        path.remove(name);
+        checked.add(name);
+    }
+
+    /**
+     * Execute the calls and aggregate their results
+     *
+     * @param invoker   sends a call to the uri resolved from the results of its dependencies
+     * @param scheduler the scheduler of call timeouts
+     * @return the aggregated result
+     */
+    public Single<JsonObject> execute(BiFunction<CompositeCall, String, Single<Object>> invoker, Scheduler scheduler) {
+        Map<String, Single<Outcome>> outcomes = new HashMap<>();
+        List<Single<Outcome>> all = new ArrayList<>();
+        for (String name : calls.keySet()) {
+            all.add(this.outcome(name, outcomes, invoker, scheduler));
+        }
+        return Single.zip(all, results -> {
+            JsonObject aggregated = new JsonObject();
+            JsonObject errors = new JsonObject();
+            for (Object result : results) {
+                Outcome outcome = (Outcome) result;
+                aggregated.put(outcome.name, outcome.value);
+                if (null != outcome.error) {
+                    errors.put(outcome.name, outcome.error);
+                }
+            }
+            return new JsonObject().put(KEY_RESULTS, aggregated).put(KEY_ERRORS, errors);
+        });
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Return the outcome of a call, every call is sent once however many calls depend on it
+     */
+    private Single<Outcome> outcome(String name, Map<String, Single<Outcome>> outcomes,
+                                    BiFunction<CompositeCall, String, Single<Object>> invoker, Scheduler scheduler) {
+        Single<Outcome> outcome = outcomes.get(name);
+        if (null != outcome) {
+            return outcome;
+        }
+        CompositeCall call = calls.get(name);
+        List<Single<Outcome>> dependencies = new ArrayList<>();
+        for (String dependency : call.getDependencies()) {
+            dependencies.add(this.outcome(dependency, outcomes, invoker, scheduler));
+        }
+        Single<Map<String, Object>> resolved = dependencies.isEmpty() ? Single.just(Collections.<String, Object>emptyMap())
+                : Single.zip(dependencies, results -> {
+            Map<String, Object> values = new HashMap<>();
+            for (Object result : results) {
+                Outcome dependency = (Outcome) result;
+                if (null != dependency.error) {
+                    throw new IllegalStateException("Dependency " + dependency.name + " failed");
+                }
+                values.put(dependency.name, dependency.value);
+            }
+            return values;
+        });
+        outcome = resolved.flatMap(values -> {
+            Single<Object> result = invoker.apply(call, call.resolveUri(values));
+            return call.getTimeout() > 0 ? result.timeout(call.getTimeout(), TimeUnit.MILLISECONDS, scheduler) : result;
+        }).map(value -> new Outcome(name, value, null)).onErrorResumeNext(throwable -> {
+            if (throwable instanceof CompositeCallException) {
+                // a required dependency failed, the whole request fails with it
+                return Single.error(throwable);
+            }
+            String error = throwable instanceof TimeoutException ? "Timed out after " + call.getTimeout() + "ms" : String.valueOf(throwable.getMessage());
+            return call.isOptional() ? Single.just(new Outcome(name, call.getFallback(), error))
+                    : Single.error(new CompositeCallException(name, error));
+        }).cache();
+        outcomes.put(name, outcome);
+        return outcome;
+    }
+
+    private static class Outcome {
+        private final String name;
+        private final Object value;
+        private final String error;
+
+        private Outcome(String name, Object value, String error) {
+            this.name = name;
+            this.value = value;
+            this.error = error;
+        }
+    }
+}
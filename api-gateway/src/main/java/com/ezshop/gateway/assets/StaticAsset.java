@@ -0,0 +1,106 @@
+package com.ezshop.gateway.assets;
+
+import io.vertx.reactivex.core.buffer.Buffer;
+
+/**
+ * What is known about a file under the web root, the content is only kept for small files, larger ones
+ * are sent from disk
+ *
+ * @author Gary Cheng
+ */
+public class StaticAsset {
+    private final String file;
+    private final boolean exists;
+    private final long length;
+    private final long lastModified;
+    private final Buffer content;
+    private volatile long checkedAt;
+
+    private StaticAsset(String file, boolean exists, long length, long lastModified, Buffer content, long checkedAt) {
+        this.file = file;
+        this.exists = exists;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.content = content;
+        this.checkedAt = checkedAt;
+    }
+
+    /**
+     * Create an asset of an existing regular file
+     *
+     * @param file         the path of file
+     * @param length       the length of file
+     * @param lastModified the last modified time of file in milliseconds
+     * @param content      the content of file, null if it is not kept in memory
+     * @param checkedAt    when the file was looked up
+     * @return
+     */
+    public static StaticAsset create(String file, long length, long lastModified, Buffer content, long checkedAt) {
+        return new StaticAsset(file, true, length, lastModified, content, checkedAt);
+    }
+
+    /**
+     * Create an asset of a file which does not exist or is not a regular file
+     *
+     * @param file      the path of file
+     * @param checkedAt when the file was looked up
+     * @return
+     */
+    public static StaticAsset missing(String file, long checkedAt) {
+        return new StaticAsset(file, false, 0, 0, null, checkedAt);
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return exists;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public Buffer getContent() {
+        return content;
+    }
+
+    /**
+     * @return a strong entity tag derived from length and modification time of file
+     */
+    public String getEtag() {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * @return the number of bytes the asset holds in memory
+     */
+    public int getSize() {
+        return null == content ? 0 : content.length();
+    }
+
+    /**
+     * Return whether the file has to be looked up again
+     *
+     * @param now     current time in milliseconds
+     * @param timeout how long a lookup is trusted in milliseconds
+     * @return
+     */
+    public boolean isStale(long now, long timeout) {
+        return now - checkedAt >= timeout;
+    }
+
+    /**
+     * Mark the asset as checked against the file system again
+     *
+     * @param now current time in milliseconds
+     */
+    public void refresh(long now) {
+        this.checkedAt = now;
+    }
+}
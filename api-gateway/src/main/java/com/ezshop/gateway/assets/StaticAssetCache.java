@@ -0,0 +1,93 @@
+package com.ezshop.gateway.assets;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of static assets bounded by the number of assets and the total size of content kept in memory
+ *
+ * @author Gary Cheng
+ */
+public class StaticAssetCache {
+    private final long maxSize;
+    private final int maxEntries;
+    private final LinkedHashMap<String, StaticAsset> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private StaticAssetCache(long maxSize, int maxEntries) {
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Create a static asset cache
+     *
+     * @param maxSize    the maximum total size of content in bytes
+     * @param maxEntries the maximum number of assets, missing files included
+     * @return
+     */
+    public static StaticAssetCache create(long maxSize, int maxEntries) {
+        return new StaticAssetCache(maxSize, maxEntries);
+    }
+
+    /**
+     * Return the asset of given file
+     *
+     * @param file the path of file
+     * @return the asset, null if absent
+     */
+    public synchronized StaticAsset get(String file) {
+        return entries.get(file);
+    }
+
+    /**
+     * Store an asset, evicting the least recently used entries when the cache is full
+     *
+     * @param asset the asset to cache
+     */
+    public synchronized void put(StaticAsset asset) {
+        if (asset.getSize() > maxSize) {
+            StaticAsset previous = entries.remove(asset.getFile());
+            size -= null == previous ? 0 : previous.getSize();
+            return;
+        }
+        StaticAsset previous = entries.put(asset.getFile(), asset);
+        size += asset.getSize() - (null == previous ? 0 : previous.getSize());
+        Iterator<Map.Entry<String, StaticAsset>> iterator = entries.entrySet().iterator();
+        while ((size > maxSize || entries.size() > maxEntries) && iterator.hasNext()) {
+            Map.Entry<String, StaticAsset> eldest = iterator.next();
+            if (eldest.getValue() != asset) {
+                size -= eldest.getValue().getSize();
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized void recordHit() {
+        hits++;
+    }
+
+    public synchronized void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * @return the counters of cache
+     */
+    public synchronized JsonObject toJson() {
+        return new JsonObject()
+                .put("entries", entries.size())
+                .put("size", size)
+                .put("maxSize", maxSize)
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("evictions", evictions);
+    }
+}
@@ -0,0 +1,204 @@
+package com.ezshop.gateway.assets;
+
+import com.ezshop.common.concurrent.SingleFlight;
+import com.ezshop.common.http.CompressionPolicy;
+import io.reactivex.Single;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.http.HttpServerRequest;
+import io.vertx.reactivex.core.http.HttpServerResponse;
+import io.vertx.reactivex.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+
+import static com.ezshop.common.ConfigKeys.*;
+import static com.ezshop.common.HttpResponseCodes.SC_NOT_MODIFIED;
+
+/**
+ * Serve files under the web root from a cache of looked up files. Small files are answered from memory, larger
+ * ones with sendfile. Responses carry strong ETags, fingerprinted files such as "app.3f2a9c1e.js" are marked
+ * immutable, and the gzip compressed sibling "name.gz" of a file is sent when the client accepts gzip.
+ * Range requests and files which are not found are passed to the next handler
+ *
+ * @author Gary Cheng
+ */
+public class StaticAssetHandler implements Handler<RoutingContext> {
+    private static final Logger logger = LoggerFactory.getLogger(StaticAssetHandler.class);
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String INDEX_PAGE = "index.html";
+    private static final String DEFAULT_WEB_ROOT = "webroot";
+    private static final long DEFAULT_MAX_AGE = 86400;
+    private static final int DEFAULT_MAX_CACHED_FILE_SIZE = 256 * 1024;
+    private static final long DEFAULT_CACHE_ENTRY_TIMEOUT = 30000;
+    private static final String DEFAULT_FINGERPRINT_PATTERN = ".+[.-][0-9a-fA-F]{8,}\\.[^.]+";
+    private static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final Vertx vertx;
+    private final StaticAssetCache cache;
+    private final String webRoot;
+    private final boolean precompressed;
+    private final String cacheControl;
+    private final int maxCachedFileSize;
+    private final long cacheEntryTimeout;
+    private final Pattern fingerprintPattern;
+    // only used to negotiate, the files are compressed already
+    private final CompressionPolicy policy = CompressionPolicy.create(new JsonObject().put(KEY_ENABLED, true));
+    private final SingleFlight<StaticAsset> lookups = SingleFlight.create();
+
+    private StaticAssetHandler(Vertx vertx, StaticAssetCache cache, JsonObject config) {
+        this.vertx = vertx;
+        this.cache = cache;
+        this.webRoot = config.getString(KEY_WEB_ROOT, DEFAULT_WEB_ROOT);
+        this.precompressed = config.getBoolean(KEY_PRECOMPRESSED, true);
+        this.cacheControl = "public, max-age=" + config.getLong(KEY_MAX_AGE, DEFAULT_MAX_AGE);
+        this.maxCachedFileSize = config.getInteger(KEY_MAX_CACHED_FILE_SIZE, DEFAULT_MAX_CACHED_FILE_SIZE);
+        this.cacheEntryTimeout = config.getLong(KEY_CACHE_ENTRY_TIMEOUT, DEFAULT_CACHE_ENTRY_TIMEOUT);
+        this.fingerprintPattern = Pattern.compile(config.getString(KEY_FINGERPRINT_PATTERN, DEFAULT_FINGERPRINT_PATTERN));
+    }
+
+    /**
+     * Create a static asset handler
+     *
+     * @param vertx  the vertx instance
+     * @param cache  the cache of looked up files, may be shared by handlers of the same web root
+     * @param config the static assets config
+     * @return
+     */
+    public static StaticAssetHandler create(Vertx vertx, StaticAssetCache cache, JsonObject config) {
+        return new StaticAssetHandler(vertx, cache, config);
+    }
+
+    @Override
+    public void handle(RoutingContext context) {
+        HttpServerRequest request = context.request();
+        String path = context.normalisedPath();
+        if ((request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD)
+                || null != request.getHeader("range") || null == path || path.contains("..")) {
+            context.next();
+            return;
+        }
+        String file = webRoot + (path.endsWith("/") ? path + INDEX_PAGE : path);
+        Single<StaticAsset> asset = this.lookup(file);
+        if (precompressed && CompressionPolicy.GZIP.equals(policy.negotiate(request.getHeader("accept-encoding")))) {
+            asset = this.lookup(file + GZIP_SUFFIX).flatMap(compressed -> compressed.exists() ? Single.just(compressed) : this.lookup(file));
+        }
+        // the request must not be consumed while the file is looked up, handlers behind this one may still read it
+        request.pause();
+        asset.subscribe(found -> this.send(context, file, found), error -> {
+            request.resume();
+            context.fail(error);
+        });
+    }
+
+    /**
+     * Return whether given file name carries a content fingerprint and therefore never changes
+     *
+     * @param fileName the file name
+     * @return
+     */
+    public boolean isFingerprinted(String fileName) {
+        return fingerprintPattern.matcher(fileName).matches();
+    }
+
+    private Single<StaticAsset> lookup(String file) {
+        StaticAsset cached = cache.get(file);
+        if (null != cached && !cached.isStale(System.currentTimeMillis(), cacheEntryTimeout)) {
+            cache.recordHit();
+            return Single.just(cached);
+        }
+        return lookups.execute(file, () -> this.load(file, cached));
+    }
+
+    /**
+     * Look up a file, the content of an unchanged file is kept and small files are read into memory
+     */
+    private Single<StaticAsset> load(String file, StaticAsset cached) {
+        return vertx.fileSystem().rxProps(file).flatMap(props -> {
+            long now = System.currentTimeMillis();
+            if (!props.isRegularFile()) {
+                return Single.just(StaticAsset.missing(file, now));
+            }
+            if (null != cached && cached.exists() && cached.getLength() == props.size()
+                    && cached.getLastModified() == props.lastModifiedTime()) {
+                cached.refresh(now);
+                return Single.just(cached);
+            }
+            if (props.size() > maxCachedFileSize) {
+                return Single.just(StaticAsset.create(file, props.size(), props.lastModifiedTime(), null, now));
+            }
+            return vertx.fileSystem().rxReadFile(file)
+                    .map(content -> StaticAsset.create(file, content.length(), props.lastModifiedTime(), content, now));
+        }).onErrorReturn(error -> StaticAsset.missing(file, System.currentTimeMillis())).doOnSuccess(asset -> {
+            logger.debug("Static asset {} looked up, exists:{}", file, asset.exists());
+            cache.recordMiss();
+            cache.put(asset);
+        });
+    }
+
+    private void send(RoutingContext context, String file, StaticAsset asset) {
+        context.request().resume();
+        if (!asset.exists()) {
+            context.next();
+            return;
+        }
+        HttpServerResponse response = context.response();
+        MultiMap headers = response.headers();
+        String contentType = MimeMapping.getMimeTypeForFilename(file);
+        if (null != contentType) {
+            headers.set("content-type", contentType.startsWith("text") ? contentType + ";charset=UTF-8" : contentType);
+        }
+        String fileName = file.substring(file.lastIndexOf('/') + 1);
+        headers.set("etag", asset.getEtag())
+                .set("last-modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        ZonedDateTime.ofInstant(Instant.ofEpochMilli(asset.getLastModified()), ZoneOffset.UTC)))
+                .set("cache-control", this.isFingerprinted(fileName) ? CACHE_CONTROL_IMMUTABLE : cacheControl);
+        if (precompressed) {
+            headers.set("vary", "accept-encoding");
+        }
+        if (!asset.getFile().equals(file)) {
+            headers.set("content-encoding", CompressionPolicy.GZIP);
+        }
+        if (this.isNotModified(context.request(), asset)) {
+            response.setStatusCode(SC_NOT_MODIFIED).end();
+        } else if (context.request().method() == HttpMethod.HEAD) {
+            response.putHeader("content-length", String.valueOf(asset.getLength())).end();
+        } else if (null != asset.getContent()) {
+            response.end(asset.getContent());
+        } else {
+            response.sendFile(asset.getFile());
+        }
+    }
+
+    private boolean isNotModified(HttpServerRequest request, StaticAsset asset) {
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (null != ifNoneMatch) {
+            for (String tag : ifNoneMatch.split(",")) {
+                if (tag.trim().equals("*") || tag.trim().equals(asset.getEtag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader("if-modified-since");
+        if (null == ifModifiedSince) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return asset.getLastModified() / 1000 <= since / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.ezshop.gateway.cache;
+
+/**
+ * The parsed Cache-Control header of an upstream response
+ *
+ * @author Gary Cheng
+ */
+public class CacheControl {
+    private static final String NO_STORE = "no-store";
+    private static final String NO_CACHE = "no-cache";
+    private static final String PRIVATE = "private";
+    private static final String MAX_AGE = "max-age";
+    private static final String S_MAXAGE = "s-maxage";
+    private static final String STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+    private static final String STALE_IF_ERROR = "stale-if-error";
+
+    private boolean noStore;
+    private boolean noCache;
+    private boolean privateResponse;
+    private long maxAge = -1;
+    private long staleWhileRevalidate = -1;
+    private long staleIfError = -1;
+
+    /**
+     * Parse a Cache-Control header value
+     *
+     * @param header the header value, may be null
+     * @return
+     */
+    public static CacheControl parse(String header) {
+        CacheControl cacheControl = new CacheControl();
+        if (null == header) {
+            return cacheControl;
+        }
+        long sharedMaxAge = -1;
+        for (String directive : header.split(",")) {
+            String[] pair = directive.trim().split("=", 2);
+            String name = pair[0].trim().toLowerCase();
+            if (NO_STORE.equals(name)) {
+                cacheControl.noStore = true;
+            } else if (NO_CACHE.equals(name)) {
+                cacheControl.noCache = true;
+            } else if (PRIVATE.equals(name)) {
+                cacheControl.privateResponse = true;
+            } else if (pair.length == 2 && (MAX_AGE.equals(name) || S_MAXAGE.equals(name))) {
+                long seconds = parseSeconds(pair[1]);
+                if (S_MAXAGE.equals(name)) {
+                    sharedMaxAge = seconds;
+                } else {
+                    cacheControl.maxAge = seconds;
+                }
+            } else if (pair.length == 2 && STALE_WHILE_REVALIDATE.equals(name)) {
+                cacheControl.staleWhileRevalidate = parseSeconds(pair[1]);
+            } else if (pair.length == 2 && STALE_IF_ERROR.equals(name)) {
+                cacheControl.staleIfError = parseSeconds(pair[1]);
+            }
+        }
+        // the gateway is a shared cache, so s-maxage takes precedence
+        if (sharedMaxAge >= 0) {
+            cacheControl.maxAge = sharedMaxAge;
+        }
+        return cacheControl;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Long.parseLong(value.trim().replace("\"", ""));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return whether the response must not be stored
+     */
+    public boolean isNoStore() {
+        return noStore || privateResponse;
+    }
+
+    /**
+     * @return whether the response must be revalidated before each use
+     */
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    /**
+     * @return the freshness lifetime in seconds, -1 if the header gives none
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return seconds a stale response may be served while it is revalidated, -1 if not given
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @return seconds a stale response may be served when the service fails, -1 if not given
+     */
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+}
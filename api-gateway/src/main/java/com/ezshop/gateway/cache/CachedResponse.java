@@ -0,0 +1,122 @@
+package com.ezshop.gateway.cache;
+
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.buffer.Buffer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An upstream response kept in the gateway response cache
+ *
+ * @author Gary Cheng
+ */
+public class CachedResponse {
+    private final int statusCode;
+    private final MultiMap headers;
+    private final Buffer body;
+    private final String etag;
+    private final int size;
+    private final Map<String, Buffer> encodedBodies = new ConcurrentHashMap<>();
+    private volatile int encodedSize;
+    private volatile long expiresAt;
+
+    /**
+     * Create a cached response
+     *
+     * @param statusCode the status code of response
+     * @param headers    the end-to-end headers of response
+     * @param body       the body of response
+     * @param etag       the entity tag of response, may be null
+     * @param expiresAt  the time in milliseconds until which the response is fresh
+     */
+    public CachedResponse(int statusCode, MultiMap headers, Buffer body, String etag, long expiresAt) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+        this.etag = etag;
+        this.expiresAt = expiresAt;
+        int headerSize = 0;
+        for (String name : headers.names()) {
+            for (String value : headers.getAll(name)) {
+                headerSize += name.length() + value.length();
+            }
+        }
+        this.size = body.length() + headerSize * 2;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public MultiMap getHeaders() {
+        return headers;
+    }
+
+    public Buffer getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @param encoding the content encoding
+     * @return the body in given content encoding kept with the response, null if it was not kept
+     */
+    public Buffer getEncodedBody(String encoding) {
+        return encodedBodies.get(encoding);
+    }
+
+    /**
+     * Keep the body in given content encoding with the response, the size of response grows by its length.
+     * Called by the cache which holds the response, so its size is accounted
+     *
+     * @param encoding the content encoding
+     * @param body     the encoded body
+     * @return false if a body in the encoding was kept already
+     */
+    boolean addEncodedBody(String encoding, Buffer body) {
+        if (null != encodedBodies.putIfAbsent(encoding, body)) {
+            return false;
+        }
+        encodedSize += body.length();
+        return true;
+    }
+
+    /**
+     * @return the approximate number of bytes the response occupies, including the encoded bodies kept with it
+     */
+    public int getSize() {
+        return size + encodedSize;
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return whether the response can be served without revalidation
+     */
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    /**
+     * Extend the freshness after a successful revalidation
+     *
+     * @param expiresAt the time in milliseconds until which the response is fresh
+     */
+    public void refresh(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Return whether the response, fresh or not, may still be served
+     *
+     * @param now       current time in milliseconds
+     * @param allowance how long the response may be served after it became stale in milliseconds
+     * @return
+     */
+    public boolean isUsable(long now, long allowance) {
+        return now < expiresAt + allowance;
+    }
+}
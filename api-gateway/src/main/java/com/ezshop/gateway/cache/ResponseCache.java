@@ -0,0 +1,148 @@
+package com.ezshop.gateway.cache;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.buffer.Buffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Size bounded LRU cache of upstream responses, the least recently used entries are evicted once the total size
+ * of cached responses exceeds the limit
+ *
+ * @author Gary Cheng
+ */
+public class ResponseCache {
+    private final long maxSize;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long revalidations;
+    private long staleHits;
+    private long evictions;
+
+    private ResponseCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Create a response cache
+     *
+     * @param maxSize the maximum total size of cached responses in bytes
+     * @return
+     */
+    public static ResponseCache create(long maxSize) {
+        return new ResponseCache(maxSize);
+    }
+
+    /**
+     * Return the cached response of given key
+     *
+     * @param key the cache key
+     * @return the cached response, null if absent
+     */
+    public synchronized CachedResponse get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Store a response, evicting the least recently used entries when the cache is full
+     *
+     * @param key      the cache key
+     * @param response the response to cache
+     */
+    public synchronized void put(String key, CachedResponse response) {
+        if (response.getSize() > maxSize) {
+            this.remove(key);
+            return;
+        }
+        CachedResponse previous = entries.put(key, response);
+        size += response.getSize() - (null == previous ? 0 : previous.getSize());
+        this.evict(response);
+    }
+
+    /**
+     * Return the body of a response in given content encoding. It is encoded on first use, outside the lock, and
+     * kept with the response while the response is cached, its size counts towards the limit like any other entry.
+     * It is not kept when the response alone with all its encodings would exceed the limit
+     *
+     * @param key      the cache key of response
+     * @param response the response
+     * @param encoding the content encoding
+     * @param encoder  encodes the body
+     * @return the encoded body
+     */
+    public Buffer getEncodedBody(String key, CachedResponse response, String encoding, BiFunction<Buffer, String, Buffer> encoder) {
+        Buffer encoded = response.getEncodedBody(encoding);
+        if (null != encoded) {
+            return encoded;
+        }
+        encoded = encoder.apply(response.getBody(), encoding);
+        synchronized (this) {
+            if (entries.get(key) == response && response.getSize() + encoded.length() <= maxSize
+                    && response.addEncodedBody(encoding, encoded)) {
+                size += encoded.length();
+                this.evict(response);
+            }
+        }
+        return encoded;
+    }
+
+    private void evict(CachedResponse kept) {
+        Iterator<Map.Entry<String, CachedResponse>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, CachedResponse> eldest = iterator.next();
+            if (eldest.getValue() != kept) {
+                size -= eldest.getValue().getSize();
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Remove the cached response of given key
+     *
+     * @param key the cache key
+     */
+    public synchronized void remove(String key) {
+        CachedResponse previous = entries.remove(key);
+        if (null != previous) {
+            size -= previous.getSize();
+        }
+    }
+
+    public synchronized void recordHit() {
+        hits++;
+    }
+
+    public synchronized void recordMiss() {
+        misses++;
+    }
+
+    public synchronized void recordRevalidation() {
+        revalidations++;
+    }
+
+    public synchronized void recordStaleHit() {
+        staleHits++;
+    }
+
+    /**
+     * @return the counters of cache
+     */
+    public synchronized JsonObject toJson() {
+        return new JsonObject()
+                .put("entries", entries.size())
+                .put("size", size)
+                .put("maxSize", maxSize)
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("revalidations", revalidations)
+                .put("staleHits", staleHits)
+                .put("evictions", evictions);
+    }
+}
@@ -0,0 +1,207 @@
+package com.ezshop.gateway.ratelimit;
+
+import com.ezshop.common.concurrent.TokenBucket;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.AsyncMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limits per client, decided locally and accounted cluster wide
+ * <p>
+ * Every request is admitted or rejected by the local bucket of its client, so a decision never waits for
+ * the cluster. Periodically each node writes the tokens its clients have taken to an entry of its own in a
+ * cluster wide map, and reads the entries of all nodes back, which costs two map operations per interval
+ * however many clients are active. The tokens which other nodes took since the last synchronization are
+ * debited from the local buckets. The cluster as a whole therefore admits the configured rate, give or take
+ * what the nodes admit during one interval. The entry of a node expires once it stops synchronizing, and
+ * without a cluster the map is local so the limits are just local
+ *
+ * @author Gary Cheng
+ */
+public class ClusterRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRateLimiter.class);
+
+    private final Vertx vertx;
+    private final String mapName;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final double rate;
+    private final double burst;
+    private final long syncInterval;
+    private final long idleTimeout;
+    private final Map<String, ClientLimit> limits = new ConcurrentHashMap<>();
+    // the entries of other nodes seen at the last synchronization
+    private final Map<String, JsonObject> nodes = new ConcurrentHashMap<>();
+    private final AtomicBoolean synchronizing = new AtomicBoolean();
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncFailures = new AtomicLong();
+    private volatile long lastSyncAt;
+
+    private ClusterRateLimiter(Vertx vertx, String mapName, double rate, double burst, long syncInterval, long idleTimeout) {
+        this.vertx = vertx;
+        this.mapName = mapName;
+        this.rate = rate;
+        this.burst = burst;
+        this.syncInterval = syncInterval;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Create a rate limiter
+     *
+     * @param vertx        the Vert.x instance
+     * @param mapName      the name of cluster wide map which holds the entries of nodes
+     * @param rate         the number of requests per second allowed to a client
+     * @param burst        the number of requests a client may send at once
+     * @param syncInterval the interval of synchronization with the cluster in milliseconds
+     * @param idleTimeout  the time in milliseconds after which the limit of an idle client, or the entry of a node
+     *                     which stopped, is forgotten
+     * @return
+     */
+    public static ClusterRateLimiter create(Vertx vertx, String mapName, double rate, double burst, long syncInterval, long idleTimeout) {
+        return new ClusterRateLimiter(vertx, mapName, rate, burst, syncInterval, idleTimeout);
+    }
+
+    /**
+     * Admit a request of client
+     *
+     * @param key the key of client
+     * @return true if the request is within the limit of client
+     */
+    public boolean tryAcquire(String key) {
+        ClientLimit limit = limits.computeIfAbsent(key, k -> new ClientLimit(TokenBucket.create(rate, burst)));
+        limit.lastUsedAt = System.currentTimeMillis();
+        if (limit.bucket.tryAcquire()) {
+            limit.taken.incrementAndGet();
+            allowed.incrementAndGet();
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @param key the key of client
+     * @return the number of seconds after which the client may send a request again
+     */
+    public long getRetryAfter(String key) {
+        ClientLimit limit = limits.get(key);
+        return null == limit ? 1 : Math.max(1, limit.bucket.getRetryAfter());
+    }
+
+    /**
+     * Forget idle clients and synchronize the known clients with the cluster, does nothing if the last synchronization is
+     * more recent than the interval or still in progress. Every verticle which shares the limiter calls it
+     * periodically so the limiter does not depend on any one of them
+     */
+    public void synchronize() {
+        long now = System.currentTimeMillis();
+        if (now - lastSyncAt < syncInterval || !synchronizing.compareAndSet(false, true)) {
+            return;
+        }
+        lastSyncAt = now;
+        limits.entrySet().removeIf(entry -> entry.getValue().isIdle(now - idleTimeout));
+        if (limits.isEmpty()) {
+            synchronizing.set(false);
+            return;
+        }
+        JsonObject entry = new JsonObject();
+        limits.forEach((key, limit) -> entry.put(key, limit.taken.get()));
+        vertx.sharedData().<String, JsonObject>getAsyncMap(mapName, ar -> {
+            if (ar.failed()) {
+                this.syncFailed("get the rate limit map", ar.cause());
+                return;
+            }
+            AsyncMap<String, JsonObject> map = ar.result();
+            // written with every synchronization, so the entry lives as long as the node synchronizes
+            map.put(nodeId, entry, idleTimeout, put -> {
+                if (put.failed()) {
+                    this.syncFailed("write the rate limit entry", put.cause());
+                    return;
+                }
+                map.entries(entries -> {
+                    if (entries.failed()) {
+                        this.syncFailed("read the rate limit entries", entries.cause());
+                        return;
+                    }
+                    this.account(entries.result());
+                    syncs.incrementAndGet();
+                    synchronizing.set(false);
+                });
+            });
+        });
+    }
+
+    private void syncFailed(String operation, Throwable cause) {
+        logger.warn("Failed to {}: {}", operation, cause.getMessage());
+        syncFailures.incrementAndGet();
+        synchronizing.set(false);
+    }
+
+    /**
+     * Debit the tokens which other nodes took since the last synchronization, the entries hold the tokens each node
+     * took per client since it knew the client. What a node took before this node first saw it is history
+     */
+    private void account(Map<String, JsonObject> entries) {
+        nodes.keySet().retainAll(entries.keySet());
+        entries.forEach((node, counts) -> {
+            if (nodeId.equals(node)) {
+                return;
+            }
+            JsonObject previous = nodes.put(node, counts);
+            if (null == previous) {
+                return;
+            }
+            counts.forEach(count -> {
+                ClientLimit limit = limits.get(count.getKey());
+                if (null == limit) {
+                    return;
+                }
+                long taken = ((Number) count.getValue()).longValue();
+                long before = previous.getLong(count.getKey(), 0L);
+                // a count lower than before started over after the node forgot the idle client
+                long others = taken >= before ? taken - before : taken;
+                if (others > 0) {
+                    limit.bucket.debit(others);
+                }
+            });
+        });
+    }
+
+    /**
+     * @return the state of limiter
+     */
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("clients", limits.size())
+                .put("nodes", nodes.size() + 1)
+                .put("allowed", allowed.get())
+                .put("rejected", rejected.get())
+                .put("syncs", syncs.get())
+                .put("syncFailures", syncFailures.get());
+    }
+
+    private static class ClientLimit {
+        private final TokenBucket bucket;
+        // the tokens taken on this node, published with every synchronization
+        private final AtomicLong taken = new AtomicLong();
+        private volatile long lastUsedAt;
+
+        private ClientLimit(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        private boolean isIdle(long idleSince) {
+            return lastUsedAt < idleSince;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.ezshop.gateway.route;
+
+import io.vertx.core.json.JsonObject;
+
+import static com.ezshop.common.ConfigKeys.*;
+
+/**
+ * A route of gateway, maps the requests under a path prefix to a service
+ * <p>
+ * The path may end with the segment "{service}", the service name is then taken from that segment of request path.
+ * The matched prefix is replaced by "rewrite" when the request is forwarded, "/" by default which strips it
+ *
+ * @author Gary Cheng
+ */
+public class Route {
+    static final String PARAM_SERVICE = "{service}";
+
+    private final String path;
+    private final String serviceName;
+    private final String rewrite;
+    private final long timeout;
+    private final JsonObject cacheConfig;
+
+    private Route(String path, String serviceName, String rewrite, long timeout, JsonObject cacheConfig) {
+        this.path = path;
+        this.serviceName = serviceName;
+        this.rewrite = rewrite;
+        this.timeout = timeout;
+        this.cacheConfig = cacheConfig;
+    }
+
+    /**
+     * Create a route from its JSON definition
+     *
+     * @param json the route definition
+     * @return
+     * @throws IllegalArgumentException if the definition is invalid
+     */
+    public static Route fromJson(JsonObject json) {
+        String path = json.getString(KEY_PATH);
+        if (null == path || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Route path must start with '/': " + path);
+        }
+        String serviceName = json.getString(KEY_SERVICE);
+        if (null == serviceName && !path.endsWith("/" + PARAM_SERVICE)) {
+            throw new IllegalArgumentException("Route " + path + " must name a service or end with " + PARAM_SERVICE);
+        }
+        String rewrite = json.getString(KEY_REWRITE, "/");
+        // a trailing slash is implied by the remainder of request path
+        rewrite = rewrite.endsWith("/") ? rewrite.substring(0, rewrite.length() - 1) : rewrite;
+        return new Route(path, serviceName, rewrite, json.getLong(KEY_TIMEOUT, 0L), json.getJsonObject(KEY_CACHE));
+    }
+
+    /**
+     * @return the path pattern of route
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the name of target service, null if it is taken from the request path
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * @return the prefix which replaces the matched path, without trailing slash
+     */
+    public String getRewrite() {
+        return rewrite;
+    }
+
+    /**
+     * @return the timeout of upstream request in milliseconds, 0 if not limited by route
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the response cache config which overrides the service's, null if not overridden
+     */
+    public JsonObject getCacheConfig() {
+        return cacheConfig;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ezshop.gateway.route;
+
+/**
+ * The result of matching a request uri against the route table, only positions are recorded while matching,
+ * the service name and uri are built on demand
+ *
+ * @author Gary Cheng
+ */
+public class RouteMatch {
+    private final Route route;
+    private final String uri;
+    final int matchEnd;
+    private final int paramStart;
+    private final int paramEnd;
+
+    RouteMatch(Route route, String uri, int matchEnd, int paramStart, int paramEnd) {
+        this.route = route;
+        this.uri = uri;
+        this.matchEnd = matchEnd;
+        this.paramStart = paramStart;
+        this.paramEnd = paramEnd;
+    }
+
+    /**
+     * @return the matched route
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the name of target service
+     */
+    public String getServiceName() {
+        return null == route.getServiceName() ? uri.substring(paramStart, paramEnd) : route.getServiceName();
+    }
+
+    /**
+     * @return the rewritten uri at the service, including the query string
+     */
+    public String getServiceUri() {
+        String serviceUri = route.getRewrite() + uri.substring(matchEnd);
+        if (serviceUri.isEmpty() || serviceUri.charAt(0) == '?') {
+            serviceUri = "/" + serviceUri;
+        }
+        return serviceUri;
+    }
+}
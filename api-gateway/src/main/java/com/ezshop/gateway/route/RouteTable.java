@@ -0,0 +1,145 @@
+package com.ezshop.gateway.route;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * Immutable table of gateway routes compiled into a prefix trie of path characters. A request uri is matched
+ * by walking the trie once, the longest route which ends at a segment boundary wins and literal segments take
+ * precedence over "{service}"
+ *
+ * @author Gary Cheng
+ */
+public class RouteTable {
+    private final Node root = new Node();
+    private final int size;
+
+    private RouteTable(JsonArray routes) {
+        for (Object route : routes) {
+            if (!(route instanceof JsonObject)) {
+                throw new IllegalArgumentException("Route must be a JSON object: " + route);
+            }
+            this.add(Route.fromJson((JsonObject) route));
+        }
+        this.size = routes.size();
+    }
+
+    /**
+     * Compile the route table from route definitions
+     *
+     * @param routes the route definitions
+     * @return
+     * @throws IllegalArgumentException if any definition is invalid
+     */
+    public static RouteTable compile(JsonArray routes) {
+        return new RouteTable(routes);
+    }
+
+    /**
+     * Find the route of given request uri
+     *
+     * @param uri the request uri, may include query string
+     * @return the match, null if no route matches
+     */
+    public RouteMatch match(String uri) {
+        int end = uri.indexOf('?');
+        return this.match(root, uri, 0, end < 0 ? uri.length() : end, -1, -1);
+    }
+
+    /**
+     * @return the number of routes
+     */
+    public int size() {
+        return size;
+    }
+
+    private RouteMatch match(Node node, String uri, int start, int end, int paramStart, int paramEnd) {
+        Route route = null;
+        int matchEnd = -1;
+        RouteMatch paramMatch = null;
+        Node current = node;
+        int i = start;
+        while (null != current) {
+            if (null != current.route && (i == end || uri.charAt(i) == '/')) {
+                route = current.route;
+                matchEnd = i;
+            }
+            if (null != current.param && i < end && uri.charAt(i) != '/') {
+                int segmentEnd = i;
+                while (segmentEnd < end && uri.charAt(segmentEnd) != '/') {
+                    segmentEnd++;
+                }
+                RouteMatch match = this.match(current.param, uri, segmentEnd, end, i, segmentEnd);
+                if (null != match) {
+                    paramMatch = match;
+                }
+            }
+            current = i < end ? current.child(uri.charAt(i)) : null;
+            i++;
+        }
+        // a literal match at least as long as the parameterised one is preferred
+        if (null != paramMatch && (null == route || paramMatch.matchEnd > matchEnd)) {
+            return paramMatch;
+        }
+        return null == route ? null : new RouteMatch(route, uri, matchEnd, paramStart, paramEnd);
+    }
+
+    private void add(Route route) {
+        String path = route.getPath();
+        boolean param = path.endsWith("/" + Route.PARAM_SERVICE);
+        String literal = param ? path.substring(0, path.length() - Route.PARAM_SERVICE.length()) : path;
+        if (!param && literal.endsWith("/")) {
+            literal = literal.substring(0, literal.length() - 1);
+        }
+        if (literal.indexOf('{') >= 0 || literal.indexOf('?') >= 0) {
+            throw new IllegalArgumentException("Unsupported route path: " + path);
+        }
+        Node node = root;
+        for (int i = 0; i < literal.length(); i++) {
+            node = node.childOrCreate(literal.charAt(i));
+        }
+        if (param) {
+            if (null == node.param) {
+                node.param = new Node();
+            }
+            node = node.param;
+        }
+        if (null != node.route) {
+            throw new IllegalArgumentException("Duplicate route: " + path);
+        }
+        node.route = route;
+    }
+
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Node param;
+        private Route route;
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node childOrCreate(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            newKeys[insertion] = c;
+            newChildren[insertion] = new Node();
+            System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+    }
+}
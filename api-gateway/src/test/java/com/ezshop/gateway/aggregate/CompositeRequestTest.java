@@ -0,0 +1,74 @@
+package com.ezshop.gateway.aggregate;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * CompositeRequestTest
+ *
+ * @author Gary Cheng
+ */
+public class CompositeRequestTest {
+
+    @Test
+    public void dependentCallUsesResultOfDependency() {
+        CompositeRequest request = CompositeRequest.fromJson(new JsonObject().put("calls", new JsonObject()
+                .put("categories", new JsonObject().put("service", "product").put("uri", "/categories"))
+                .put("first", new JsonObject().put("service", "product").put("uri", "/categories/${categories.0.id}"))
+                .put("user", new JsonObject().put("service", "user").put("uri", "/me"))), 1000, 16);
+        List<String> uris = new ArrayList<>();
+        JsonObject result = request.execute((call, uri) -> {
+            uris.add(uri);
+            if ("categories".equals(call.getName())) {
+                return Single.just(new JsonArray().add(new JsonObject().put("id", "a b")));
+            }
+            return Single.just(new JsonObject().put("uri", uri));
+        }, Schedulers.computation()).blockingGet();
+        assertEquals("/categories/a%20b", result.getJsonObject("results").getJsonObject("first").getString("uri"));
+        assertEquals(1, result.getJsonObject("results").getJsonArray("categories").size());
+        assertTrue(result.getJsonObject("errors").isEmpty());
+        assertEquals(3, uris.size());
+        assertTrue(uris.contains("/categories/a%20b"));
+    }
+
+    @Test
+    public void optionalCallFailsAlone() {
+        CompositeRequest request = CompositeRequest.fromJson(new JsonObject().put("calls", new JsonObject()
+                .put("slow", new JsonObject().put("service", "a").put("uri", "/").put("timeout", 50)
+                        .put("optional", true).put("fallback", new JsonArray()))
+                .put("fast", new JsonObject().put("service", "b").put("uri", "/"))), 1000, 16);
+        JsonObject result = request.execute((call, uri) -> "a".equals(call.getServiceName())
+                ? Single.never() : Single.just(new JsonObject()), Schedulers.computation()).blockingGet();
+        assertEquals(new JsonArray(), result.getJsonObject("results").getJsonArray("slow"));
+        assertNotNull(result.getJsonObject("results").getJsonObject("fast"));
+        assertEquals("Timed out after 50ms", result.getJsonObject("errors").getString("slow"));
+    }
+
+    @Test
+    public void requiredCallFailsRequest() {
+        CompositeRequest request = CompositeRequest.fromJson(new JsonObject().put("calls", new JsonObject()
+                .put("a", new JsonObject().put("service", "a").put("uri", "/"))
+                .put("b", new JsonObject().put("service", "b").put("uri", "/").put("dependsOn", new JsonArray().add("a")))), 1000, 16);
+        try {
+            request.execute((call, uri) -> Single.error(new IllegalStateException("down")), Schedulers.computation()).blockingGet();
+            fail("Request must fail");
+        } catch (CompositeCallException e) {
+            assertEquals("a", e.getCallName());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCycle() {
+        CompositeRequest.fromJson(new JsonObject().put("calls", new JsonObject()
+                .put("a", new JsonObject().put("service", "a").put("uri", "/${b.id}"))
+                .put("b", new JsonObject().put("service", "b").put("uri", "/${a.id}"))), 1000, 16);
+    }
+}
@@ -0,0 +1,51 @@
+package com.ezshop.gateway.assets;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.buffer.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * StaticAssetCacheTest
+ *
+ * @author Gary Cheng
+ */
+public class StaticAssetCacheTest {
+
+    @Test
+    public void evictLeastRecentlyUsedContent() {
+        StaticAssetCache cache = StaticAssetCache.create(250, 10);
+        cache.put(this.createAsset("a", 100));
+        cache.put(this.createAsset("b", 100));
+        assertNotNull(cache.get("a"));
+        cache.put(this.createAsset("c", 100));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(200L, cache.toJson().getLong("size").longValue());
+    }
+
+    @Test
+    public void boundNumberOfAssets() {
+        StaticAssetCache cache = StaticAssetCache.create(250, 2);
+        cache.put(StaticAsset.missing("a", 0));
+        cache.put(StaticAsset.missing("b", 0));
+        cache.put(StaticAsset.create("c", 1000, 0, null, 0));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(0L, cache.toJson().getLong("size").longValue());
+    }
+
+    @Test
+    public void fingerprintedFilesAreRecognised() {
+        StaticAssetHandler handler = StaticAssetHandler.create(null, StaticAssetCache.create(0, 0), new JsonObject());
+        assertTrue(handler.isFingerprinted("app.3f2a9c1e.js"));
+        assertTrue(handler.isFingerprinted("vendor-0123456789abcdef.css"));
+        assertFalse(handler.isFingerprinted("app.js"));
+        assertFalse(handler.isFingerprinted("index.html"));
+    }
+
+    private StaticAsset createAsset(String file, int length) {
+        return StaticAsset.create(file, length, 0, Buffer.buffer(new String(new char[length])), 0);
+    }
+}
@@ -0,0 +1,95 @@
+package com.ezshop.gateway.cache;
+
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.buffer.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResponseCacheTest
+ *
+ * @author Gary Cheng
+ */
+public class ResponseCacheTest {
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        ResponseCache cache = ResponseCache.create(250);
+        cache.put("a", this.createResponse(100));
+        cache.put("b", this.createResponse(100));
+        assertNotNull(cache.get("a"));
+        cache.put("c", this.createResponse(100));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1L, cache.toJson().getLong("evictions").longValue());
+        assertEquals(200L, cache.toJson().getLong("size").longValue());
+    }
+
+    @Test
+    public void rejectOversizedResponse() {
+        ResponseCache cache = ResponseCache.create(50);
+        cache.put("a", this.createResponse(100));
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.toJson().getLong("size").longValue());
+    }
+
+    @Test
+    public void countEncodedBodies() {
+        ResponseCache cache = ResponseCache.create(250);
+        CachedResponse a = this.createResponse(100);
+        cache.put("a", a);
+        cache.put("b", this.createResponse(100));
+        assertNotNull(cache.get("a"));
+        Buffer gzip = cache.getEncodedBody("a", a, "gzip", (body, encoding) -> this.createResponse(60).getBody());
+        assertEquals(60, gzip.length());
+        assertSame(gzip, cache.getEncodedBody("a", a, "gzip", (body, encoding) -> {
+            throw new AssertionError("encoded twice");
+        }));
+        // the kept variant grows the entry, which evicts the least recently used one
+        assertEquals(160, a.getSize());
+        assertNull(cache.get("b"));
+        assertEquals(160L, cache.toJson().getLong("size").longValue());
+        // a variant which does not fit next to its response is encoded but not kept
+        assertEquals(100, cache.getEncodedBody("a", a, "deflate", (body, encoding) -> this.createResponse(100).getBody()).length());
+        assertNull(a.getEncodedBody("deflate"));
+        cache.remove("a");
+        assertEquals(0L, cache.toJson().getLong("size").longValue());
+    }
+
+    @Test
+    public void encodedBodyOfUncachedResponseIsNotKept() {
+        ResponseCache cache = ResponseCache.create(250);
+        CachedResponse a = this.createResponse(100);
+        cache.getEncodedBody("a", a, "gzip", (body, encoding) -> this.createResponse(60).getBody());
+        assertNull(a.getEncodedBody("gzip"));
+        assertEquals(100, a.getSize());
+    }
+
+    @Test
+    public void parseCacheControl() {
+        assertEquals(60, CacheControl.parse("public, max-age=60").getMaxAge());
+        assertEquals(120, CacheControl.parse("max-age=60, s-maxage=120").getMaxAge());
+        assertEquals(-1, CacheControl.parse(null).getMaxAge());
+        assertTrue(CacheControl.parse("no-store").isNoStore());
+        assertTrue(CacheControl.parse("private, max-age=60").isNoStore());
+        assertTrue(CacheControl.parse("no-cache").isNoCache());
+    }
+
+    @Test
+    public void serveStaleWithinAllowance() {
+        CacheControl cacheControl = CacheControl.parse("max-age=60, stale-while-revalidate=30, stale-if-error=300");
+        assertEquals(30, cacheControl.getStaleWhileRevalidate());
+        assertEquals(300, cacheControl.getStaleIfError());
+        assertEquals(-1, CacheControl.parse("max-age=60").getStaleIfError());
+        CachedResponse cached = new CachedResponse(200, MultiMap.caseInsensitiveMultiMap(), Buffer.buffer(), null, 1000);
+        assertFalse(cached.isFresh(1500));
+        assertTrue(cached.isUsable(1500, 1000));
+        assertFalse(cached.isUsable(2000, 1000));
+    }
+
+    private CachedResponse createResponse(int size) {
+        return new CachedResponse(200, MultiMap.caseInsensitiveMultiMap(), Buffer.newInstance(io.vertx.core.buffer.Buffer.buffer(new byte[size])), null, Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ezshop.gateway.ratelimit;
+
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * ClusterRateLimiterTest
+ *
+ * @author Gary Cheng
+ */
+public class ClusterRateLimiterTest {
+    private final Vertx vertx = Vertx.vertx();
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void debitTokensTakenOnOtherNodes() {
+        // two limiters on one map stand for two nodes
+        ClusterRateLimiter first = ClusterRateLimiter.create(vertx, "rateLimits", 0.1, 10, 0, 60000);
+        ClusterRateLimiter second = ClusterRateLimiter.create(vertx, "rateLimits", 0.1, 10, 0, 60000);
+        assertTrue(first.tryAcquire("client"));
+        assertTrue(second.tryAcquire("client"));
+        this.synchronize(first, second, first);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(first.tryAcquire("client"));
+        }
+        this.synchronize(first, second);
+        // the second node has one of its ten tokens left after the other node took eight
+        assertTrue(second.tryAcquire("client"));
+        assertFalse(second.tryAcquire("client"));
+        assertEquals(2, second.toJson().getInteger("nodes").intValue());
+    }
+
+    @Test
+    public void entryOfActiveNodeDoesNotExpire() throws InterruptedException {
+        ClusterRateLimiter first = ClusterRateLimiter.create(vertx, "rateLimits", 100, 100, 0, 300);
+        ClusterRateLimiter second = ClusterRateLimiter.create(vertx, "rateLimits", 100, 100, 0, 300);
+        long until = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < until) {
+            first.tryAcquire("client");
+            second.tryAcquire("client");
+            this.synchronize(first, second);
+            Thread.sleep(50);
+        }
+        assertEquals(2, first.toJson().getInteger("nodes").intValue());
+        assertEquals(2, second.toJson().getInteger("nodes").intValue());
+    }
+
+    private void synchronize(ClusterRateLimiter... limiters) {
+        for (ClusterRateLimiter limiter : limiters) {
+            long syncs = limiter.toJson().getLong("syncs");
+            limiter.synchronize();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (limiter.toJson().getLong("syncs") == syncs && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            assertEquals(syncs + 1, limiter.toJson().getLong("syncs").longValue());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.ezshop.gateway.route;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * RouteTableTest
+ *
+ * @author Gary Cheng
+ */
+public class RouteTableTest {
+    private final RouteTable routeTable = RouteTable.compile(new JsonArray()
+            .add(new JsonObject().put("path", "/api/{service}"))
+            .add(new JsonObject().put("path", "/api/product").put("service", "product").put("timeout", 3000))
+            .add(new JsonObject().put("path", "/api/v2/catalog/").put("service", "product").put("rewrite", "/v2/")));
+
+    @Test
+    public void literalRouteWinsOverServiceSegment() {
+        RouteMatch match = routeTable.match("/api/product/categories?page=1");
+        assertEquals("product", match.getServiceName());
+        assertEquals("/categories?page=1", match.getServiceUri());
+        assertEquals(3000, match.getRoute().getTimeout());
+    }
+
+    @Test
+    public void serviceSegmentNamesService() {
+        RouteMatch match = routeTable.match("/api/order/123");
+        assertEquals("order", match.getServiceName());
+        assertEquals("/123", match.getServiceUri());
+        assertEquals("/", routeTable.match("/api/order").getServiceUri());
+        assertEquals("products", routeTable.match("/api/products/1").getServiceName());
+    }
+
+    @Test
+    public void prefixIsRewritten() {
+        RouteMatch match = routeTable.match("/api/v2/catalog/categories");
+        assertEquals("product", match.getServiceName());
+        assertEquals("/v2/categories", match.getServiceUri());
+    }
+
+    @Test
+    public void unmatchedPathHasNoRoute() {
+        assertNull(routeTable.match("/api/"));
+        assertNull(routeTable.match("/static/index.html"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateRouteIsRejected() {
+        RouteTable.compile(new JsonArray()
+                .add(new JsonObject().put("path", "/api/product").put("service", "product"))
+                .add(new JsonObject().put("path", "/api/product/").put("service", "catalog")));
+    }
+}
@@ -1,14 +1,35 @@
 package com.ezshop.common;
 
+import com.ezshop.common.concurrent.InFlightTracker;
+import com.ezshop.common.concurrent.SharedResources;
+import com.ezshop.common.discovery.ServiceClient;
+import com.ezshop.common.http.AccessLog;
+import com.ezshop.common.http.AdmissionController;
+import com.ezshop.common.http.CompressingWriteStream;
+import com.ezshop.common.http.CompressionPolicy;
+import com.ezshop.common.http.WarmUp;
+import io.reactivex.Completable;
 import io.reactivex.Single;
+import io.vertx.circuitbreaker.CircuitBreakerState;
 import io.vertx.core.Handler;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.impl.NoStackTraceThrowable;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.reactivex.RxHelper;
 import io.vertx.reactivex.core.Future;
 import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.http.HttpClient;
+import io.vertx.reactivex.core.http.HttpClientRequest;
+import io.vertx.reactivex.core.http.HttpClientResponse;
+import io.vertx.reactivex.core.http.HttpConnection;
 import io.vertx.reactivex.core.http.HttpServer;
 import io.vertx.reactivex.core.http.HttpServerRequest;
+import io.vertx.reactivex.core.http.HttpServerResponse;
+import io.vertx.reactivex.core.streams.Pump;
 import io.vertx.reactivex.ext.web.Router;
 import io.vertx.reactivex.ext.web.RoutingContext;
 import io.vertx.reactivex.ext.web.client.HttpRequest;
@@ -18,11 +39,15 @@ import io.vertx.reactivex.ext.web.handler.CorsHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
-import static com.ezshop.common.ConfigKeys.KEY_PORT;
+import static com.ezshop.common.ConfigKeys.*;
 import static com.ezshop.common.ErrorCodes.SYSTEM_ERROR_CODE;
 import static com.ezshop.common.HttpResponseCodes.*;
 
@@ -36,9 +61,63 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
     private static final String KEY_ERROR = "error";
     private static final String KEY_ERROR_CODE = "code";
     private static final String KEY_ERROR_MESSAGE = "message";
+    private static final String URI_METRICS = "/admin/metrics";
+    private static final String HEADER_CONTENT_LENGTH = "content-length";
+    private static final String HEADER_TRANSFER_ENCODING = "transfer-encoding";
+    private static final String HEADER_USER_PRINCIPAL = "user-principal";
+    private static final String HEADER_ETAG = "etag";
+    private static final String HEADER_CACHE_CONTROL = "cache-control";
+    private static final String HEADER_IF_NONE_MATCH = "if-none-match";
+    private static final String HEADER_AUTHORIZATION = "authorization";
+    private static final String HEADER_COOKIE = "cookie";
+    private static final String HEADER_RETRY_AFTER = "retry-after";
+    private static final long DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+    private static final String HEADER_ACCEPT_ENCODING = "accept-encoding";
+    private static final String HEADER_CONTENT_ENCODING = "content-encoding";
+    private static final String HEADER_VARY = "vary";
+    private static final String SHARED_ACCESS_LOGS = "ezshop.accessLogs";
+    private static final int DEFAULT_ACCESS_LOG_BUFFER_SIZE = 8192;
+    private static final String ACCESS_LOG_ROUTE = "accessLog.route";
+    private static final String ACCESS_LOG_SERVICE = "accessLog.service";
+    private static final String ACCESS_LOG_INSTANCE = "accessLog.instance";
+    private static final String ACCESS_LOG_UPSTREAM = "accessLog.upstream";
+    private static final String KEY_ENDPOINT = "endpoint";
+    private static final String SHARED_WARM_UPS = "ezshop.warmUps";
+    private static final String METRICS_IN_FLIGHT = "inFlight";
+
+    private CompressionPolicy compressionPolicy = CompressionPolicy.create(null);
+    private SharedResources<AccessLog> sharedAccessLogs;
+    private AccessLog accessLog;
+    private SharedResources<WarmUp> sharedWarmUps;
+    private String warmUpKey;
+    private final InFlightTracker inFlightRequests = InFlightTracker.create();
+    private final Map<HttpConnection, ConnectionState> connections = new ConcurrentHashMap<>();
+    private volatile boolean draining;
+    private AdmissionController admissionController;
+    private static final JsonArray DEFAULT_COALESCING_VARY_HEADERS = new JsonArray().add("accept").add("accept-encoding");
+    private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization",
+            "te", "trailer", "transfer-encoding", "upgrade"));
+
+    @Override
+    public void stop() {
+        if (null != accessLog && sharedAccessLogs.release(KEY_ACCESS_LOG)) {
+            accessLog.close();
+        }
+        if (null != warmUpKey) {
+            sharedWarmUps.release(warmUpKey);
+        }
+        if (null != admissionController) {
+            admissionController.close();
+        }
+        super.stop();
+    }
 
     /**
-     * Create a HTTP server by given config and router
+     * Create a HTTP server by given config and router, with a "protocol" of "h2c" the HTTP/2 connections are limited
+     * to "maxConcurrentStreams" streams. The "compression" config applies to responses relayed from services,
+     * an enabled "accessLog" records every request the router handles and the "admission" config bounds the
+     * requests handled and queued at once
      *
      * @param config HTTP config
      * @param router the router receives HTTP request
@@ -46,19 +125,178 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
      */
     protected Single<HttpServer> createHttpServer(JsonObject config, Router router) {
         int port = config.getInteger(KEY_PORT);
-        HttpServer server = vertx.createHttpServer();
-        server.requestStream()
-                .toFlowable()
-                .map(HttpServerRequest::pause)
-                .onBackpressureDrop(req -> req.response().setStatusCode(SC_SERVICE_UNAVAILABLE).end())
-                .observeOn(RxHelper.scheduler(vertx.getDelegate()))
-                .subscribe(req -> {
-                    req.resume();
-                    router.accept(req);
-                });
+        this.compressionPolicy = CompressionPolicy.create(config.getJsonObject(KEY_COMPRESSION));
+        // compression is done per response rather than by the server, which would also disable sendfile
+        HttpServerOptions options = new HttpServerOptions();
+        if (ServiceClient.PROTOCOL_H2C.equals(config.getString(KEY_PROTOCOL))) {
+            // the server accepts h2c next to HTTP/1.1, limit how many streams a client may multiplex on a connection
+            options.setInitialSettings(new Http2Settings().setMaxConcurrentStreams(
+                    config.getLong(KEY_MAX_CONCURRENT_STREAMS, DEFAULT_MAX_CONCURRENT_STREAMS)));
+        }
+        JsonObject accessLogConfig = config.getJsonObject(KEY_ACCESS_LOG, new JsonObject());
+        if (accessLogConfig.getBoolean(KEY_ENABLED, false)) {
+            this.enableAccessLog(router, accessLogConfig);
+        }
+        this.admissionController = AdmissionController.create(vertx, config.getJsonObject(KEY_ADMISSION), router::accept);
+        this.registerMetrics(KEY_ADMISSION, admissionController::toJson);
+        this.registerMetrics(METRICS_IN_FLIGHT, this::getInFlightMetrics);
+        HttpServer server = vertx.createHttpServer(options);
+        server.connectionHandler(this::connectionHandler);
+        server.requestHandler(this::requestHandler);
         return server.rxListen(port).doAfterSuccess(s -> logger.debug("http server started on port {}", port));
     }
 
+    /**
+     * Stop accepting connections and wait for the requests in flight. Idle connections are closed right away,
+     * HTTP/2 connections are shut down with GOAWAY once their streams end and HTTP/1.x connections are closed
+     * after their last response. The listening socket is left to Vert.x, closing it while instances on the same
+     * port are still draining would close their connections too
+     *
+     * @param timeout the max time to wait in milliseconds
+     * @return
+     */
+    @Override
+    protected Completable drain(long timeout) {
+        this.draining = true;
+        logger.debug("Draining {} requests on {} connections", inFlightRequests.getInFlight(), connections.size());
+        connections.forEach((connection, state) -> {
+            if (state.tickets.isEmpty()) {
+                connection.close();
+            } else if (state.http2) {
+                connection.shutdown(timeout);
+            }
+        });
+        return inFlightRequests.awaitIdle(vertx, timeout).doOnSuccess(idle -> {
+            if (!idle) {
+                logger.warn("{} requests still in flight after draining for {}ms", inFlightRequests.getInFlight(), timeout);
+            }
+        }).toCompletable();
+    }
+
+    private void connectionHandler(HttpConnection connection) {
+        if (draining) {
+            connection.close();
+            return;
+        }
+        ConnectionState state = new ConnectionState();
+        connections.put(connection, state);
+        connection.closeHandler(v -> {
+            connections.remove(connection);
+            // requests whose connection went away end with it
+            state.tickets.forEach(ticket -> this.endRequest(connection, state, ticket));
+        });
+    }
+
+    private void requestHandler(HttpServerRequest request) {
+        HttpConnection connection = request.connection();
+        ConnectionState state = connections.get(connection);
+        if (null == state) {
+            state = new ConnectionState();
+        }
+        ConnectionState connectionState = state;
+        AdmissionController.Ticket ticket = admissionController.ticket(request);
+        inFlightRequests.begin();
+        state.http2 = request.version() == HttpVersion.HTTP_2;
+        state.tickets.add(ticket);
+        request.response().endHandler(v -> this.endRequest(connection, connectionState, ticket));
+        admissionController.admit(ticket);
+    }
+
+    private void endRequest(HttpConnection connection, ConnectionState state, AdmissionController.Ticket ticket) {
+        if (!state.tickets.remove(ticket)) {
+            return;
+        }
+        ticket.release();
+        inFlightRequests.end();
+        if (draining && !state.http2 && state.tickets.isEmpty()) {
+            connection.close();
+        }
+    }
+
+    private JsonObject getInFlightMetrics() {
+        return inFlightRequests.toJson()
+                .put("connections", connections.size())
+                .put("draining", draining);
+    }
+
+    /**
+     * Wait until the HTTP server is ready for production traffic, a service publishes itself only then.
+     * The server is warmed up with synthetic requests as given by the "readiness" config. All instances
+     * which share the port on the node wait for the same warm-up, which starts once the first of them listens
+     *
+     * @param config HTTP config
+     * @return the state of warm-up once it has ended
+     */
+    protected Single<JsonObject> awaitReadiness(JsonObject config) {
+        JsonObject readinessConfig = this.config().getJsonObject(KEY_READINESS, new JsonObject());
+        String host = config.getString(KEY_HOST, "localhost");
+        int port = config.getInteger(KEY_PORT);
+        this.sharedWarmUps = SharedResources.create(vertx, SHARED_WARM_UPS);
+        this.warmUpKey = host + ":" + port;
+        WarmUp warmUp = sharedWarmUps.acquire(warmUpKey, key -> WarmUp.fromJson(readinessConfig));
+        this.registerMetrics(KEY_READINESS, warmUp::toJson);
+        return warmUp.run(this.getWebClient(host, port));
+    }
+
+    /**
+     * Record every request in the access log shared by all instances on the node, ahead of all other routes
+     */
+    private void enableAccessLog(Router router, JsonObject accessLogConfig) {
+        this.sharedAccessLogs = SharedResources.create(vertx, SHARED_ACCESS_LOGS);
+        this.accessLog = sharedAccessLogs.acquire(KEY_ACCESS_LOG,
+                key -> AccessLog.create(accessLogConfig.getInteger(KEY_BUFFER_SIZE, DEFAULT_ACCESS_LOG_BUFFER_SIZE)));
+        this.registerMetrics(KEY_ACCESS_LOG, accessLog::toJson);
+        router.route().order(Integer.MIN_VALUE).handler(this::accessLogHandler);
+    }
+
+    private void accessLogHandler(RoutingContext context) {
+        long timestamp = System.currentTimeMillis();
+        long startTime = System.nanoTime();
+        context.addBodyEndHandler(v -> {
+            String route = context.get(ACCESS_LOG_ROUTE);
+            Long upstream = context.get(ACCESS_LOG_UPSTREAM);
+            HttpServerResponse response = context.response();
+            accessLog.log(timestamp, context.request().rawMethod(), null == route ? context.request().path() : route,
+                    context.get(ACCESS_LOG_SERVICE), context.get(ACCESS_LOG_INSTANCE), response.getStatusCode(),
+                    response.bytesWritten(), null == upstream ? -1 : upstream, System.nanoTime() - startTime);
+        });
+        context.next();
+    }
+
+    /**
+     * Record the route a request matched and the service it is dispatched to in its access log record,
+     * does nothing when the access log is disabled
+     *
+     * @param context     Routing context
+     * @param route       the route, null to log the path of request
+     * @param serviceName the name of service
+     */
+    protected void logAccessTarget(RoutingContext context, String route, String serviceName) {
+        if (null != accessLog) {
+            if (null != route) {
+                context.put(ACCESS_LOG_ROUTE, route);
+            }
+            context.put(ACCESS_LOG_SERVICE, serviceName);
+        }
+    }
+
+    /**
+     * Record the instance which answered a request and how long it took in its access log record,
+     * does nothing when the access log is disabled
+     *
+     * @param context   Routing context
+     * @param instance  the endpoint of instance, null if unknown
+     * @param startTime the value of System.nanoTime() when the upstream request was sent
+     */
+    protected void logAccessUpstream(RoutingContext context, String instance, long startTime) {
+        if (null != accessLog) {
+            if (null != instance) {
+                context.put(ACCESS_LOG_INSTANCE, instance);
+            }
+            context.put(ACCESS_LOG_UPSTREAM, System.nanoTime() - startTime);
+        }
+    }
+
     /**
      * Enable CORS
      *
@@ -77,6 +315,15 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
         router.route().handler(corsHandler);
     }
 
+    /**
+     * Expose the registered metrics as JSON
+     *
+     * @param router
+     */
+    protected void enableMetricsSupport(Router router) {
+        router.get(URI_METRICS).handler(context -> this.restResponseHandler(context, this.getMetrics().encodePrettily()));
+    }
+
     /**
      * Write generic json object to HTTP response
      *
@@ -91,13 +338,43 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
     }
 
     /**
-     * Generate Rest error response by given exception
+     * Write json content which can be cached by clients and the gateway, the response carries a strong ETag
+     * and answers a matching If-None-Match with 304 Not Modified
+     *
+     * @param context
+     * @param jsonString the json context to be wrote to HTTP response
+     * @param maxAge     the number of seconds the content stays fresh
+     */
+    protected void restCacheableResponseHandler(RoutingContext context, String jsonString, long maxAge) {
+        if (context.response().ended()) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(jsonString.getBytes(StandardCharsets.UTF_8));
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(jsonString.length()) + "\"";
+        context.response().putHeader(HEADER_ETAG, etag).putHeader(HEADER_CACHE_CONTROL, "max-age=" + maxAge);
+        if (this.etagMatches(context.request().getHeader(HEADER_IF_NONE_MATCH), etag)) {
+            context.response().setStatusCode(SC_NOT_MODIFIED).end();
+        } else {
+            this.restResponseHandler(context, jsonString);
+        }
+    }
+
+    /**
+     * Generate Rest error response by given exception, a shed call is answered with 503 and Retry-After
      *
      * @param context
      * @param throwable
      */
     protected void restErrorHandler(RoutingContext context, Throwable throwable) {
-        this.restErrorHandler(context, SC_INTERNAL_SERVER_ERROR, SYSTEM_ERROR_CODE, throwable.getMessage());
+        if (throwable instanceof ServiceUnavailableException) {
+            if (!context.response().headWritten()) {
+                context.response().putHeader(HEADER_RETRY_AFTER, String.valueOf(((ServiceUnavailableException) throwable).getRetryAfter()));
+            }
+            this.restErrorHandler(context, SC_SERVICE_UNAVAILABLE, SYSTEM_ERROR_CODE, throwable.getMessage());
+        } else {
+            this.restErrorHandler(context, SC_INTERNAL_SERVER_ERROR, SYSTEM_ERROR_CODE, throwable.getMessage());
+        }
     }
 
     /**
@@ -109,7 +386,12 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
      * @param errorMessage the error message
      */
     protected void restErrorHandler(RoutingContext context, int statusCode, String errorCode, String errorMessage) {
-        if (!context.response().ended()) {
+        if (context.response().headWritten()) {
+            if (!context.response().ended() && !context.response().closed()) {
+                // part of a streamed response is already on the wire, the only way to signal the failure is to drop it
+                context.response().close();
+            }
+        } else if (!context.response().ended()) {
             JsonObject json = new JsonObject().put(KEY_ERROR, new JsonObject().put(KEY_ERROR_CODE, errorCode).put(KEY_ERROR_MESSAGE, errorMessage));
             context.response().setStatusCode(statusCode).putHeader("content-type", "application/json")
                     .end(json.encodePrettily());
@@ -117,7 +399,8 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
     }
 
     /**
-     * Dispatch a HTTP request to a HttpEndPoint service
+     * Dispatch a HTTP request to a HttpEndPoint service, identical anonymous GETs are coalesced and safe requests
+     * are hedged when hedging is enabled for the service
      *
      * @param context      Routing context
      * @param serviceName  the name of service
@@ -126,23 +409,80 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
      */
     protected void dispatchRequest(RoutingContext context, String serviceName, String uri, Handler<? super Throwable> errorHandler) {
         logger.debug("Dispatch Http Request {} to {} service", uri, serviceName);
-        this.getCircuitBreaker(serviceName).<Void>rxExecuteCommand(
-                future -> this.dispatchRequestHandler(context, serviceName, uri, future))
+        this.logAccessTarget(context, null, serviceName);
+        long startTime = System.nanoTime();
+        String coalescingKey = this.getCoalescingKey(context, serviceName, uri);
+        if (null != coalescingKey) {
+            // the upstream request is shared, it carries no more of the first caller's request than the key covers
+            MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+            for (Object header : this.getCoalescingVaryHeaders(serviceName)) {
+                String value = context.request().getHeader(header.toString());
+                if (null != value) {
+                    headers.set(header.toString(), value);
+                }
+            }
+            this.invokeCoalescedHttpService(serviceName, uri, headers, coalescingKey).subscribe(response -> {
+                this.logAccessUpstream(context, null, startTime);
+                this.writeDispatchResponse(context, response);
+            }, errorHandler::handle);
+            return;
+        }
+        if (this.isHedged(serviceName, context.request().method(), context.getBody())
+                && (null == context.request().formAttributes() || context.request().formAttributes().isEmpty())) {
+            this.invokeHttpService(serviceName, context.request().method(), uri, this.getForwardHeaders(context), null).subscribe(response -> {
+                this.logAccessUpstream(context, null, startTime);
+                this.writeDispatchResponse(context, response);
+            }, errorHandler::handle);
+            return;
+        }
+        this.executeInBulkhead(serviceName, this.<Void>executeInCircuitBreaker(serviceName,
+                future -> this.dispatchRequestHandler(context, serviceName, uri, future)))
                 .subscribe(v -> logger.debug("dispatch request completed"), errorHandler::handle);
     }
 
+    /**
+     * Return the headers a request is forwarded to a service with, its end-to-end headers and the principal
+     * of its authenticated user
+     *
+     * @param context Routing context
+     * @return
+     */
+    protected MultiMap getForwardHeaders(RoutingContext context) {
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        this.copyHeaders(context.request().headers(), headers);
+        if (context.user() != null) {
+            headers.set(HEADER_USER_PRINCIPAL, context.user().principal().encode());
+        }
+        return headers;
+    }
+
+    /**
+     * Return whether a request may have a body, which is told by its headers before any of the body is read
+     *
+     * @param request the request
+     * @return
+     */
+    protected boolean hasBody(HttpServerRequest request) {
+        String contentLength = request.getHeader(HEADER_CONTENT_LENGTH);
+        if (null != contentLength) {
+            return !"0".equals(contentLength.trim());
+        }
+        // without a length a HTTP/1.x request has a body only if it is chunked, a HTTP/2 request may always have one
+        return request.version() == HttpVersion.HTTP_2 || null != request.getHeader(HEADER_TRANSFER_ENCODING);
+    }
+
     private void dispatchRequestHandler(RoutingContext context, String serviceName, String uri, Future<Void> future) {
-        this.getWebEndPoint(serviceName)
-                .subscribe(webClient -> invokeDispatchHttpRequest(context, webClient, uri, future),
+        this.getServiceClient(serviceName, this.getLoadBalancerKey(context, serviceName, uri))
+                .subscribe(serviceClient -> invokeDispatchHttpRequest(context, serviceClient.getWebClient(), uri, this.trackRequest(context, serviceClient, future)),
                         throwable -> future.fail("Service [" + serviceName + "] not published"));
     }
 
-    private void invokeDispatchHttpRequest(RoutingContext context, WebClient webClient, String uri, Future<Void> future) {
+    private void invokeDispatchHttpRequest(RoutingContext context, WebClient webClient, String uri, Future<Integer> future) {
         logger.debug("invokeDispatchHttpRequest, uri:{}", uri);
         HttpRequest<Buffer> httpRequest = webClient.request(context.request().method(), uri);
         context.request().headers().getDelegate().forEach(header -> httpRequest.putHeader(header.getKey(), header.getValue()));
         if (context.user() != null) {
-            httpRequest.putHeader("user-principal", context.user().principal().encode());
+            httpRequest.putHeader(HEADER_USER_PRINCIPAL, context.user().principal().encode());
         }
         Single<HttpResponse<Buffer>> result;
         if (null != context.request().formAttributes() && !context.request().formAttributes().isEmpty()) {
@@ -153,12 +493,413 @@ public abstract class BaseHttpMicroServicesVerticle extends BaseMicroServicesVer
             result = httpRequest.rxSend();
         }
         result.subscribe(response -> {
-            if (!context.response().ended()) {
-                context.response().setStatusCode(response.statusCode());
-                response.headers().getDelegate().forEach(header -> context.response().putHeader(header.getKey(), header.getValue()));
+            this.writeDispatchResponse(context, response);
+            future.tryComplete(response.statusCode());
+        }, future::tryFail);
+    }
+
+    /**
+     * Write a buffered response of service to the client
+     *
+     * @param context  Routing context
+     * @param response the response of service
+     */
+    protected void writeDispatchResponse(RoutingContext context, HttpResponse<Buffer> response) {
+        if (!context.response().ended()) {
+            context.response().setStatusCode(response.statusCode());
+            response.headers().getDelegate().forEach(header -> context.response().putHeader(header.getKey(), header.getValue()));
+            if (null == response.body()) {
+                context.response().end();
+            } else {
                 context.response().end(response.body());
             }
-            future.complete();
-        }, future::fail);
+        }
+    }
+
+    /**
+     * Return the key which identifies identical requests to a service, concurrent requests with the same key
+     * share one upstream request. Only anonymous GETs without body are coalesced, a request with credentials or
+     * a session cookie is not. The key covers the uri and the headers listed in "varyHeaders" of the service's
+     * "coalescing" config, which are the only headers forwarded with the shared request
+     *
+     * @param context     Routing context
+     * @param serviceName the name of service
+     * @param uri         the uri at HttpEndPoint service
+     * @return the key, null if the request must not be coalesced
+     */
+    protected String getCoalescingKey(RoutingContext context, String serviceName, String uri) {
+        JsonObject coalescingConfig = this.getServiceConfig(KEY_COALESCING, serviceName);
+        boolean coalescable = context.request().method() == HttpMethod.GET
+                && (null == context.getBody() || context.getBody().length() == 0)
+                && null == context.user()
+                && null == context.request().getHeader(HEADER_AUTHORIZATION)
+                && null == context.request().getHeader(HEADER_COOKIE)
+                && coalescingConfig.getBoolean(KEY_ENABLED, true);
+        if (!coalescable) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(uri);
+        for (Object header : this.getCoalescingVaryHeaders(serviceName)) {
+            String value = context.request().getHeader(header.toString());
+            key.append('\n').append(null == value ? "" : value);
+        }
+        return key.toString();
+    }
+
+    private JsonArray getCoalescingVaryHeaders(String serviceName) {
+        return this.getServiceConfig(KEY_COALESCING, serviceName).getJsonArray(KEY_VARY_HEADERS, DEFAULT_COALESCING_VARY_HEADERS);
+    }
+
+    /**
+     * Dispatch a HTTP request to a HttpEndPoint service without buffering, the request body is pumped to the service
+     * and the response body is pumped back to the client, both directions honour back pressure.
+     * The route must not have a BodyHandler installed.
+     *
+     * @param context      Routing context
+     * @param serviceName  the name of service
+     * @param uri          the uri at HttpEndPoint service
+     * @param errorHandler the async error handler
+     */
+    protected void dispatchStreamRequest(RoutingContext context, String serviceName, String uri, Handler<? super Throwable> errorHandler) {
+        this.dispatchStreamRequest(context, serviceName, uri, 0, errorHandler);
+    }
+
+    /**
+     * Dispatch a HTTP request to a HttpEndPoint service without buffering, the exchange with the service fails
+     * once it stays idle longer than the given timeout. The circuit breaker's timeout only applies to the wait for
+     * the answer after the body has been sent, so a large or slow upload does not fail the call
+     *
+     * @param context      Routing context
+     * @param serviceName  the name of service
+     * @param uri          the uri at HttpEndPoint service
+     * @param timeout      the idle timeout of upstream request in milliseconds, 0 to leave uploads unbounded and rely on the circuit breaker's timeout for the answer
+     * @param errorHandler the async error handler
+     */
+    protected void dispatchStreamRequest(RoutingContext context, String serviceName, String uri, long timeout, Handler<? super Throwable> errorHandler) {
+        logger.debug("Dispatch streaming Http Request {} to {} service", uri, serviceName);
+        this.logAccessTarget(context, null, serviceName);
+        // hold the body until the upstream request is ready to receive it
+        context.request().pause();
+        this.executeInBulkhead(serviceName, this.streamRequest(context, serviceName, uri, timeout))
+                .subscribe(status -> logger.debug("dispatch streaming request completed"), throwable -> {
+                    // whatever is left of the body is discarded
+                    context.request().resume();
+                    errorHandler.handle(throwable);
+                });
+    }
+
+    /**
+     * Stream a request to an instance of service. The body is sent outside the circuit breaker, an upload takes
+     * as long as the client needs and is only bounded by the idle timeout, the breaker times the wait for the
+     * answer once the body has been sent. The upstream request is reset as soon as the exchange fails
+     */
+    private Single<Integer> streamRequest(RoutingContext context, String serviceName, String uri, long timeout) {
+        return Single.defer(() -> {
+            if (this.getCircuitBreaker(serviceName).state() == CircuitBreakerState.OPEN) {
+                // nothing is sent to a service whose circuit is open
+                return Single.error(new NoStackTraceThrowable("Service [" + serviceName + "] circuit is open"));
+            }
+            return this.getServiceClient(serviceName, this.getLoadBalancerKey(context, serviceName, uri))
+                    .onErrorResumeNext(throwable -> Single.error(new NoStackTraceThrowable("Service [" + serviceName + "] not published")))
+                    .flatMap(serviceClient -> {
+                        long startTime = serviceClient.requestStarted();
+                        StreamExchange exchange = new StreamExchange(context.request(),
+                                serviceClient.getHttpClient().request(context.request().method(), uri));
+                        this.sendStreamRequest(context, exchange, timeout);
+                        return exchange.awaitSent()
+                                .andThen(this.<HttpClientResponse>executeInCircuitBreaker(serviceName, exchange::awaitResponse))
+                                .doOnEvent((response, throwable) -> {
+                                    if (exchange.clientFailed) {
+                                        // the client went away, the instance is not to blame
+                                        serviceClient.requestCompleted(startTime);
+                                    } else {
+                                        serviceClient.requestCompleted(startTime, null != throwable || response.statusCode() >= SC_INTERNAL_SERVER_ERROR);
+                                    }
+                                    this.logAccessUpstream(context, serviceClient.getRecord().getLocation().getString(KEY_ENDPOINT), startTime);
+                                })
+                                .doOnError(throwable -> exchange.cancel())
+                                .map(response -> {
+                                    this.pumpResponse(response, context.response(), context.request().getHeader(HEADER_ACCEPT_ENCODING));
+                                    return response.statusCode();
+                                });
+                    });
+        });
+    }
+
+    /**
+     * Return the key used by affinity based load balancing, the value of the configured hash header if present,
+     * otherwise the uri at HttpEndPoint service
+     *
+     * @param context     Routing context
+     * @param serviceName the name of service
+     * @param uri         the uri at HttpEndPoint service
+     * @return
+     */
+    protected String getLoadBalancerKey(RoutingContext context, String serviceName, String uri) {
+        String hashHeader = this.getServiceConfig(KEY_LOAD_BALANCER, serviceName).getString(KEY_HASH_HEADER);
+        String key = null == hashHeader ? null : context.request().getHeader(hashHeader);
+        return null == key ? uri : key;
+    }
+
+    /**
+     * Wrap the future of a dispatch command, so the load statistics of the selected instance and the access log
+     * record of request are updated once it completes
+     */
+    private Future<Integer> trackRequest(RoutingContext context, ServiceClient serviceClient, Future<Void> future) {
+        long startTime = serviceClient.requestStarted();
+        Future<Integer> attempt = Future.future();
+        attempt.setHandler(ar -> {
+            serviceClient.requestCompleted(startTime, ar.failed() || ar.result() >= SC_INTERNAL_SERVER_ERROR);
+            this.logAccessUpstream(context, serviceClient.getRecord().getLocation().getString(KEY_ENDPOINT), startTime);
+            if (ar.succeeded()) {
+                future.tryComplete();
+            } else {
+                future.tryFail(ar.cause());
+            }
+        });
+        return attempt;
+    }
+
+    private void sendStreamRequest(RoutingContext context, StreamExchange exchange, long timeout) {
+        HttpServerRequest serverRequest = context.request();
+        HttpClientRequest clientRequest = exchange.clientRequest;
+        clientRequest.handler(clientResponse -> {
+            // the body is held until the circuit breaker has seen the answer, it is then relayed outside of it
+            clientResponse.pause();
+            // a service may answer before it has read the whole body
+            exchange.sent.tryComplete();
+            if (!exchange.response.tryComplete(clientResponse)) {
+                clientRequest.reset();
+            }
+        });
+        clientRequest.exceptionHandler(throwable -> {
+            exchange.sent.tryFail(throwable);
+            exchange.response.tryFail(throwable);
+        });
+        if (timeout > 0) {
+            clientRequest.setTimeout(timeout);
+        }
+        this.copyHeaders(serverRequest.headers(), clientRequest.headers());
+        if (context.user() != null) {
+            clientRequest.putHeader(HEADER_USER_PRINCIPAL, context.user().principal().encode());
+        }
+        if (serverRequest.isEnded()) {
+            // the body was already consumed by an earlier handler, forward whatever was buffered
+            if (null != context.getBody()) {
+                clientRequest.end(context.getBody());
+            } else {
+                clientRequest.end();
+            }
+            exchange.sent.tryComplete();
+            return;
+        }
+        if (!clientRequest.headers().contains(HEADER_CONTENT_LENGTH)) {
+            clientRequest.setChunked(true);
+        }
+        serverRequest.handler(chunk -> {
+            clientRequest.write(chunk);
+            if (timeout > 0) {
+                // an upload is not idle while its body flows
+                clientRequest.setTimeout(timeout);
+            }
+            if (clientRequest.writeQueueFull()) {
+                serverRequest.pause();
+                clientRequest.drainHandler(v -> serverRequest.resume());
+            }
+        });
+        serverRequest.endHandler(v -> {
+            clientRequest.end();
+            exchange.sent.tryComplete();
+        });
+        serverRequest.exceptionHandler(throwable -> {
+            exchange.clientFailed = true;
+            exchange.sent.tryFail(throwable);
+        });
+        serverRequest.resume();
+    }
+
+    private void pumpResponse(HttpClientResponse clientResponse, HttpServerResponse serverResponse, String acceptEncoding) {
+        if (serverResponse.ended() || serverResponse.closed()) {
+            clientResponse.request().reset();
+            return;
+        }
+        serverResponse.setStatusCode(clientResponse.statusCode());
+        this.copyHeaders(clientResponse.headers(), serverResponse.headers());
+        clientResponse.exceptionHandler(t -> {
+            logger.debug("Streaming response failed:{}", t.getMessage());
+            serverResponse.close();
+        });
+        serverResponse.closeHandler(v -> clientResponse.request().reset());
+        String encoding = this.getResponseEncoding(clientResponse.statusCode(), serverResponse.headers(), acceptEncoding);
+        if (null != encoding) {
+            serverResponse.headers().remove(HEADER_CONTENT_LENGTH).set(HEADER_CONTENT_ENCODING, encoding);
+            this.addVaryAcceptEncoding(serverResponse.headers());
+            this.weakenEtag(serverResponse.headers());
+            serverResponse.setChunked(true);
+            CompressingWriteStream compressingStream = CompressingWriteStream.create(serverResponse.getDelegate(), compressionPolicy, encoding);
+            clientResponse.endHandler(v -> compressingStream.end());
+            io.vertx.core.streams.Pump.pump(clientResponse.getDelegate(), compressingStream).start();
+            clientResponse.resume();
+            return;
+        }
+        if (!serverResponse.headers().contains(HEADER_CONTENT_LENGTH)) {
+            serverResponse.setChunked(true);
+        }
+        clientResponse.endHandler(v -> serverResponse.end());
+        Pump.pump(clientResponse, serverResponse).start();
+        clientResponse.resume();
+    }
+
+    /**
+     * @return the policy which decides about compression of responses
+     */
+    protected CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Return the encoding a response should be compressed with, the response is left as is if the client does not
+     * accept compression, the upstream already encoded it, or it is too small or of an incompressible type
+     *
+     * @param statusCode     the status code of response
+     * @param headers        the headers of response
+     * @param acceptEncoding the Accept-Encoding header of request
+     * @return gzip, deflate or null if the response is not compressed
+     */
+    protected String getResponseEncoding(int statusCode, MultiMap headers, String acceptEncoding) {
+        if (statusCode == SC_NO_CONTENT || statusCode == SC_NOT_MODIFIED) {
+            return null;
+        }
+        String encoding = compressionPolicy.negotiate(acceptEncoding);
+        if (null == encoding) {
+            return null;
+        }
+        String contentLength = headers.get(HEADER_CONTENT_LENGTH);
+        long length;
+        try {
+            length = null == contentLength ? -1 : Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        boolean compressible = compressionPolicy.isCompressible(headers.get(HEADER_CONTENT_TYPE), headers.get(HEADER_CONTENT_ENCODING), length);
+        return compressible ? encoding : null;
+    }
+
+    /**
+     * Mark the entity tag of a response weak, a compressed body is no longer byte for byte the one the tag was
+     * computed for
+     *
+     * @param headers the headers of response
+     */
+    protected void weakenEtag(MultiMap headers) {
+        String etag = headers.get(HEADER_ETAG);
+        if (null != etag && !etag.startsWith("W/")) {
+            headers.set(HEADER_ETAG, "W/" + etag);
+        }
+    }
+
+    /**
+     * Compare the If-None-Match header of request with an entity tag, the comparison is weak as required
+     * for If-None-Match
+     *
+     * @param ifNoneMatch the If-None-Match header of request, may be null
+     * @param etag        the entity tag of current representation, may be null
+     * @return true if the client already has the representation
+     */
+    protected boolean etagMatches(String ifNoneMatch, String etag) {
+        if (null == ifNoneMatch || null == etag) {
+            return false;
+        }
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add Accept-Encoding to the Vary header of response, caches must keep compressed and plain variants apart
+     *
+     * @param headers the headers of response
+     */
+    protected void addVaryAcceptEncoding(MultiMap headers) {
+        String vary = headers.get(HEADER_VARY);
+        if (null == vary) {
+            headers.set(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+        } else if (!vary.trim().equals("*") && !vary.toLowerCase().contains(HEADER_ACCEPT_ENCODING)) {
+            headers.set(HEADER_VARY, vary + ", " + HEADER_ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Copy the end-to-end headers, hop-by-hop headers only apply to a single connection and are skipped
+     *
+     * @param from the headers to copy
+     * @param to   the target headers
+     */
+    protected void copyHeaders(MultiMap from, MultiMap to) {
+        from.getDelegate().forEach(header -> {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getKey().toLowerCase())) {
+                to.add(header.getKey(), header.getValue());
+            }
+        });
+    }
+
+    /**
+     * A request streamed to a service, "sent" completes once the body has been sent and "response" once the
+     * service answered
+     */
+    private static class StreamExchange {
+        private final HttpServerRequest serverRequest;
+        private final HttpClientRequest clientRequest;
+        private final Future<Void> sent = Future.future();
+        private final Future<HttpClientResponse> response = Future.future();
+        private volatile boolean clientFailed;
+
+        private StreamExchange(HttpServerRequest serverRequest, HttpClientRequest clientRequest) {
+            this.serverRequest = serverRequest;
+            this.clientRequest = clientRequest;
+        }
+
+        private Completable awaitSent() {
+            return Completable.create(emitter -> sent.setHandler(ar -> {
+                if (ar.succeeded()) {
+                    emitter.onComplete();
+                } else {
+                    emitter.onError(ar.cause());
+                }
+            }));
+        }
+
+        private void awaitResponse(Future<HttpClientResponse> command) {
+            response.setHandler(ar -> {
+                if (ar.succeeded()) {
+                    command.tryComplete(ar.result());
+                } else {
+                    command.tryFail(ar.cause());
+                }
+            });
+        }
+
+        /**
+         * Stop relaying the body and reset the upstream request, the rest of body is discarded
+         */
+        private void cancel() {
+            clientRequest.reset();
+            if (!serverRequest.isEnded()) {
+                serverRequest.handler(chunk -> {
+                });
+                serverRequest.endHandler(v -> {
+                });
+            }
+        }
+    }
+
+    private static class ConnectionState {
+        private final Set<AdmissionController.Ticket> tickets = ConcurrentHashMap.newKeySet();
+        private volatile boolean http2;
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,33 @@
 package com.ezshop.common;
 
+import com.ezshop.common.concurrent.ConcurrencyLimiter;
+import com.ezshop.common.concurrent.FailureRateWindow;
+import com.ezshop.common.concurrent.HedgingPolicy;
+import com.ezshop.common.concurrent.LatencyHistogram;
+import com.ezshop.common.concurrent.RetryBudget;
+import com.ezshop.common.concurrent.SharedResources;
+import com.ezshop.common.concurrent.SingleFlight;
+import com.ezshop.common.discovery.LoadBalancer;
+import com.ezshop.common.discovery.OutlierDetector;
+import com.ezshop.common.discovery.ServiceClient;
+import com.ezshop.common.discovery.ServiceClientRegistry;
+import com.ezshop.common.discovery.ServiceRecordCache;
+import com.ezshop.common.http.BufferedHttpResponse;
+import io.reactivex.Completable;
 import io.reactivex.Single;
 import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.circuitbreaker.CircuitBreakerState;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.impl.NoStackTraceThrowable;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.reactivex.circuitbreaker.CircuitBreaker;
+import io.vertx.reactivex.RxHelper;
 import io.vertx.reactivex.core.AbstractVerticle;
+import io.vertx.reactivex.core.Future;
+import io.vertx.reactivex.core.MultiMap;
 import io.vertx.reactivex.core.buffer.Buffer;
 import io.vertx.reactivex.core.http.HttpClient;
 import io.vertx.reactivex.ext.web.client.HttpRequest;
@@ -18,10 +40,17 @@ import io.vertx.servicediscovery.ServiceDiscoveryOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.ezshop.common.ConfigKeys.*;
+import static com.ezshop.common.HttpResponseCodes.SC_INTERNAL_SERVER_ERROR;
 
 /**
  * The base verticle class which provided some common functions include service discovery
@@ -30,25 +59,146 @@ import static com.ezshop.common.ConfigKeys.*;
  */
 public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
     protected static final String KEY_NAME = "name";
+    protected static final String HEADER_CONTENT_TYPE = "content-type";
+    protected static final String CONTENT_TYPE_JSON = "application/json";
+    private static final long DEFAULT_DISCOVERY_RESYNC_INTERVAL = 30000;
+    private static final String METRICS_REQUEST_COALESCING = "requestCoalescing";
+    private static final String METRICS_BULKHEADS = "bulkheads";
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MIN_LIMIT = 2;
+    private static final int DEFAULT_MAX_LIMIT = 200;
+    private static final long DEFAULT_LATENCY_THRESHOLD = 2000;
+    private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    private static final long DEFAULT_RETRY_AFTER = 1;
+    private static final String SHARED_CIRCUIT_BREAKERS = "ezshop.circuitBreakers";
+    private static final String SHARED_FAILURE_RATE_WINDOWS = "ezshop.failureRateWindows";
+    private static final String METRICS_CIRCUIT_BREAKERS = "circuitBreakers";
+    private static final long DEFAULT_BREAKER_TIMEOUT = 5000;
+    private static final long DEFAULT_BREAKER_RESET_TIMEOUT = 10000;
+    private static final int DEFAULT_WINDOW_SIZE = 100;
+    private static final int DEFAULT_WINDOW_MIN_CALLS = 10;
+    private static final double DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    private static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 100;
+    private static final String SHARED_CONCURRENCY_LIMITERS = "ezshop.concurrencyLimiters";
+    private static final String SHARED_PUBLICATIONS = "ezshop.publications";
+    private static final String SHARED_HEDGING_POLICIES = "ezshop.hedgingPolicies";
+    private static final String METRICS_HEDGING = "hedging";
+    private static final String SHARED_OUTLIER_DETECTORS = "ezshop.outlierDetectors";
+    private static final double DEFAULT_HEDGING_PERCENTILE = 95;
+    private static final long DEFAULT_HEDGING_MIN_DELAY = 5;
+    private static final long DEFAULT_HEDGING_MAX_DELAY = 1000;
+    private static final long HEDGING_LATENCY_WINDOW = 10000;
+    private static final double DEFAULT_RETRY_RATIO = 0.1;
+    private static final double DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+    private static final double DEFAULT_MAX_RETRY_TOKENS = 100;
+    private static final long DEFAULT_GRACE_PERIOD = 2000;
+    private static final long DEFAULT_DRAIN_TIMEOUT = 10000;
 
     private static final Logger logger = LoggerFactory.getLogger(BaseMicroServicesVerticle.class);
 
     protected ServiceDiscovery discovery;
+    private ServiceRecordCache recordCache;
+    private ServiceClientRegistry clientRegistry;
+    private SharedResources<CircuitBreaker> sharedCircuitBreakers;
+    private SharedResources<FailureRateWindow> sharedFailureRateWindows;
+    private SharedResources<ConcurrencyLimiter> sharedConcurrencyLimiters;
+    private SharedResources<HedgingPolicy> sharedHedgingPolicies;
+    private SharedResources<OutlierDetector> sharedOutlierDetectors;
+    private SharedResources<Single<Record>> sharedPublications;
+    private String publicationKey;
     private Record publishedRecord;
     private Map<String, CircuitBreaker> circuitBreakerMap = new ConcurrentHashMap<>();
+    private Map<String, FailureRateWindow> failureRateWindowMap = new ConcurrentHashMap<>();
+    private Map<String, LoadBalancer> loadBalancerMap = new ConcurrentHashMap<>();
+    private Map<String, ConcurrencyLimiter> concurrencyLimiterMap = new ConcurrentHashMap<>();
+    private Map<String, HedgingPolicy> hedgingPolicyMap = new ConcurrentHashMap<>();
+    private Map<String, OutlierDetector> outlierDetectorMap = new ConcurrentHashMap<>();
+    private Map<String, Supplier<JsonObject>> metricsProviders = new ConcurrentSkipListMap<>();
+    private SingleFlight<HttpResponse<Buffer>> httpFlights = SingleFlight.create();
 
     @Override
     public void start() {
         logger.debug("Starting verticle - {}", this.getClass().getName());
         logger.debug("Config:{}", this.config().encodePrettily());
+        this.sharedCircuitBreakers = SharedResources.create(vertx, SHARED_CIRCUIT_BREAKERS);
+        this.sharedFailureRateWindows = SharedResources.create(vertx, SHARED_FAILURE_RATE_WINDOWS);
+        this.sharedConcurrencyLimiters = SharedResources.create(vertx, SHARED_CONCURRENCY_LIMITERS);
+        this.sharedHedgingPolicies = SharedResources.create(vertx, SHARED_HEDGING_POLICIES);
+        this.sharedOutlierDetectors = SharedResources.create(vertx, SHARED_OUTLIER_DETECTORS);
+        this.sharedPublications = SharedResources.create(vertx, SHARED_PUBLICATIONS);
         this.discovery = ServiceDiscovery.create(vertx, new ServiceDiscoveryOptions().setBackendConfiguration(this.getServiceDiscoveryConfig()));
+        this.recordCache = ServiceRecordCache.create(vertx, discovery,
+                this.config().getLong(KEY_DISCOVERY_RESYNC_INTERVAL, DEFAULT_DISCOVERY_RESYNC_INTERVAL));
+        this.clientRegistry = ServiceClientRegistry.create(vertx, discovery, recordCache,
+                serviceName -> this.getServiceConfig(KEY_HTTP_CLIENT, serviceName), this::getOutlierDetector);
+        this.registerMetrics(METRICS_REQUEST_COALESCING, httpFlights::toJson);
+        this.registerMetrics(METRICS_CIRCUIT_BREAKERS, this::getCircuitBreakerMetrics);
+        this.registerMetrics(METRICS_BULKHEADS, this::getBulkheadMetrics);
+        this.registerMetrics(METRICS_HEDGING, this::getHedgingMetrics);
+        this.registerMetrics(KEY_OUTLIER_DETECTION, this::getOutlierDetectionMetrics);
+        this.registerMetrics(KEY_HTTP_CLIENT, clientRegistry::toJson);
+    }
+
+    /**
+     * Shut down in order so no request is lost: unpublish the service, wait for the "gracePeriod" until clients
+     * have seen it go, drain the requests in flight for no more than the "drainTimeout", then release resources.
+     * Only the instance which unpublishes a shared publication waits, the service is still published while the
+     * others stop
+     */
+    @Override
+    public void stop(io.vertx.core.Future<Void> stopFuture) {
+        JsonObject shutdownConfig = this.config().getJsonObject(KEY_SHUTDOWN, new JsonObject());
+        long gracePeriod = shutdownConfig.getLong(KEY_GRACE_PERIOD, DEFAULT_GRACE_PERIOD);
+        long drainTimeout = shutdownConfig.getLong(KEY_DRAIN_TIMEOUT, DEFAULT_DRAIN_TIMEOUT);
+        this.unpublishRecord()
+                .onErrorReturn(throwable -> {
+                    logger.debug("Failed to unpublish service: {}", throwable.getMessage());
+                    return false;
+                })
+                .flatMapCompletable(unpublished -> unpublished
+                        ? Completable.timer(gracePeriod, TimeUnit.MILLISECONDS, RxHelper.scheduler(vertx.getDelegate()))
+                        : Completable.complete())
+                .andThen(Completable.defer(() -> this.drain(drainTimeout)))
+                .subscribe(() -> {
+                    this.stop();
+                    stopFuture.complete();
+                }, throwable -> {
+                    logger.debug("Failed to drain requests: {}", throwable.getMessage());
+                    this.stop();
+                    stopFuture.complete();
+                });
+    }
+
+    /**
+     * Wait for the requests in flight to finish once the service is unpublished, the default implementation
+     * has nothing to wait for
+     *
+     * @param timeout the max time to wait in milliseconds
+     * @return
+     */
+    protected Completable drain(long timeout) {
+        return Completable.complete();
     }
 
     @Override
     public void stop() {
         logger.debug("Stopping verticle - {}", this.getClass().getName());
-        this.circuitBreakerMap.values().stream().forEach(circuitBreaker -> circuitBreaker.close());
+        this.circuitBreakerMap.forEach((serviceName, circuitBreaker) -> {
+            if (sharedCircuitBreakers.release(serviceName)) {
+                circuitBreaker.close();
+            }
+        });
         this.circuitBreakerMap.clear();
+        this.failureRateWindowMap.keySet().forEach(sharedFailureRateWindows::release);
+        this.failureRateWindowMap.clear();
+        this.concurrencyLimiterMap.keySet().forEach(sharedConcurrencyLimiters::release);
+        this.concurrencyLimiterMap.clear();
+        this.hedgingPolicyMap.keySet().forEach(sharedHedgingPolicies::release);
+        this.hedgingPolicyMap.clear();
+        this.outlierDetectorMap.keySet().forEach(sharedOutlierDetectors::release);
+        this.outlierDetectorMap.clear();
+        this.recordCache.close();
+        this.clientRegistry.close();
         this.unpublishRecord().subscribe(b -> discovery.close(), error -> logger.debug(error.getMessage()));
     }
 
@@ -62,39 +212,310 @@ public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
     }
 
     /**
-     * Return circuit breaker of service by service name
+     * Register a provider of metrics, the metrics are reported under given name
+     *
+     * @param name     the name of metrics
+     * @param provider the provider which returns a snapshot of metrics
+     */
+    protected final void registerMetrics(String name, Supplier<JsonObject> provider) {
+        this.metricsProviders.put(name, provider);
+    }
+
+    /**
+     * Return a snapshot of all registered metrics
+     *
+     * @return
+     */
+    protected final JsonObject getMetrics() {
+        JsonObject metrics = new JsonObject();
+        this.metricsProviders.forEach((name, provider) -> metrics.put(name, provider.get()));
+        return metrics;
+    }
+
+    /**
+     * Return the configure of a service from given config section, the entries under "services" of the section
+     * override the section defaults for the named service
+     *
+     * @param sectionKey  the key of config section
+     * @param serviceName the name of service
+     * @return the merged configure, empty if the section is absent
+     */
+    protected JsonObject getServiceConfig(String sectionKey, String serviceName) {
+        JsonObject section = this.config().getJsonObject(sectionKey, new JsonObject());
+        JsonObject serviceConfig = section.copy();
+        serviceConfig.remove(KEY_SERVICES);
+        JsonObject overrides = section.getJsonObject(KEY_SERVICES, new JsonObject()).getJsonObject(serviceName);
+        return null == overrides ? serviceConfig : serviceConfig.mergeIn(overrides);
+    }
+
+    /**
+     * Return circuit breaker of service by service name, the circuit breaker is shared by all instances
+     * on the node so failures seen by any of them count towards the same state
      *
      * @param serviceName the name of service
      * @return circuit breaker of service
      */
     protected final CircuitBreaker getCircuitBreaker(String serviceName) {
         logger.debug("Get CircuitBreaker of service {}", serviceName);
-        CircuitBreaker circuitBreaker = circuitBreakerMap.get(serviceName);
-        if (null == circuitBreaker) {
-            circuitBreaker = this.createCircuitBreaker(serviceName);
-            this.circuitBreakerMap.put(serviceName, circuitBreaker);
-        }
-        return circuitBreaker;
+        return circuitBreakerMap.computeIfAbsent(serviceName, name -> sharedCircuitBreakers.acquire(name, this::createCircuitBreaker));
     }
 
     /**
-     * Create circuit breaker for service
+     * Create circuit breaker for service from the "circuitBreaker" config. Unless "maxFailures" is given the
+     * breaker does not count consecutive failures, it is opened by the failure rate window of service instead
      *
      * @param serviceName the name of service
      * @return circuit breaker of service
      */
     protected CircuitBreaker createCircuitBreaker(String serviceName) {
-        logger.debug("Create CircuitBreaker for service {}", serviceName);
+        JsonObject breakerConfig = this.getServiceConfig(KEY_CIRCUIT_BREAKER, serviceName);
+        logger.debug("Create CircuitBreaker for service {}, config:{}", serviceName, breakerConfig.encode());
         String circuitBreakerName = serviceName + "-" + "circuit-breaker";
         CircuitBreakerOptions options = new CircuitBreakerOptions()
-                .setMaxFailures(5)
-                .setTimeout(5000)
-                .setResetTimeout(10000)
+                .setMaxFailures(breakerConfig.getInteger(KEY_MAX_FAILURES, Integer.MAX_VALUE))
+                .setTimeout(breakerConfig.getLong(KEY_TIMEOUT, DEFAULT_BREAKER_TIMEOUT))
+                .setResetTimeout(breakerConfig.getLong(KEY_RESET_TIMEOUT, DEFAULT_BREAKER_RESET_TIMEOUT))
                 .setFallbackOnFailure(true);
+        FailureRateWindow window = this.getFailureRateWindow(serviceName);
         return CircuitBreaker.create(circuitBreakerName, vertx, options)
                 .openHandler(v -> logger.debug("{} opened", circuitBreakerName))
                 .halfOpenHandler(v -> logger.debug("{} half opened", circuitBreakerName))
-                .closeHandler(v -> logger.debug("{} closed", circuitBreakerName));
+                .closeHandler(v -> {
+                    logger.debug("{} closed", circuitBreakerName);
+                    window.reset();
+                });
+    }
+
+    /**
+     * Return the window over recent calls to service which decides when its circuit breaker opens, the window
+     * is shared by all instances on the node like the breaker
+     *
+     * @param serviceName the name of service
+     * @return failure rate window of service
+     */
+    protected final FailureRateWindow getFailureRateWindow(String serviceName) {
+        return failureRateWindowMap.computeIfAbsent(serviceName, name -> sharedFailureRateWindows.acquire(name, this::createFailureRateWindow));
+    }
+
+    /**
+     * Create the failure rate window for service, given by "slidingWindow" of the "circuitBreaker" config
+     *
+     * @param serviceName the name of service
+     * @return failure rate window of service
+     */
+    protected FailureRateWindow createFailureRateWindow(String serviceName) {
+        JsonObject breakerConfig = this.getServiceConfig(KEY_CIRCUIT_BREAKER, serviceName);
+        JsonObject windowConfig = breakerConfig.getJsonObject(KEY_SLIDING_WINDOW, new JsonObject());
+        return FailureRateWindow.create(
+                windowConfig.getString(KEY_TYPE, FailureRateWindow.COUNT_BASED),
+                windowConfig.getInteger(KEY_SIZE, DEFAULT_WINDOW_SIZE),
+                windowConfig.getInteger(KEY_MIN_CALLS, DEFAULT_WINDOW_MIN_CALLS),
+                windowConfig.getDouble(KEY_FAILURE_RATE_THRESHOLD, DEFAULT_FAILURE_RATE_THRESHOLD),
+                windowConfig.getDouble(KEY_SLOW_CALL_RATE_THRESHOLD, DEFAULT_SLOW_CALL_RATE_THRESHOLD),
+                windowConfig.getLong(KEY_SLOW_CALL_DURATION, breakerConfig.getLong(KEY_TIMEOUT, DEFAULT_BREAKER_TIMEOUT)));
+    }
+
+    /**
+     * Run a command in the circuit breaker of service, the outcome is recorded in the failure rate window of
+     * service and the breaker is opened as soon as the window trips
+     *
+     * @param serviceName the name of service
+     * @param command     the command to run
+     * @return the result of command
+     */
+    protected <T> Single<T> executeInCircuitBreaker(String serviceName, Handler<Future<T>> command) {
+        return Single.defer(() -> {
+            CircuitBreaker circuitBreaker = this.getCircuitBreaker(serviceName);
+            if (circuitBreaker.state() != CircuitBreakerState.CLOSED) {
+                // rejected while open, and the single trial call of half open state decides on its own
+                return circuitBreaker.rxExecuteCommand(command);
+            }
+            FailureRateWindow window = this.getFailureRateWindow(serviceName);
+            long startTime = System.nanoTime();
+            return circuitBreaker.rxExecuteCommand(command).doOnEvent((result, throwable) -> {
+                if (window.record(null != throwable, System.nanoTime() - startTime) && circuitBreaker.state() == CircuitBreakerState.CLOSED) {
+                    logger.debug("Failure rate window of service {} tripped: {}", serviceName, window.toJson().encode());
+                    circuitBreaker.open();
+                }
+            });
+        });
+    }
+
+    private JsonObject getCircuitBreakerMetrics() {
+        JsonObject metrics = new JsonObject();
+        circuitBreakerMap.forEach((serviceName, circuitBreaker) -> metrics.put(serviceName,
+                this.getFailureRateWindow(serviceName).toJson().put("state", circuitBreaker.state().name())));
+        return metrics;
+    }
+
+    /**
+     * Return the adaptive concurrency limiter (bulkhead) of service by service name, the limiter is shared
+     * by all instances on the node
+     *
+     * @param serviceName the name of service
+     * @return concurrency limiter of service
+     */
+    protected final ConcurrencyLimiter getConcurrencyLimiter(String serviceName) {
+        return concurrencyLimiterMap.computeIfAbsent(serviceName, name -> sharedConcurrencyLimiters.acquire(name, this::createConcurrencyLimiter));
+    }
+
+    /**
+     * Create the concurrency limiter for service, the limits are given by the "bulkhead" config
+     *
+     * @param serviceName the name of service
+     * @return concurrency limiter of service
+     */
+    protected ConcurrencyLimiter createConcurrencyLimiter(String serviceName) {
+        JsonObject bulkheadConfig = this.getServiceConfig(KEY_BULKHEAD, serviceName);
+        logger.debug("Create concurrency limiter for service {}, config:{}", serviceName, bulkheadConfig.encode());
+        return ConcurrencyLimiter.create(
+                bulkheadConfig.getInteger(KEY_INITIAL_LIMIT, DEFAULT_INITIAL_LIMIT),
+                bulkheadConfig.getInteger(KEY_MIN_LIMIT, DEFAULT_MIN_LIMIT),
+                bulkheadConfig.getInteger(KEY_MAX_LIMIT, DEFAULT_MAX_LIMIT),
+                bulkheadConfig.getLong(KEY_LATENCY_THRESHOLD, DEFAULT_LATENCY_THRESHOLD),
+                bulkheadConfig.getDouble(KEY_BACKOFF_RATIO, DEFAULT_BACKOFF_RATIO));
+    }
+
+    /**
+     * Run a call to a service inside the service's bulkhead, the call fails fast with ServiceUnavailableException
+     * when the service already has as many calls in flight as its current limit
+     *
+     * @param serviceName the name of service
+     * @param call        the call to service
+     * @return the result of call
+     */
+    protected <T> Single<T> executeInBulkhead(String serviceName, Single<T> call) {
+        return Single.defer(() -> {
+            JsonObject bulkheadConfig = this.getServiceConfig(KEY_BULKHEAD, serviceName);
+            if (!bulkheadConfig.getBoolean(KEY_ENABLED, true)) {
+                return call;
+            }
+            ConcurrencyLimiter limiter = this.getConcurrencyLimiter(serviceName);
+            if (!limiter.tryAcquire()) {
+                logger.debug("Service {} reached concurrency limit {}", serviceName, limiter.getLimit());
+                return Single.error(new ServiceUnavailableException("Service [" + serviceName + "] is overloaded",
+                        bulkheadConfig.getLong(KEY_RETRY_AFTER, DEFAULT_RETRY_AFTER)));
+            }
+            long startTime = System.nanoTime();
+            boolean[] dropped = new boolean[1];
+            return call.doOnError(throwable -> dropped[0] = throwable instanceof TimeoutException)
+                    .doFinally(() -> limiter.release(System.nanoTime() - startTime, dropped[0]));
+        });
+    }
+
+    private JsonObject getBulkheadMetrics() {
+        JsonObject metrics = new JsonObject();
+        concurrencyLimiterMap.forEach((serviceName, limiter) -> metrics.put(serviceName, limiter.toJson()));
+        return metrics;
+    }
+
+    /**
+     * Return the hedging policy of service by service name, the policy and its retry budget are shared
+     * by all instances on the node
+     *
+     * @param serviceName the name of service
+     * @return hedging policy of service
+     */
+    protected final HedgingPolicy getHedgingPolicy(String serviceName) {
+        return hedgingPolicyMap.computeIfAbsent(serviceName, name -> sharedHedgingPolicies.acquire(name, this::createHedgingPolicy));
+    }
+
+    /**
+     * Create the hedging policy for service, the delay and retry budget are given by the "hedging" config
+     *
+     * @param serviceName the name of service
+     * @return hedging policy of service
+     */
+    protected HedgingPolicy createHedgingPolicy(String serviceName) {
+        JsonObject hedgingConfig = this.getServiceConfig(KEY_HEDGING, serviceName);
+        JsonObject budgetConfig = hedgingConfig.getJsonObject(KEY_RETRY_BUDGET, new JsonObject());
+        logger.debug("Create hedging policy for service {}, config:{}", serviceName, hedgingConfig.encode());
+        return HedgingPolicy.create(
+                hedgingConfig.getDouble(KEY_PERCENTILE, DEFAULT_HEDGING_PERCENTILE),
+                hedgingConfig.getLong(KEY_MIN_DELAY, DEFAULT_HEDGING_MIN_DELAY),
+                hedgingConfig.getLong(KEY_MAX_DELAY, DEFAULT_HEDGING_MAX_DELAY),
+                LatencyHistogram.create(HEDGING_LATENCY_WINDOW),
+                RetryBudget.create(
+                        budgetConfig.getDouble(KEY_RATIO, DEFAULT_RETRY_RATIO),
+                        budgetConfig.getDouble(KEY_MIN_RETRIES_PER_SECOND, DEFAULT_MIN_RETRIES_PER_SECOND),
+                        budgetConfig.getDouble(KEY_MAX_TOKENS, DEFAULT_MAX_RETRY_TOKENS)));
+    }
+
+    /**
+     * Return whether a request to service is hedged, only requests with a safe method and without body are
+     * hedged and only when "hedging" is enabled for the service
+     *
+     * @param serviceName the name of service
+     * @param method      HTTP method
+     * @param body        body of request, may be null
+     * @return
+     */
+    protected boolean isHedged(String serviceName, HttpMethod method, Buffer body) {
+        return (method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS)
+                && (null == body || body.length() == 0)
+                && this.getServiceConfig(KEY_HEDGING, serviceName).getBoolean(KEY_ENABLED, false);
+    }
+
+    private JsonObject getHedgingMetrics() {
+        JsonObject metrics = new JsonObject();
+        hedgingPolicyMap.forEach((serviceName, policy) -> metrics.put(serviceName, policy.toJson()));
+        return metrics;
+    }
+
+    /**
+     * Return the outlier detector of service by service name, the detector and the health of instances it
+     * keeps are shared by all instances on the node
+     *
+     * @param serviceName the name of service
+     * @return outlier detector of service
+     */
+    protected final OutlierDetector getOutlierDetector(String serviceName) {
+        return outlierDetectorMap.computeIfAbsent(serviceName, name -> sharedOutlierDetectors.acquire(name,
+                key -> OutlierDetector.fromJson(this.getServiceConfig(KEY_OUTLIER_DETECTION, key))));
+    }
+
+    private JsonObject getOutlierDetectionMetrics() {
+        JsonObject metrics = new JsonObject();
+        outlierDetectorMap.forEach((serviceName, outlierDetector) -> metrics.put(serviceName, outlierDetector.toJson()));
+        return metrics;
+    }
+
+    /**
+     * Return load balancer of service by service name
+     *
+     * @param serviceName the name of service
+     * @return load balancer of service
+     */
+    protected final LoadBalancer getLoadBalancer(String serviceName) {
+        return loadBalancerMap.computeIfAbsent(serviceName, this::createLoadBalancer);
+    }
+
+    /**
+     * Create load balancer for service, the strategy is read from the "loadBalancer" config section
+     *
+     * @param serviceName the name of service
+     * @return load balancer of service
+     */
+    protected LoadBalancer createLoadBalancer(String serviceName) {
+        String strategy = this.getServiceConfig(KEY_LOAD_BALANCER, serviceName).getString(KEY_STRATEGY, LoadBalancer.ROUND_ROBIN);
+        logger.debug("Create {} LoadBalancer for service {}", strategy, serviceName);
+        return LoadBalancer.create(strategy);
+    }
+
+    /**
+     * Return the client of one published instance of service, selected by the load balancer of service
+     *
+     * @param serviceName the name of service
+     * @param key         the request key for affinity based load balancing, may be null
+     * @return
+     */
+    protected final Single<ServiceClient> getServiceClient(String serviceName, String key) {
+        return clientRegistry.getClients(serviceName).map(clients -> {
+            if (clients.isEmpty()) {
+                throw new IllegalStateException("Service [" + serviceName + "] not published");
+            }
+            return this.getLoadBalancer(serviceName).select(clients, key);
+        });
     }
 
     /**
@@ -105,19 +526,29 @@ public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
      */
     protected final Single<HttpClient> getHttpEndPoint(String serviceName) {
         logger.debug("Get HTTP client by service name[{}]", serviceName);
-        return HttpEndpoint.rxGetClient(discovery, new JsonObject().put(KEY_NAME, serviceName));
+        return this.getServiceClient(serviceName, null).map(ServiceClient::getHttpClient);
     }
 
     /**
-     * Return an async HttpClient by service name
+     * Return an async WebClient by service name, the client is pooled and shared by all requests to the same instance
      *
      * @param serviceName the name of service
      * @return
      */
     protected final Single<WebClient> getWebEndPoint(String serviceName) {
         logger.debug("Get Web client by service name[{}]", serviceName);
-        return HttpEndpoint.rxGetWebClient(discovery, new JsonObject().put(KEY_NAME, serviceName));
+        return this.getServiceClient(serviceName, null).map(ServiceClient::getWebClient);
+    }
 
+    /**
+     * Return the WebClient of a host, the client is pooled and shared like the clients of service instances
+     *
+     * @param host the host
+     * @param port the port
+     * @return
+     */
+    protected final WebClient getWebClient(String host, int port) {
+        return clientRegistry.getWebClient(host, port);
     }
 
     /**
@@ -131,24 +562,160 @@ public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
         String host = config.getString(KEY_HOST, "localhost");
         Integer port = config.getInteger(KEY_PORT, 8080);
         String root = config.getString(KEY_ROOT, "/");
+        JsonObject metadata = new JsonObject()
+                .put(KEY_WEIGHT, config.getInteger(KEY_WEIGHT, 1))
+                .put(KEY_PROTOCOL, config.getString(KEY_PROTOCOL, ServiceClient.PROTOCOL_HTTP_1_1));
         logger.debug("publishHttpEndPoint service:{}, host:{}, port:{}, root:{}", serviceName, host, port, root);
-        return this.publishRecord(HttpEndpoint.createRecord(serviceName, host, port, root));
+        return this.publishRecord(HttpEndpoint.createRecord(serviceName, host, port, root, metadata));
     }
 
     /**
-     * Publish a service record to ServiceDiscovery
+     * Publish a service record to ServiceDiscovery, instances on the same node which publish the same service
+     * at the same location share one publication, it is unpublished when the last of them stops
      *
      * @param record record to publish
      * @return
      */
     protected Single<Record> publishRecord(Record record) {
+        String key = record.getName() + (null == record.getLocation() ? "" : record.getLocation().encode());
         return this.unpublishRecord()
-                .flatMap(b -> discovery.rxPublish(record))
-                .doOnSuccess(r -> this.publishedRecord = r);
+                .flatMap(b -> sharedPublications.acquire(key, k -> discovery.rxPublish(record).cache()))
+                .doOnSuccess(r -> {
+                    this.publicationKey = key;
+                    this.publishedRecord = r;
+                })
+                .doOnError(throwable -> sharedPublications.release(key));
+    }
+
+    /**
+     * Invoke a HTTP service by service name and return the buffered response
+     *
+     * @param serviceName the name of service
+     * @param method      HTTP method
+     * @param uri         uri of request
+     * @param headers     headers of request, may be null
+     * @param body        body of request, may be null
+     * @return the response of service
+     */
+    protected Single<HttpResponse<Buffer>> invokeHttpService(String serviceName, HttpMethod method, String uri, MultiMap headers, Buffer body) {
+        return this.invokeHttpService(serviceName, method, uri, headers, body, 0);
     }
 
     /**
-     * Invoke a restful service by service name
+     * Invoke a HTTP service by service name and return the buffered response
+     *
+     * @param serviceName the name of service
+     * @param method      HTTP method
+     * @param uri         uri of request
+     * @param headers     headers of request, may be null
+     * @param body        body of request, may be null
+     * @param timeout     the timeout of request in milliseconds, 0 to rely on the circuit breaker's timeout only
+     * @return the response of service
+     */
+    protected Single<HttpResponse<Buffer>> invokeHttpService(String serviceName, HttpMethod method, String uri, MultiMap headers, Buffer body, long timeout) {
+        logger.debug("invokeHttpService, service name:{}, uri:{}", serviceName, uri);
+        return this.executeInBulkhead(serviceName, this.<HttpResponse<Buffer>>executeInCircuitBreaker(serviceName, future -> {
+            Single<HttpResponse<Buffer>> result = this.isHedged(serviceName, method, body)
+                    ? this.sendHedgedRequest(serviceName, method, uri, headers, timeout)
+                    : this.sendRequest(serviceName, method, uri, headers, body, timeout);
+            result.subscribe(future::complete, future::fail);
+        }));
+    }
+
+    private Single<HttpResponse<Buffer>> sendRequest(String serviceName, HttpMethod method, String uri, MultiMap headers, Buffer body, long timeout) {
+        return this.getServiceClient(serviceName, uri)
+                .onErrorResumeNext(throwable -> Single.error(new NoStackTraceThrowable("Service [" + serviceName + "] not found")))
+                .flatMap(serviceClient -> {
+                    HttpRequest<Buffer> request = serviceClient.getWebClient().request(method, uri);
+                    if (timeout > 0) {
+                        request.timeout(timeout);
+                    }
+                    if (null != headers) {
+                        request.headers().addAll(headers);
+                    }
+                    Single<HttpResponse<Buffer>> result = null == body ? request.rxSend() : request.rxSendBuffer(body);
+                    long startTime = serviceClient.requestStarted();
+                    return result.doOnEvent((response, throwable) -> serviceClient.requestCompleted(startTime,
+                            null != throwable || response.statusCode() >= SC_INTERNAL_SERVER_ERROR))
+                            .doOnDispose(() -> serviceClient.requestCompleted(startTime));
+                });
+    }
+
+    /**
+     * Send a request to the instance selected by the load balancer and hedge it to another instance as the
+     * hedging policy of service decides
+     */
+    private Single<HttpResponse<Buffer>> sendHedgedRequest(String serviceName, HttpMethod method, String uri, MultiMap headers, long timeout) {
+        return clientRegistry.getClients(serviceName)
+                .onErrorResumeNext(throwable -> Single.error(new NoStackTraceThrowable("Service [" + serviceName + "] not found")))
+                .flatMap(clients -> {
+                    if (clients.isEmpty()) {
+                        return Single.error(new NoStackTraceThrowable("Service [" + serviceName + "] not found"));
+                    }
+                    LoadBalancer loadBalancer = this.getLoadBalancer(serviceName);
+                    ServiceClient primary = loadBalancer.select(clients, uri);
+                    List<ServiceClient> others = clients.stream().filter(client -> client != primary).collect(Collectors.toList());
+                    ServiceClient secondary = others.isEmpty() ? null : loadBalancer.select(others, uri);
+                    return this.getHedgingPolicy(serviceName).execute(vertx, primary, secondary,
+                            serviceClient -> this.sendCancellableRequest(serviceClient, method, uri, headers, timeout));
+                });
+    }
+
+    /**
+     * Send a request without body with the core HttpClient, unlike a WebClient request it is reset when
+     * the returned Single is disposed before the response has arrived
+     */
+    private Single<HttpResponse<Buffer>> sendCancellableRequest(ServiceClient serviceClient, HttpMethod method, String uri, MultiMap headers, long timeout) {
+        return Single.create(emitter -> {
+            boolean[] completed = new boolean[1];
+            long startTime = serviceClient.requestStarted();
+            HttpClientRequest request = serviceClient.getHttpClient().getDelegate().request(method, uri);
+            Handler<Throwable> failureHandler = throwable -> {
+                if (!completed[0]) {
+                    completed[0] = true;
+                    serviceClient.requestCompleted(startTime, true);
+                    emitter.tryOnError(throwable);
+                }
+            };
+            request.exceptionHandler(failureHandler);
+            request.handler(response -> response.exceptionHandler(failureHandler).bodyHandler(body -> {
+                completed[0] = true;
+                serviceClient.requestCompleted(startTime, response.statusCode() >= SC_INTERNAL_SERVER_ERROR);
+                emitter.onSuccess(HttpResponse.newInstance(BufferedHttpResponse.create(response, body), Buffer.__TYPE_ARG));
+            }));
+            if (timeout > 0) {
+                request.setTimeout(timeout);
+            }
+            if (null != headers) {
+                request.headers().addAll(headers.getDelegate());
+            }
+            emitter.setCancellable(() -> {
+                if (!completed[0]) {
+                    completed[0] = true;
+                    serviceClient.requestCompleted(startTime);
+                    request.reset();
+                }
+            });
+            request.end();
+        });
+    }
+
+    /**
+     * Invoke a HTTP GET on a service, concurrent invocations with the same key share one upstream request
+     * and receive the same response
+     *
+     * @param serviceName the name of service
+     * @param uri         uri of request
+     * @param headers     headers of request, taken from the invocation which starts the upstream request
+     * @param key         identifies identical requests to the service, must cover every header the response varies on
+     * @return the shared response
+     */
+    protected Single<HttpResponse<Buffer>> invokeCoalescedHttpService(String serviceName, String uri, MultiMap headers, String key) {
+        return httpFlights.execute(serviceName + ' ' + key, () -> this.invokeHttpService(serviceName, HttpMethod.GET, uri, headers, null));
+    }
+
+    /**
+     * Invoke a restful service by service name, concurrent GETs of the same uri are coalesced
      *
      * @param serviceName the name of service
      * @param method      HTTP method
@@ -158,19 +725,39 @@ public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
      */
     protected Single<JsonObject> invokeRestService(String serviceName, HttpMethod method, String uri, JsonObject body) {
         logger.debug("invokeRestfulService, service name:{}, uri:{}", serviceName, uri);
-        return this.getCircuitBreaker(serviceName).rxExecuteCommand(future -> this.getWebEndPoint(serviceName).subscribe(
-                webClient -> {
-                    HttpRequest<Buffer> request = webClient.request(method, uri);
-                    Single<HttpResponse<Buffer>> result;
-                    if (null == body) {
-                        result = request.rxSend();
-                    } else {
-                        result = request.rxSendJsonObject(body);
+        if (null == body && method == HttpMethod.GET) {
+            return this.invokeCoalescedHttpService(serviceName, uri, null, uri).map(HttpResponse::bodyAsJsonObject);
+        } else if (null == body) {
+            return this.invokeHttpService(serviceName, method, uri, null, null).map(HttpResponse::bodyAsJsonObject);
+        }
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap().add(HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON);
+        return this.invokeHttpService(serviceName, method, uri, headers, Buffer.buffer(body.encode())).map(HttpResponse::bodyAsJsonObject);
+    }
+
+    /**
+     * Invoke a restful service by service name and decode its JSON result, a response with an error status fails
+     *
+     * @param serviceName the name of service
+     * @param method      HTTP method
+     * @param uri         uri of request
+     * @param body        body of request, may be null
+     * @param timeout     the timeout of request in milliseconds, 0 to rely on the circuit breaker's timeout only
+     * @return result as JsonObject or JsonArray, an empty JsonObject if the response has no body
+     */
+    protected Single<Object> invokeJsonService(String serviceName, HttpMethod method, String uri, JsonObject body, long timeout) {
+        logger.debug("invokeJsonService, service name:{}, uri:{}", serviceName, uri);
+        MultiMap headers = null == body ? null : MultiMap.caseInsensitiveMultiMap().add(HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON);
+        return this.invokeHttpService(serviceName, method, uri, headers, null == body ? null : Buffer.buffer(body.encode()), timeout)
+                .flatMap(response -> {
+                    if (response.statusCode() >= 400) {
+                        return Single.error(new NoStackTraceThrowable("Service [" + serviceName + "] answered " + response.statusCode()));
+                    }
+                    String json = null == response.body() ? "" : response.bodyAsString().trim();
+                    if (json.isEmpty()) {
+                        return Single.just(new JsonObject());
                     }
-                    result.map(HttpResponse::bodyAsJsonObject).subscribe(future::complete, future::fail);
-                },
-                throwable -> future.fail("Service [" + serviceName + "] not found"))
-        );
+                    return Single.just(json.startsWith("[") ? new JsonArray(json) : new JsonObject(json));
+                });
     }
 
     /**
@@ -185,7 +772,7 @@ public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
      */
     protected Single<JsonObject> invokeRestRequest(HttpMethod method, int port, String host, String uri, JsonObject body) {
         logger.debug("invokeRestfulService, host:{}, port:{}, uri:{}", host, port, uri);
-        HttpRequest<Buffer> request = WebClient.create(vertx).request(method, port, host, uri);
+        HttpRequest<Buffer> request = clientRegistry.getWebClient(host, port).request(method, port, host, uri);
         Single<HttpResponse<Buffer>> result;
         if (null == body) {
             result = request.rxSend();
@@ -195,17 +782,29 @@ public abstract class BaseMicroServicesVerticle extends AbstractVerticle {
         return result.map(HttpResponse::bodyAsJsonObject);
     }
 
+    /**
+     * Release the publication of this instance, the record is unpublished when no other instance shares it
+     *
+     * @return true if the record was unpublished, false if nothing was published or others still publish it
+     */
     private Single<Boolean> unpublishRecord() {
         return Single.create(emitter -> {
-            if (null != this.publishedRecord) {
-                discovery.rxUnpublish(this.publishedRecord.getRegistration())
+            Record record = this.publishedRecord;
+            if (null == record) {
+                emitter.onSuccess(false);
+            } else if (!sharedPublications.release(this.publicationKey)) {
+                logger.debug("Service {} is still published by other instances", record.getName());
+                this.publicationKey = null;
+                this.publishedRecord = null;
+                emitter.onSuccess(false);
+            } else {
+                discovery.rxUnpublish(record.getRegistration())
                         .subscribe(() -> {
-                            logger.debug("Service {} unpublished", this.publishedRecord.getName());
+                            logger.debug("Service {} unpublished", record.getName());
+                            this.publicationKey = null;
                             this.publishedRecord = null;
                             emitter.onSuccess(true);
                         }, emitter::onError);
-            } else {
-                emitter.onSuccess(true);
             }
         });
     }
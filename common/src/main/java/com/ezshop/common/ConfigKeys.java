@@ -13,4 +13,113 @@ public interface ConfigKeys {
     String KEY_SERVICE_NAME = "serviceName";
     String KEY_SERVICE_ADDRESS = "serviceProxyAddress";
     String KEY_DATABASE = "database";
+    String KEY_WEIGHT = "weight";
+    String KEY_SERVICES = "services";
+    String KEY_LOAD_BALANCER = "loadBalancer";
+    String KEY_STRATEGY = "strategy";
+    String KEY_HASH_HEADER = "hashHeader";
+    String KEY_DISCOVERY_RESYNC_INTERVAL = "discoveryResyncInterval";
+    String KEY_ENABLED = "enabled";
+    String KEY_MAX_SIZE = "maxSize";
+    String KEY_MAX_ENTRY_SIZE = "maxEntrySize";
+    String KEY_TTL = "ttl";
+    String KEY_VARY_HEADERS = "varyHeaders";
+    String KEY_RESPONSE_CACHE = "responseCache";
+    String KEY_COALESCING = "coalescing";
+    String KEY_BULKHEAD = "bulkhead";
+    String KEY_INITIAL_LIMIT = "initialLimit";
+    String KEY_MIN_LIMIT = "minLimit";
+    String KEY_MAX_LIMIT = "maxLimit";
+    String KEY_LATENCY_THRESHOLD = "latencyThreshold";
+    String KEY_BACKOFF_RATIO = "backoffRatio";
+    String KEY_RETRY_AFTER = "retryAfter";
+    String KEY_INSTANCES = "instances";
+    String KEY_ROUTE_TABLE = "routeTable";
+    String KEY_ROUTES = "routes";
+    String KEY_FILE = "file";
+    String KEY_RELOAD_INTERVAL = "reloadInterval";
+    String KEY_PATH = "path";
+    String KEY_SERVICE = "service";
+    String KEY_REWRITE = "rewrite";
+    String KEY_TIMEOUT = "timeout";
+    String KEY_CACHE = "cache";
+    String KEY_PROTOCOL = "protocol";
+    String KEY_HTTP_CLIENT = "httpClient";
+    String KEY_MAX_CONCURRENT_STREAMS = "maxConcurrentStreams";
+    String KEY_COMPRESSION = "compression";
+    String KEY_MIN_SIZE = "minSize";
+    String KEY_LEVEL = "level";
+    String KEY_CONTENT_TYPES = "contentTypes";
+    String KEY_STATIC_ASSETS = "staticAssets";
+    String KEY_WEB_ROOT = "webRoot";
+    String KEY_PRECOMPRESSED = "precompressed";
+    String KEY_MAX_ENTRIES = "maxEntries";
+    String KEY_MAX_AGE = "maxAge";
+    String KEY_MAX_CACHED_FILE_SIZE = "maxCachedFileSize";
+    String KEY_CACHE_ENTRY_TIMEOUT = "cacheEntryTimeout";
+    String KEY_FINGERPRINT_PATTERN = "fingerprintPattern";
+    String KEY_HEDGING = "hedging";
+    String KEY_PERCENTILE = "percentile";
+    String KEY_MIN_DELAY = "minDelay";
+    String KEY_MAX_DELAY = "maxDelay";
+    String KEY_RETRY_BUDGET = "retryBudget";
+    String KEY_RATIO = "ratio";
+    String KEY_MIN_RETRIES_PER_SECOND = "minRetriesPerSecond";
+    String KEY_MAX_TOKENS = "maxTokens";
+    String KEY_CIRCUIT_BREAKER = "circuitBreaker";
+    String KEY_MAX_FAILURES = "maxFailures";
+    String KEY_RESET_TIMEOUT = "resetTimeout";
+    String KEY_SLIDING_WINDOW = "slidingWindow";
+    String KEY_TYPE = "type";
+    String KEY_SIZE = "size";
+    String KEY_MIN_CALLS = "minCalls";
+    String KEY_FAILURE_RATE_THRESHOLD = "failureRateThreshold";
+    String KEY_SLOW_CALL_RATE_THRESHOLD = "slowCallRateThreshold";
+    String KEY_SLOW_CALL_DURATION = "slowCallDuration";
+    String KEY_STALE_WHILE_REVALIDATE = "staleWhileRevalidate";
+    String KEY_STALE_IF_ERROR = "staleIfError";
+    String KEY_AGGREGATION = "aggregation";
+    String KEY_MAX_CALLS = "maxCalls";
+    String KEY_CALLS = "calls";
+    String KEY_URI = "uri";
+    String KEY_METHOD = "method";
+    String KEY_BODY = "body";
+    String KEY_DEPENDS_ON = "dependsOn";
+    String KEY_OPTIONAL = "optional";
+    String KEY_FALLBACK = "fallback";
+    String KEY_RATE_LIMIT = "rateLimit";
+    String KEY_KEY_BY = "keyBy";
+    String KEY_API_KEY_HEADER = "apiKeyHeader";
+    String KEY_RATE = "rate";
+    String KEY_BURST = "burst";
+    String KEY_SYNC_INTERVAL = "syncInterval";
+    String KEY_IDLE_TIMEOUT = "idleTimeout";
+    String KEY_PREWARM_CONNECTIONS = "prewarmConnections";
+    String KEY_PREWARM_PATH = "prewarmPath";
+    String KEY_ACCESS_LOG = "accessLog";
+    String KEY_BUFFER_SIZE = "bufferSize";
+    String KEY_OUTLIER_DETECTION = "outlierDetection";
+    String KEY_CONSECUTIVE_FAILURES = "consecutiveFailures";
+    String KEY_BASE_EJECTION_TIME = "baseEjectionTime";
+    String KEY_MAX_EJECTION_TIME = "maxEjectionTime";
+    String KEY_MAX_EJECTION_PERCENT = "maxEjectionPercent";
+    String KEY_HEALTH_CHECK = "healthCheck";
+    String KEY_INTERVAL = "interval";
+    String KEY_READINESS = "readiness";
+    String KEY_JDBC_CONNECTIONS = "jdbcConnections";
+    String KEY_PATHS = "paths";
+    String KEY_BATCH_SIZE = "batchSize";
+    String KEY_CONCURRENCY = "concurrency";
+    String KEY_LATENCY_TARGET = "latencyTarget";
+    String KEY_MAX_DURATION = "maxDuration";
+    String KEY_SHUTDOWN = "shutdown";
+    String KEY_GRACE_PERIOD = "gracePeriod";
+    String KEY_DRAIN_TIMEOUT = "drainTimeout";
+    String KEY_ADMISSION = "admission";
+    String KEY_MAX_IN_FLIGHT = "maxInFlight";
+    String KEY_QUEUE_DEPTH = "queueDepth";
+    String KEY_MAX_QUEUE_TIME = "maxQueueTime";
+    String KEY_TARGET_QUEUE_TIME = "targetQueueTime";
+    String KEY_MAX_EVENT_LOOP_LAG = "maxEventLoopLag";
+    String KEY_PRIORITY_PATHS = "priorityPaths";
 }
\ No newline at end of file
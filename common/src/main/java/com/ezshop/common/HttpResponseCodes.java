@@ -270,6 +270,13 @@ public interface HttpResponseCodes {
 
     public static final int SC_EXPECTATION_FAILED = 417;
 
+    /**
+     * Status code (429) indicating that the client has sent too many
+     * requests in a given amount of time.
+     */
+
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
     /**
      * Status code (500) indicating an error inside the HTTP server
      * which prevented it from fulfilling the request.
@@ -0,0 +1,22 @@
+package com.ezshop.common;
+
+/**
+ * Thrown when a call to a service is shed, the caller may retry after the given number of seconds
+ *
+ * @author Gary Cheng
+ */
+public class ServiceUnavailableException extends RuntimeException {
+    private final long retryAfter;
+
+    public ServiceUnavailableException(String message, long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the number of seconds after which the call may be retried
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
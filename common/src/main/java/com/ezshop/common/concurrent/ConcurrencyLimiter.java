@@ -0,0 +1,90 @@
+package com.ezshop.common.concurrent;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit of concurrent calls to a service (AIMD), the limit grows by one per round of fast calls
+ * while it is in use and shrinks multiplicatively whenever a call is slower than the latency threshold or times out
+ *
+ * @author Gary Cheng
+ */
+public class ConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThreshold;
+    private final double backoffRatio;
+    private double limit;
+    private int inFlight;
+    private long rejected;
+
+    private ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, double backoffRatio) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Create a concurrency limiter
+     *
+     * @param initialLimit     the limit to start with
+     * @param minLimit         the lower bound of limit
+     * @param maxLimit         the upper bound of limit
+     * @param latencyThreshold calls slower than this number of milliseconds shrink the limit
+     * @param backoffRatio     the ratio applied to the limit when it shrinks
+     * @return
+     */
+    public static ConcurrencyLimiter create(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, double backoffRatio) {
+        return new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, latencyThreshold, backoffRatio);
+    }
+
+    /**
+     * Try to start a call
+     *
+     * @return true if the call may proceed, false if the limit is reached
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Complete a call started by a successful tryAcquire and adjust the limit
+     *
+     * @param latency the latency of call in nanoseconds
+     * @param dropped true if the call timed out
+     */
+    public synchronized void release(long latency, boolean dropped) {
+        inFlight--;
+        if (dropped || latency > latencyThreshold) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight * 2 >= (int) limit) {
+            // only grow while the limit is actually in use, otherwise an idle service would drift to the maximum
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the state of limiter
+     */
+    public synchronized JsonObject toJson() {
+        return new JsonObject()
+                .put("limit", (int) limit)
+                .put("inFlight", inFlight)
+                .put("rejected", rejected);
+    }
+}
@@ -0,0 +1,170 @@
+package com.ezshop.common.concurrent;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Sliding window over the outcomes of recent calls to a service, either the last N calls or the calls of
+ * the last N seconds. The window reports when the rate of failed calls or of slow calls reaches its threshold,
+ * no earlier than a minimum number of calls has been recorded
+ *
+ * @author Gary Cheng
+ */
+public class FailureRateWindow {
+    public static final String COUNT_BASED = "count";
+    public static final String TIME_BASED = "time";
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final boolean timeBased;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallDuration;
+    private final int[] calls;
+    private final int[] failures;
+    private final int[] slowCalls;
+    private final long[] seconds;
+    private int position;
+    private int totalCalls;
+    private int totalFailures;
+    private int totalSlowCalls;
+    private long currentSecond;
+    private final long origin = System.nanoTime();
+
+    private FailureRateWindow(String type, int size, int minCalls, double failureRateThreshold,
+                              double slowCallRateThreshold, long slowCallDuration) {
+        if (!COUNT_BASED.equals(type) && !TIME_BASED.equals(type)) {
+            throw new IllegalArgumentException("Unknown sliding window type: " + type);
+        }
+        this.timeBased = TIME_BASED.equals(type);
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.calls = new int[size];
+        this.failures = new int[size];
+        this.slowCalls = new int[size];
+        this.seconds = new long[size];
+    }
+
+    /**
+     * Create a sliding window
+     *
+     * @param type                  "count" to keep the last size calls, "time" to keep the calls of the last size seconds
+     * @param size                  the size of window in calls or seconds
+     * @param minCalls              the number of calls needed before the rates are judged
+     * @param failureRateThreshold  the percentage of failed calls at which the window trips
+     * @param slowCallRateThreshold the percentage of slow calls at which the window trips
+     * @param slowCallDuration      the duration in milliseconds from which a call is slow
+     * @return
+     */
+    public static FailureRateWindow create(String type, int size, int minCalls, double failureRateThreshold,
+                                           double slowCallRateThreshold, long slowCallDuration) {
+        return new FailureRateWindow(type, size, minCalls, failureRateThreshold, slowCallRateThreshold, slowCallDuration);
+    }
+
+    /**
+     * Record the outcome of a call
+     *
+     * @param failed        whether the call failed
+     * @param durationNanos the duration of call in nanoseconds
+     * @return true if a threshold is reached
+     */
+    public synchronized boolean record(boolean failed, long durationNanos) {
+        int index = this.advance();
+        int failure = failed ? 1 : 0;
+        int slow = durationNanos >= slowCallDuration * 1000000 ? 1 : 0;
+        calls[index]++;
+        failures[index] += failure;
+        slowCalls[index] += slow;
+        totalCalls++;
+        totalFailures += failure;
+        totalSlowCalls += slow;
+        return this.isTripped();
+    }
+
+    /**
+     * Forget every recorded call, when the circuit closes again
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < calls.length; i++) {
+            this.clear(i);
+        }
+        totalCalls = 0;
+        totalFailures = 0;
+        totalSlowCalls = 0;
+    }
+
+    /**
+     * @return the state of window
+     */
+    public synchronized JsonObject toJson() {
+        if (timeBased) {
+            this.expire(this.currentSecond());
+        }
+        return new JsonObject()
+                .put("calls", totalCalls)
+                .put("failureRate", this.rate(totalFailures))
+                .put("slowCallRate", this.rate(totalSlowCalls));
+    }
+
+    private boolean isTripped() {
+        return totalCalls >= minCalls
+                && (this.rate(totalFailures) >= failureRateThreshold || this.rate(totalSlowCalls) >= slowCallRateThreshold);
+    }
+
+    private double rate(int count) {
+        return totalCalls == 0 ? 0 : count * 100.0 / totalCalls;
+    }
+
+    /**
+     * Move the window to the slot of the next call and drop what falls out of it
+     */
+    private int advance() {
+        if (!timeBased) {
+            int index = position;
+            position = (position + 1) % calls.length;
+            this.evict(index);
+            return index;
+        }
+        long second = this.currentSecond();
+        this.expire(second);
+        int index = (int) (second % calls.length);
+        if (seconds[index] != second) {
+            this.evict(index);
+            seconds[index] = second;
+        }
+        return index;
+    }
+
+    private long currentSecond() {
+        return (System.nanoTime() - origin) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Drop the seconds which fell out of the window, at most once per second
+     */
+    private void expire(long second) {
+        if (second == currentSecond) {
+            return;
+        }
+        for (int i = 0; i < calls.length; i++) {
+            if (seconds[i] <= second - calls.length) {
+                this.evict(i);
+            }
+        }
+        currentSecond = second;
+    }
+
+    private void evict(int index) {
+        totalCalls -= calls[index];
+        totalFailures -= failures[index];
+        totalSlowCalls -= slowCalls[index];
+        this.clear(index);
+    }
+
+    private void clear(int index) {
+        calls[index] = 0;
+        failures[index] = 0;
+        slowCalls[index] = 0;
+    }
+}
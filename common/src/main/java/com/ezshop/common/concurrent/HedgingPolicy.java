@@ -0,0 +1,204 @@
+package com.ezshop.common.concurrent;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.disposables.Disposable;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+
+import java.util.function.Function;
+
+/**
+ * Hedging of idempotent calls to a service. A call which has not completed after the configured percentile
+ * of recent latencies is sent a second time to another target, the first answer wins and the other attempt
+ * is cancelled. A call which fails before it is hedged is retried on the other target at once. Hedges and
+ * retries are both taken from the retry budget of the service
+ *
+ * @author Gary Cheng
+ */
+public class HedgingPolicy {
+    private static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final long minDelay;
+    private final long maxDelay;
+    private final LatencyHistogram latencies;
+    private final RetryBudget retryBudget;
+    private long calls;
+    private long hedges;
+    private long retries;
+    private long hedgeWins;
+
+    private HedgingPolicy(double percentile, long minDelay, long maxDelay, LatencyHistogram latencies, RetryBudget retryBudget) {
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.latencies = latencies;
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * Create a hedging policy
+     *
+     * @param percentile  the latency percentile after which a call is hedged
+     * @param minDelay    the minimum delay before a call is hedged in milliseconds
+     * @param maxDelay    the maximum delay before a call is hedged in milliseconds, also used until enough latencies are known
+     * @param latencies   the recent latencies of service
+     * @param retryBudget the retry budget of service
+     * @return
+     */
+    public static HedgingPolicy create(double percentile, long minDelay, long maxDelay, LatencyHistogram latencies, RetryBudget retryBudget) {
+        return new HedgingPolicy(percentile, minDelay, maxDelay, latencies, retryBudget);
+    }
+
+    /**
+     * @return the delay in milliseconds after which a call is hedged
+     */
+    public long getDelay() {
+        if (latencies.count() < MIN_SAMPLES) {
+            return maxDelay;
+        }
+        return Math.max(minDelay, Math.min(maxDelay, (long) Math.ceil(latencies.percentile(percentile))));
+    }
+
+    /**
+     * Execute a call, the attempt function must cancel its request when the returned Single is disposed.
+     * Must be called on the event loop of the verticle the targets belong to
+     *
+     * @param vertx     the vertx instance
+     * @param primary   the target of first attempt
+     * @param secondary the target of hedged attempt, null if the call must not be hedged
+     * @param attempt   sends an attempt to a target
+     * @return the result of the attempt which completes first
+     */
+    public <C, T> Single<T> execute(Vertx vertx, C primary, C secondary, Function<C, Single<T>> attempt) {
+        return Single.create(emitter -> {
+            HedgedCall<C, T> call = new HedgedCall<>(vertx, secondary, attempt, emitter);
+            emitter.setCancellable(call::cancel);
+            call.start(primary);
+        });
+    }
+
+    /**
+     * @return the state of policy
+     */
+    public synchronized JsonObject toJson() {
+        return new JsonObject()
+                .put("delay", this.getDelay())
+                .put("calls", calls)
+                .put("hedges", hedges)
+                .put("retries", retries)
+                .put("hedgeWins", hedgeWins)
+                .put("retryBudget", retryBudget.toJson());
+    }
+
+    private synchronized void recordCall() {
+        calls++;
+    }
+
+    private synchronized void recordHedge(boolean retry) {
+        if (retry) {
+            retries++;
+        } else {
+            hedges++;
+        }
+    }
+
+    private synchronized void recordHedgeWin() {
+        hedgeWins++;
+    }
+
+    /**
+     * State of one call, only touched on the event loop which executes it
+     */
+    private class HedgedCall<C, T> {
+        private final Vertx vertx;
+        private final C secondary;
+        private final Function<C, Single<T>> attempt;
+        private final SingleEmitter<T> emitter;
+        private Disposable primaryAttempt;
+        private Disposable hedgedAttempt;
+        private long timerId = -1;
+        private int pending;
+        private boolean hedged;
+        private boolean done;
+
+        private HedgedCall(Vertx vertx, C secondary, Function<C, Single<T>> attempt, SingleEmitter<T> emitter) {
+            this.vertx = vertx;
+            this.secondary = secondary;
+            this.attempt = attempt;
+            this.emitter = emitter;
+        }
+
+        private void start(C primary) {
+            recordCall();
+            retryBudget.deposit();
+            pending++;
+            long startTime = System.nanoTime();
+            primaryAttempt = attempt.apply(primary).subscribe(result -> this.succeed(result, startTime, false), this::fail);
+            if (null != secondary && !done) {
+                timerId = vertx.setTimer(getDelay(), id -> {
+                    timerId = -1;
+                    this.hedge(false);
+                });
+            }
+        }
+
+        private void hedge(boolean retry) {
+            if (done || hedged || null == secondary || !retryBudget.tryWithdraw()) {
+                return;
+            }
+            hedged = true;
+            pending++;
+            recordHedge(retry);
+            long startTime = System.nanoTime();
+            hedgedAttempt = attempt.apply(secondary).subscribe(result -> this.succeed(result, startTime, true), this::fail);
+        }
+
+        private void succeed(T result, long startTime, boolean hedge) {
+            pending--;
+            if (done) {
+                return;
+            }
+            latencies.record(System.nanoTime() - startTime);
+            if (hedge) {
+                recordHedgeWin();
+            }
+            this.cancel();
+            emitter.onSuccess(result);
+        }
+
+        private void fail(Throwable throwable) {
+            pending--;
+            if (done) {
+                return;
+            }
+            if (!hedged) {
+                this.cancelTimer();
+                this.hedge(true);
+            }
+            if (pending == 0) {
+                this.cancel();
+                emitter.tryOnError(throwable);
+            }
+        }
+
+        private void cancel() {
+            done = true;
+            this.cancelTimer();
+            if (null != primaryAttempt) {
+                primaryAttempt.dispose();
+            }
+            if (null != hedgedAttempt) {
+                hedgedAttempt.dispose();
+            }
+        }
+
+        private void cancelTimer() {
+            if (timerId >= 0) {
+                vertx.cancelTimer(timerId);
+                timerId = -1;
+            }
+        }
+    }
+}
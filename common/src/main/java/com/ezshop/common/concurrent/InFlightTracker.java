@@ -0,0 +1,132 @@
+package com.ezshop.common.concurrent;
+
+import io.reactivex.Single;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the requests a server is handling, so it can wait for them to finish before it stops
+ *
+ * @author Gary Cheng
+ */
+public class InFlightTracker {
+    private static final long IDLE_POLL_INTERVAL = 10;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    private InFlightTracker() {
+    }
+
+    /**
+     * Create a tracker
+     *
+     * @return
+     */
+    public static InFlightTracker create() {
+        return new InFlightTracker();
+    }
+
+    /**
+     * Count a request which has started
+     */
+    public void begin() {
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    /**
+     * Count a request which has ended, must be called once for every {@link #begin()}
+     */
+    public void end() {
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Wait until no request is in flight
+     *
+     * @param vertx   the Vert.x instance
+     * @param timeout the max time to wait in milliseconds
+     * @return true if all requests ended, false if some were still in flight at the deadline
+     */
+    public Single<Boolean> awaitIdle(Vertx vertx, long timeout) {
+        if (inFlight.get() <= 0) {
+            return Single.just(true);
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        return Single.create(emitter -> vertx.setPeriodic(IDLE_POLL_INTERVAL, timerId -> {
+            boolean idle = inFlight.get() <= 0;
+            if (idle || System.currentTimeMillis() >= deadline) {
+                vertx.cancelTimer(timerId);
+                emitter.onSuccess(idle);
+            }
+        }));
+    }
+
+    /**
+     * Wrap a service whose methods report their results to a handler given as last argument, such as a service
+     * bound to the event bus, every call counts as in flight until its result handler is called
+     *
+     * @param type    the interface of service
+     * @param service the service
+     * @return the tracked service
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T track(Class<T> type, T service) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            int last = null == args ? -1 : args.length - 1;
+            if (last >= 0 && args[last] instanceof Handler) {
+                Handler<AsyncResult<Object>> resultHandler = (Handler<AsyncResult<Object>>) args[last];
+                AtomicBoolean ended = new AtomicBoolean();
+                this.begin();
+                args[last] = (Handler<AsyncResult<Object>>) ar -> {
+                    if (ended.compareAndSet(false, true)) {
+                        this.end();
+                    }
+                    resultHandler.handle(ar);
+                };
+                try {
+                    Object result = method.invoke(service, args);
+                    return result == service ? proxy : result;
+                } catch (InvocationTargetException e) {
+                    if (ended.compareAndSet(false, true)) {
+                        this.end();
+                    }
+                    throw e.getCause();
+                }
+            }
+            try {
+                return method.invoke(service, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * @return the state of tracker
+     */
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("inFlight", inFlight.get())
+                .put("peakInFlight", peakInFlight.get())
+                .put("completed", completed.get());
+    }
+}
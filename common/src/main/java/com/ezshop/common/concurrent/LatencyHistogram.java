@@ -0,0 +1,115 @@
+package com.ezshop.common.concurrent;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of recent latencies with logarithmic buckets, each power of two is split into 8 buckets so
+ * percentiles are accurate within 12.5%. Samples older than two windows are forgotten
+ *
+ * @author Gary Cheng
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 256;
+
+    private final long windowNanos;
+    private long[] current = new long[BUCKETS];
+    private long[] previous = new long[BUCKETS];
+    private long currentCount;
+    private long previousCount;
+    private long windowStart;
+
+    private LatencyHistogram(long windowMillis) {
+        this.windowNanos = windowMillis * 1000000;
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * Create a latency histogram
+     *
+     * @param windowMillis how long samples are kept in milliseconds, they are forgotten after one or two windows
+     * @return
+     */
+    public static LatencyHistogram create(long windowMillis) {
+        return new LatencyHistogram(windowMillis);
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param latencyNanos the latency in nanoseconds
+     */
+    public synchronized void record(long latencyNanos) {
+        this.rotate();
+        current[index(Math.max(0, latencyNanos / 1000))]++;
+        currentCount++;
+    }
+
+    /**
+     * @return the number of samples currently known
+     */
+    public synchronized long count() {
+        this.rotate();
+        return currentCount + previousCount;
+    }
+
+    /**
+     * Return the latency below which given percentage of samples fall
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in milliseconds, -1 if no samples are known
+     */
+    public synchronized double percentile(double percentile) {
+        this.rotate();
+        long total = currentCount + previousCount;
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += current[i] + previous[i];
+            if (seen >= rank) {
+                return upperBound(i) / 1000.0;
+            }
+        }
+        return upperBound(BUCKETS - 1) / 1000.0;
+    }
+
+    private void rotate() {
+        long now = System.nanoTime();
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        long[] recycled = previous;
+        previous = current;
+        previousCount = currentCount;
+        if (now - windowStart >= 2 * windowNanos) {
+            Arrays.fill(previous, 0);
+            previousCount = 0;
+        }
+        Arrays.fill(recycled, 0);
+        current = recycled;
+        currentCount = 0;
+        windowStart = now;
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int mantissa = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa);
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int mantissa = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + mantissa + 1L) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
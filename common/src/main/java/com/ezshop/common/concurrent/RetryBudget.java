@@ -0,0 +1,82 @@
+package com.ezshop.common.concurrent;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Token bucket which bounds retries to a ratio of the original requests. Every request deposits a fraction
+ * of a token and every retry withdraws a whole one, so retries can never multiply the load on a failing
+ * service. A small number of retries per second is always allowed so low traffic services can still retry
+ *
+ * @author Gary Cheng
+ */
+public class RetryBudget {
+    private final double ratio;
+    private final double minRetriesPerSecond;
+    private final double maxTokens;
+    private double tokens;
+    private double reservedTokens;
+    private long refilledAt;
+    private long deposits;
+    private long withdrawals;
+    private long rejected;
+
+    private RetryBudget(double ratio, double minRetriesPerSecond, double maxTokens) {
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxTokens = maxTokens;
+        this.reservedTokens = minRetriesPerSecond;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Create a retry budget
+     *
+     * @param ratio               the number of retries allowed per request, 0.1 allows one retry every ten requests
+     * @param minRetriesPerSecond the number of retries per second allowed regardless of the ratio
+     * @param maxTokens           the maximum number of retries which can be saved up
+     * @return
+     */
+    public static RetryBudget create(double ratio, double minRetriesPerSecond, double maxTokens) {
+        return new RetryBudget(ratio, minRetriesPerSecond, maxTokens);
+    }
+
+    /**
+     * Record an original request
+     */
+    public synchronized void deposit() {
+        deposits++;
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * Withdraw a token for a retry
+     *
+     * @return true if the retry may be sent
+     */
+    public synchronized boolean tryWithdraw() {
+        long now = System.nanoTime();
+        reservedTokens = Math.min(minRetriesPerSecond, reservedTokens + (now - refilledAt) * minRetriesPerSecond / 1e9);
+        refilledAt = now;
+        if (reservedTokens >= 1) {
+            reservedTokens--;
+        } else if (tokens >= 1) {
+            tokens--;
+        } else {
+            rejected++;
+            return false;
+        }
+        withdrawals++;
+        return true;
+    }
+
+    /**
+     * @return the state of budget
+     */
+    public synchronized JsonObject toJson() {
+        return new JsonObject()
+                .put("tokens", Math.floor(tokens + reservedTokens))
+                .put("deposits", deposits)
+                .put("withdrawals", withdrawals)
+                .put("rejected", rejected);
+    }
+}
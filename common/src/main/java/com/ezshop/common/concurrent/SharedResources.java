@@ -0,0 +1,75 @@
+package com.ezshop.common.concurrent;
+
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.reactivex.core.Vertx;
+
+import java.util.function.Function;
+
+/**
+ * Node wide, reference counted objects shared by all instances of verticles in the same Vert.x instance.
+ * The first instance which acquires a key creates the object, the last one which releases it is told so and
+ * is responsible for closing it
+ *
+ * @author Gary Cheng
+ */
+public class SharedResources<T> {
+    private final LocalMap<String, Holder<T>> resources;
+
+    private SharedResources(Vertx vertx, String name) {
+        this.resources = vertx.getDelegate().sharedData().getLocalMap(name);
+    }
+
+    /**
+     * Return the shared resources of given name
+     *
+     * @param vertx the Vert.x instance
+     * @param name  the name of shared resources
+     * @return
+     */
+    public static <T> SharedResources<T> create(Vertx vertx, String name) {
+        return new SharedResources<>(vertx, name);
+    }
+
+    /**
+     * Acquire a reference to the object of given key, the object is created if no one holds it
+     *
+     * @param key     the key of object
+     * @param factory creates the object
+     * @return the shared object
+     */
+    public T acquire(String key, Function<String, T> factory) {
+        return resources.compute(key, (k, holder) -> {
+            Holder<T> result = null == holder ? new Holder<>(factory.apply(k)) : holder;
+            result.references++;
+            return result;
+        }).value;
+    }
+
+    /**
+     * Release a reference acquired before
+     *
+     * @param key the key of object
+     * @return true if it was the last reference, the object is removed and should be closed by caller
+     */
+    public boolean release(String key) {
+        boolean[] last = new boolean[1];
+        resources.computeIfPresent(key, (k, holder) -> {
+            if (--holder.references > 0) {
+                return holder;
+            }
+            last[0] = true;
+            return null;
+        });
+        return last[0];
+    }
+
+    private static class Holder<T> implements Shareable {
+        private final T value;
+        private int references;
+
+        private Holder(T value) {
+            this.value = value;
+        }
+    }
+}
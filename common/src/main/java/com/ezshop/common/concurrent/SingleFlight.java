@@ -0,0 +1,76 @@
+package com.ezshop.common.concurrent;
+
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Collapse concurrent calls with the same key into one, the first caller starts the call and every caller
+ * which arrives before it completes receives the same result
+ *
+ * @author Gary Cheng
+ */
+public class SingleFlight<T> {
+    private final Map<String, Single<T>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private SingleFlight() {
+    }
+
+    /**
+     * Create a single flight group
+     *
+     * @return
+     */
+    public static <T> SingleFlight<T> create() {
+        return new SingleFlight<>();
+    }
+
+    /**
+     * Execute a call, joining the call already in flight for the same key if there is one
+     *
+     * @param key      the key identifies identical calls
+     * @param supplier supplies the call, only invoked when no call is in flight for the key
+     * @return the shared result
+     */
+    public Single<T> execute(String key, Supplier<Single<T>> supplier) {
+        return Single.defer(() -> {
+            calls.incrementAndGet();
+            boolean[] created = new boolean[1];
+            Single<T> flight = inFlight.computeIfAbsent(key, k -> {
+                created[0] = true;
+                return this.newFlight(k, supplier);
+            });
+            if (!created[0]) {
+                coalesced.incrementAndGet();
+            }
+            return flight;
+        });
+    }
+
+    private Single<T> newFlight(String key, Supplier<Single<T>> supplier) {
+        AtomicReference<Single<T>> self = new AtomicReference<>();
+        // leave the group before the result is emitted, so a caller arriving afterwards starts a new call
+        Single<T> flight = Single.defer(supplier::get)
+                .doOnEvent((result, error) -> inFlight.remove(key, self.get()))
+                .cache();
+        self.set(flight);
+        return flight;
+    }
+
+    /**
+     * @return the counters of single flight group
+     */
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("inFlight", inFlight.size())
+                .put("calls", calls.get())
+                .put("coalesced", coalesced.get());
+    }
+}
@@ -0,0 +1,78 @@
+package com.ezshop.common.concurrent;
+
+/**
+ * Token bucket refilled at a constant rate up to its burst size. Tokens taken elsewhere can be debited from
+ * the bucket, which may then go into debt down to minus its burst size and admits nothing until refilled
+ *
+ * @author Gary Cheng
+ */
+public class TokenBucket {
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    private TokenBucket(double rate, double burst) {
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Create a full token bucket
+     *
+     * @param rate  the number of tokens added per second
+     * @param burst the maximum number of tokens
+     * @return
+     */
+    public static TokenBucket create(double rate, double burst) {
+        return new TokenBucket(rate, burst);
+    }
+
+    /**
+     * Take a token
+     *
+     * @return true if a token was available
+     */
+    public synchronized boolean tryAcquire() {
+        this.refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Remove tokens which were taken elsewhere
+     *
+     * @param count the number of tokens
+     */
+    public synchronized void debit(double count) {
+        this.refill();
+        tokens = Math.max(-burst, tokens - count);
+    }
+
+    /**
+     * @return the number of seconds until a token is available, 0 if one is available now
+     */
+    public synchronized long getRetryAfter() {
+        this.refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate);
+    }
+
+    /**
+     * @return the number of tokens available now
+     */
+    public synchronized long getAvailable() {
+        this.refill();
+        return (long) Math.max(0, Math.floor(tokens));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1e9);
+        refilledAt = now;
+    }
+}
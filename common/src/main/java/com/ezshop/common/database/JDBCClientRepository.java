@@ -1,19 +1,40 @@
 package com.ezshop.common.database;
 
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Single;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.UpdateResult;
 import io.vertx.reactivex.ext.jdbc.JDBCClient;
+import io.vertx.reactivex.ext.sql.SQLRowStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
  * JDBCClientRepository
+ * <p>
+ * Statements with parameters run as prepared statements, which the connection pool caches per connection when
+ * the "max_statements_per_connection" of the database config is set, so repeated statements are not parsed
+ * and planned again by the database
  *
  * @author Gary Cheng
  */
 public class JDBCClientRepository {
+    private static final Logger logger = LoggerFactory.getLogger(JDBCClientRepository.class);
+    private static final int DEFAULT_FETCH_SIZE = 100;
+
     private JDBCClient jdbcClient;
 
     /**
@@ -37,9 +58,155 @@ public class JDBCClientRepository {
      */
     public <R> Single<List<R>> query(String sql, Function<JsonObject, ? extends R> mapper) {
         return jdbcClient.rxGetConnection().flatMap(
-                conn -> jdbcClient.rxQuery(sql)
+                conn -> conn.rxQuery(sql)
+                        .doAfterTerminate(conn::close)
+                        .map(resultSet -> resultSet.getRows().stream().map(mapper::apply).collect(Collectors.toList()))
+        );
+    }
+
+    /**
+     * Execute a single SQL statement with parameters
+     *
+     * @param sql
+     * @param params the values of the "?" in the statement, in order
+     * @param mapper map a jsonObject row to target type
+     * @return
+     */
+    public <R> Single<List<R>> query(String sql, JsonArray params, Function<JsonObject, ? extends R> mapper) {
+        return jdbcClient.rxGetConnection().flatMap(
+                conn -> conn.rxQueryWithParams(sql, params)
                         .doAfterTerminate(conn::close)
                         .map(resultSet -> resultSet.getRows().stream().map(mapper::apply).collect(Collectors.toList()))
         );
     }
+
+    /**
+     * Execute a single insert, update or delete statement with parameters
+     *
+     * @param sql
+     * @param params the values of the "?" in the statement, in order
+     * @return the number of rows updated
+     */
+    public Single<Integer> update(String sql, JsonArray params) {
+        return jdbcClient.rxGetConnection().flatMap(
+                conn -> conn.rxUpdateWithParams(sql, params)
+                        .doAfterTerminate(conn::close)
+                        .map(UpdateResult::getUpdated)
+        );
+    }
+
+    /**
+     * Execute a single SQL statement without parameter and stream the rows, fetched 100 at a time
+     *
+     * @param sql
+     * @param mapper map a jsonObject row to target type
+     * @return
+     */
+    public <R> Flowable<R> queryStream(String sql, Function<JsonObject, ? extends R> mapper) {
+        return this.queryStream(sql, DEFAULT_FETCH_SIZE, mapper);
+    }
+
+    /**
+     * Execute a single SQL statement without parameter and stream the rows. The rows are fetched from the
+     * database in chunks of fetch size as the subscriber requests them, so only about one chunk is held in
+     * memory at a time. The statement runs on one connection which is returned to the pool when the stream
+     * completes, fails or is cancelled
+     *
+     * @param sql
+     * @param fetchSize the number of rows fetched from the database at a time
+     * @param mapper    map a jsonObject row to target type
+     * @return
+     */
+    public <R> Flowable<R> queryStream(String sql, int fetchSize, Function<JsonObject, ? extends R> mapper) {
+        return this.queryStream(sql, null, fetchSize, mapper);
+    }
+
+    /**
+     * Execute a single SQL statement with parameters and stream the rows, as {@link #queryStream(String, int, Function)}
+     *
+     * @param sql
+     * @param params    the values of the "?" in the statement, in order, null if it has none
+     * @param fetchSize the number of rows fetched from the database at a time
+     * @param mapper    map a jsonObject row to target type
+     * @return
+     */
+    public <R> Flowable<R> queryStream(String sql, JsonArray params, int fetchSize, Function<JsonObject, ? extends R> mapper) {
+        return jdbcClient.rxGetConnection().flatMapPublisher(conn -> {
+            AtomicBoolean closed = new AtomicBoolean();
+            AtomicReference<SQLRowStream> openStream = new AtomicReference<>();
+            conn.setOptions(new SQLOptions().setFetchSize(fetchSize));
+            return (null == params ? conn.rxQueryStream(sql) : conn.rxQueryStreamWithParams(sql, params))
+                    .flatMapPublisher(stream -> {
+                        openStream.set(stream);
+                        List<String> columns = stream.columns();
+                        return stream.toFlowable().map(row -> toJsonObject(columns, row));
+                    })
+                    .doOnTerminate(() -> {
+                        // the stream closes its result set once it has ended
+                        if (closed.compareAndSet(false, true)) {
+                            conn.close();
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        SQLRowStream stream = openStream.get();
+                        if (!closed.compareAndSet(false, true)) {
+                            return;
+                        }
+                        if (null == stream) {
+                            conn.close();
+                        } else {
+                            stream.close(ar -> conn.close());
+                        }
+                    })
+                    .map(row -> mapper.apply(row));
+        });
+    }
+
+    /**
+     * Return the state of the connection pools on the node, with their statement caches
+     *
+     * @return the metrics of pools by name
+     */
+    @SuppressWarnings("unchecked")
+    public static JsonObject getDataSourceMetrics() {
+        JsonObject metrics = new JsonObject();
+        for (PooledDataSource dataSource : (Set<PooledDataSource>) C3P0Registry.getPooledDataSources()) {
+            try {
+                metrics.put(dataSource.getDataSourceName(), new JsonObject()
+                        .put("connections", dataSource.getNumConnectionsAllUsers())
+                        .put("busyConnections", dataSource.getNumBusyConnectionsAllUsers())
+                        .put("idleConnections", dataSource.getNumIdleConnectionsAllUsers())
+                        .put("statementCache", new JsonObject()
+                                .put("statements", dataSource.getStatementCacheNumStatementsAllUsers())
+                                .put("checkedOut", dataSource.getStatementCacheNumCheckedOutStatementsAllUsers())
+                                .put("connections", dataSource.getStatementCacheNumConnectionsWithCachedStatementsAllUsers())));
+            } catch (SQLException e) {
+                logger.debug("Failed to get the metrics of data source {}: {}", dataSource.getDataSourceName(), e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
+    private static JsonObject toJsonObject(List<String> columns, JsonArray row) {
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < columns.size(); i++) {
+            json.put(columns.get(i), row.getValue(i));
+        }
+        return json;
+    }
+
+    /**
+     * Open connections ahead of the first queries, they are all held at once so the pool has to create
+     * them and are then returned to the pool
+     *
+     * @param count the number of connections
+     * @return
+     */
+    public Completable openConnections(int count) {
+        return Flowable.range(0, count)
+                .flatMapSingle(i -> jdbcClient.rxGetConnection())
+                .toList()
+                .doOnSuccess(connections -> connections.forEach(conn -> conn.close()))
+                .toCompletable();
+    }
 }
@@ -0,0 +1,59 @@
+package com.ezshop.common.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load balancer which maps request keys onto a hash ring, so the same key keeps hitting the same instance while the
+ * set of instances is stable. Each instance owns a number of virtual nodes proportional to its weight.
+ *
+ * @author Gary Cheng
+ */
+class ConsistentHashLoadBalancer implements LoadBalancer {
+    private static final int VIRTUAL_NODES_PER_WEIGHT = 100;
+
+    private List<ServiceClient> members = new ArrayList<>();
+    private TreeMap<Integer, ServiceClient> ring = new TreeMap<>();
+
+    @Override
+    public synchronized ServiceClient select(List<ServiceClient> clients, String key) {
+        if (null == key) {
+            return clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+        }
+        if (members.size() != clients.size() || !members.containsAll(clients)) {
+            this.buildRing(clients);
+        }
+        Map.Entry<Integer, ServiceClient> entry = ring.ceilingEntry(hash(key));
+        return null == entry ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    private void buildRing(List<ServiceClient> clients) {
+        TreeMap<Integer, ServiceClient> newRing = new TreeMap<>();
+        for (ServiceClient client : clients) {
+            int nodes = client.getWeight() * VIRTUAL_NODES_PER_WEIGHT;
+            for (int i = 0; i < nodes; i++) {
+                newRing.put(hash(client.getRecord().getRegistration() + "#" + i), client);
+            }
+        }
+        this.members = new ArrayList<>(clients);
+        this.ring = newRing;
+    }
+
+    /**
+     * FNV-1a hash with a final avalanche, String.hashCode spreads similar keys poorly around the ring
+     */
+    private static int hash(String key) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -0,0 +1,31 @@
+package com.ezshop.common.discovery;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load balancer which selects the instance with the fewest outstanding requests relative to its weight,
+ * ties are broken in round-robin order
+ *
+ * @author Gary Cheng
+ */
+class LeastOutstandingLoadBalancer implements LoadBalancer {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public ServiceClient select(List<ServiceClient> clients, String key) {
+        int size = clients.size();
+        int start = Math.floorMod(counter.getAndIncrement(), size);
+        ServiceClient selected = null;
+        double lowest = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            ServiceClient client = clients.get((start + i) % size);
+            double load = (double) client.getOutstanding() / client.getWeight();
+            if (load < lowest) {
+                lowest = load;
+                selected = client;
+            }
+        }
+        return selected;
+    }
+}
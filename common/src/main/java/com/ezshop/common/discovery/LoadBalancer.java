@@ -0,0 +1,45 @@
+package com.ezshop.common.discovery;
+
+import java.util.List;
+
+/**
+ * The strategy which selects one instance among the published instances of a service
+ *
+ * @author Gary Cheng
+ */
+public interface LoadBalancer {
+    String ROUND_ROBIN = "round-robin";
+    String LEAST_OUTSTANDING = "least-outstanding";
+    String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+    String CONSISTENT_HASH = "consistent-hash";
+
+    /**
+     * Create a load balancer by strategy name
+     *
+     * @param strategy the name of strategy
+     * @return
+     */
+    static LoadBalancer create(String strategy) {
+        switch (strategy) {
+            case ROUND_ROBIN:
+                return new RoundRobinLoadBalancer();
+            case LEAST_OUTSTANDING:
+                return new LeastOutstandingLoadBalancer();
+            case POWER_OF_TWO_CHOICES:
+                return new PowerOfTwoChoicesLoadBalancer();
+            case CONSISTENT_HASH:
+                return new ConsistentHashLoadBalancer();
+            default:
+                throw new IllegalArgumentException("Unknown load balancing strategy:" + strategy);
+        }
+    }
+
+    /**
+     * Select one instance
+     *
+     * @param clients the clients of published instances, never empty
+     * @param key     the request key used by affinity based strategies, may be null
+     * @return the selected client
+     */
+    ServiceClient select(List<ServiceClient> clients, String key);
+}
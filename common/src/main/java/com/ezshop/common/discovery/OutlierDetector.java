@@ -0,0 +1,247 @@
+package com.ezshop.common.discovery;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ezshop.common.ConfigKeys.*;
+
+/**
+ * Detects the instances of a service which fail while their peers do not, and ejects them from the set the
+ * load balancer selects from. An instance is ejected after a number of consecutive failed calls, a call fails
+ * when it gets no response, a 5xx response, or takes longer than the slow call duration. The outcomes of
+ * requests and of the active health probes count alike.
+ * <p>
+ * The first ejection lasts the base ejection time and every following one twice as long as the previous, up to
+ * the max ejection time. An instance whose probes still fail when its ejection ends is ejected again right away,
+ * one which stays healthy as long as it was last ejected starts over from the base ejection time. No more than
+ * the max ejection percent of the instances is left out, so the only instance of a service is never ejected
+ * and a failing service is left to its circuit breaker
+ *
+ * @author Gary Cheng
+ */
+public class OutlierDetector {
+    private static final Logger logger = LoggerFactory.getLogger(OutlierDetector.class);
+    private static final int DEFAULT_CONSECUTIVE_FAILURES = 5;
+    private static final long DEFAULT_BASE_EJECTION_TIME = 30000;
+    private static final long DEFAULT_MAX_EJECTION_TIME = 300000;
+    private static final int DEFAULT_MAX_EJECTION_PERCENT = 50;
+    private static final String DEFAULT_HEALTH_CHECK_PATH = "/";
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL = 5000;
+    private static final long DEFAULT_HEALTH_CHECK_TIMEOUT = 1000;
+
+    private final boolean enabled;
+    private final int consecutiveFailures;
+    private final long slowCallDuration;
+    private final long baseEjectionTime;
+    private final long maxEjectionTime;
+    private final int maxEjectionPercent;
+    private final boolean healthCheckEnabled;
+    private final String healthCheckPath;
+    private final long healthCheckInterval;
+    private final long healthCheckTimeout;
+    private final Map<String, InstanceState> states = new ConcurrentHashMap<>();
+    private final AtomicLong ejections = new AtomicLong();
+
+    private OutlierDetector(JsonObject config) {
+        JsonObject healthCheckConfig = config.getJsonObject(KEY_HEALTH_CHECK, new JsonObject());
+        this.enabled = config.getBoolean(KEY_ENABLED, false);
+        this.consecutiveFailures = config.getInteger(KEY_CONSECUTIVE_FAILURES, DEFAULT_CONSECUTIVE_FAILURES);
+        this.slowCallDuration = TimeUnit.MILLISECONDS.toNanos(config.getLong(KEY_SLOW_CALL_DURATION, 0L));
+        this.baseEjectionTime = config.getLong(KEY_BASE_EJECTION_TIME, DEFAULT_BASE_EJECTION_TIME);
+        this.maxEjectionTime = Math.max(baseEjectionTime, config.getLong(KEY_MAX_EJECTION_TIME, DEFAULT_MAX_EJECTION_TIME));
+        this.maxEjectionPercent = config.getInteger(KEY_MAX_EJECTION_PERCENT, DEFAULT_MAX_EJECTION_PERCENT);
+        this.healthCheckEnabled = enabled && healthCheckConfig.getBoolean(KEY_ENABLED, false);
+        this.healthCheckPath = healthCheckConfig.getString(KEY_PATH, DEFAULT_HEALTH_CHECK_PATH);
+        this.healthCheckInterval = healthCheckConfig.getLong(KEY_INTERVAL, DEFAULT_HEALTH_CHECK_INTERVAL);
+        this.healthCheckTimeout = healthCheckConfig.getLong(KEY_TIMEOUT, DEFAULT_HEALTH_CHECK_TIMEOUT);
+    }
+
+    /**
+     * Create an outlier detector from the "outlierDetection" config of a service
+     *
+     * @param config the config, the detector does nothing unless "enabled" is true
+     * @return
+     */
+    public static OutlierDetector fromJson(JsonObject config) {
+        return new OutlierDetector(null == config ? new JsonObject() : config);
+    }
+
+    /**
+     * Record the outcome of a call to an instance
+     *
+     * @param registration the registration id of instance
+     * @param failed       true if the call got no response or a 5xx response
+     * @param latencyNanos the duration of call in nanoseconds
+     */
+    public void record(String registration, boolean failed, long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        boolean slow = slowCallDuration > 0 && latencyNanos >= slowCallDuration;
+        states.computeIfAbsent(registration, InstanceState::new).record(failed || slow, System.currentTimeMillis());
+    }
+
+    /**
+     * @param registration the registration id of instance
+     * @return true if the instance is ejected now
+     */
+    public boolean isEjected(String registration) {
+        InstanceState state = states.get(registration);
+        return null != state && state.isEjected(System.currentTimeMillis());
+    }
+
+    /**
+     * Return the clients of the instances which are not ejected, when more instances are ejected than the max
+     * ejection percent allows, those whose ejection ends first are kept
+     *
+     * @param clients the clients of the published instances of service
+     * @return
+     */
+    public List<ServiceClient> select(List<ServiceClient> clients) {
+        if (!enabled || states.isEmpty()) {
+            return clients;
+        }
+        long now = System.currentTimeMillis();
+        List<ServiceClient> selected = new ArrayList<>(clients.size());
+        List<ServiceClient> ejected = new ArrayList<>();
+        for (ServiceClient client : clients) {
+            InstanceState state = states.get(client.getRecord().getRegistration());
+            if (null != state && state.isEjected(now)) {
+                ejected.add(client);
+            } else {
+                selected.add(client);
+            }
+        }
+        int readmitted = ejected.size() - clients.size() * maxEjectionPercent / 100;
+        if (readmitted > 0) {
+            ejected.sort(Comparator.comparingLong(client -> states.get(client.getRecord().getRegistration()).ejectedUntil));
+            selected.addAll(ejected.subList(0, readmitted));
+        }
+        return selected;
+    }
+
+    /**
+     * Claim the next health probe of an instance, so it is probed once per interval however many clients
+     * on the node share the detector
+     *
+     * @param registration the registration id of instance
+     * @return true if the caller should probe the instance now
+     */
+    boolean claimProbe(String registration) {
+        if (!healthCheckEnabled) {
+            return false;
+        }
+        return states.computeIfAbsent(registration, InstanceState::new).claimProbe(System.currentTimeMillis());
+    }
+
+    /**
+     * Forget the state of an instance which is no longer published
+     *
+     * @param registration the registration id of instance
+     */
+    void forget(String registration) {
+        states.remove(registration);
+    }
+
+    /**
+     * @return the path which health probes request
+     */
+    public String getHealthCheckPath() {
+        return healthCheckPath;
+    }
+
+    /**
+     * @return the timeout of health probes in milliseconds
+     */
+    public long getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    /**
+     * @return the state of detector
+     */
+    public JsonObject toJson() {
+        long now = System.currentTimeMillis();
+        JsonArray instances = new JsonArray();
+        states.forEach((registration, state) -> instances.add(state.toJson(now).put("registration", registration)));
+        return new JsonObject()
+                .put("enabled", enabled)
+                .put("ejections", ejections.get())
+                .put("instances", instances);
+    }
+
+    private class InstanceState {
+        private final String registration;
+        private int failures;
+        private int ejectionCount;
+        private long ejectedUntil;
+        private long ejectionTime;
+        private long probedAt;
+
+        private InstanceState(String registration) {
+            this.registration = registration;
+        }
+
+        private synchronized void record(boolean failed, long now) {
+            if (!failed) {
+                failures = 0;
+                if (ejectionCount > 0 && now >= ejectedUntil + ejectionTime) {
+                    // healthy for as long as it was last ejected
+                    ejectionCount = 0;
+                }
+                return;
+            }
+            failures++;
+            if (now >= ejectedUntil) {
+                this.ejectIfFailing(now);
+            }
+        }
+
+        private synchronized boolean isEjected(long now) {
+            if (now < ejectedUntil) {
+                return true;
+            }
+            // an instance whose probes kept failing while it was out goes straight back out
+            return ejectedUntil > 0 && this.ejectIfFailing(now);
+        }
+
+        private boolean ejectIfFailing(long now) {
+            if (consecutiveFailures <= 0 || failures < consecutiveFailures) {
+                return false;
+            }
+            ejectionCount++;
+            ejectionTime = Math.min(maxEjectionTime, baseEjectionTime << Math.min(ejectionCount - 1, 30));
+            ejectedUntil = now + ejectionTime;
+            failures = 0;
+            ejections.incrementAndGet();
+            logger.debug("Instance {} ejected for {}ms, ejection {}", registration, ejectionTime, ejectionCount);
+            return true;
+        }
+
+        private synchronized boolean claimProbe(long now) {
+            if (now - probedAt < healthCheckInterval) {
+                return false;
+            }
+            probedAt = now;
+            return true;
+        }
+
+        private synchronized JsonObject toJson(long now) {
+            return new JsonObject()
+                    .put("ejected", now < ejectedUntil)
+                    .put("ejectedFor", Math.max(0, ejectedUntil - now))
+                    .put("consecutiveFailures", failures)
+                    .put("ejections", ejectionCount);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.ezshop.common.discovery;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load balancer which picks two instances at random, in proportion to their weights, and selects the one with
+ * the lower observed latency multiplied by its outstanding requests
+ *
+ * @author Gary Cheng
+ */
+class PowerOfTwoChoicesLoadBalancer implements LoadBalancer {
+
+    @Override
+    public ServiceClient select(List<ServiceClient> clients, String key) {
+        if (clients.size() == 1) {
+            return clients.get(0);
+        }
+        ServiceClient first = this.pick(clients, null);
+        ServiceClient second = this.pick(clients, first);
+        return this.cost(first) <= this.cost(second) ? first : second;
+    }
+
+    private ServiceClient pick(List<ServiceClient> clients, ServiceClient excluded) {
+        int totalWeight = 0;
+        for (ServiceClient client : clients) {
+            if (client != excluded) {
+                totalWeight += client.getWeight();
+            }
+        }
+        int position = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (ServiceClient client : clients) {
+            if (client != excluded) {
+                position -= client.getWeight();
+                if (position < 0) {
+                    return client;
+                }
+            }
+        }
+        return clients.get(0);
+    }
+
+    private double cost(ServiceClient client) {
+        return client.getLatency() * (client.getOutstanding() + 1) / client.getWeight();
+    }
+}
@@ -0,0 +1,29 @@
+package com.ezshop.common.discovery;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Weighted round-robin load balancer, each instance receives a share of requests proportional to its weight
+ *
+ * @author Gary Cheng
+ */
+class RoundRobinLoadBalancer implements LoadBalancer {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public ServiceClient select(List<ServiceClient> clients, String key) {
+        int totalWeight = 0;
+        for (ServiceClient client : clients) {
+            totalWeight += client.getWeight();
+        }
+        int position = Math.floorMod(counter.getAndIncrement(), totalWeight);
+        for (ServiceClient client : clients) {
+            position -= client.getWeight();
+            if (position < 0) {
+                return client;
+            }
+        }
+        return clients.get(0);
+    }
+}
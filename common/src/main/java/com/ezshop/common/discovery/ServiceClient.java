@@ -0,0 +1,260 @@
+package com.ezshop.common.discovery;
+
+import com.ezshop.common.HttpResponseCodes;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.http.HttpClient;
+import io.vertx.reactivex.ext.web.client.WebClient;
+import io.vertx.reactivex.servicediscovery.ServiceReference;
+import io.vertx.servicediscovery.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The clients bound to one published instance of a HttpEndPoint service, the HttpClient and WebClient
+ * share a single connection pool. It also keeps the load statistics used by load balancers.
+ * <p>
+ * The pool does not expose its state, so its occupancy and wait queue depth are derived from the requests
+ * in flight and the capacity of pool, the number of requests it can carry at once. The outcomes of requests
+ * are reported to the {@link OutlierDetector} of service
+ *
+ * @author Gary Cheng
+ */
+public class ServiceClient {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceClient.class);
+    public static final String PROTOCOL_HTTP_1_1 = "http/1.1";
+    public static final String PROTOCOL_H2C = "h2c";
+    private static final String KEY_WEIGHT = "weight";
+    private static final String KEY_PROTOCOL = "protocol";
+    private static final double LATENCY_DECAY = 0.3;
+
+    private final Record record;
+    private final ServiceReference reference;
+    private final HttpClient httpClient;
+    private final WebClient webClient;
+    private final int weight;
+    private final String protocol;
+    private final int capacity;
+    private final OutlierDetector outlierDetector;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger peakOutstanding = new AtomicInteger();
+    private volatile double latency;
+
+    ServiceClient(Record record, ServiceReference reference, HttpClient httpClient, WebClient webClient) {
+        this(record, reference, httpClient, webClient, 0, null);
+    }
+
+    ServiceClient(Record record, ServiceReference reference, HttpClient httpClient, WebClient webClient, int capacity,
+                  OutlierDetector outlierDetector) {
+        this.record = record;
+        this.reference = reference;
+        this.httpClient = httpClient;
+        this.webClient = webClient;
+        this.weight = Math.max(1, null == record.getMetadata() ? 1 : record.getMetadata().getInteger(KEY_WEIGHT, 1));
+        this.protocol = protocolOf(record);
+        this.capacity = capacity;
+        this.outlierDetector = outlierDetector;
+    }
+
+    /**
+     * Return the protocol spoken by a service instance, read from the "protocol" metadata of its record.
+     * Records published without it are HTTP/1.1
+     *
+     * @param record the discovery record of service instance
+     * @return
+     */
+    public static String protocolOf(Record record) {
+        return null == record.getMetadata() ? PROTOCOL_HTTP_1_1 : record.getMetadata().getString(KEY_PROTOCOL, PROTOCOL_HTTP_1_1);
+    }
+
+    static ServiceClient create(ServiceReference reference, int capacity, OutlierDetector outlierDetector) {
+        HttpClient httpClient = HttpClient.newInstance(reference.getDelegate().getAs(io.vertx.core.http.HttpClient.class));
+        return new ServiceClient(reference.record(), reference, httpClient, WebClient.wrap(httpClient), capacity, outlierDetector);
+    }
+
+    /**
+     * Return the discovery record of the service instance
+     *
+     * @return
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * Return the pooled HttpClient of the service instance
+     *
+     * @return
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Return the pooled WebClient of the service instance
+     *
+     * @return
+     */
+    public WebClient getWebClient() {
+        return webClient;
+    }
+
+    /**
+     * Return the protocol spoken by the service instance
+     *
+     * @return
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Return the weight of the service instance, read from the "weight" metadata of its record
+     *
+     * @return
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Return the number of requests sent to the instance which are not completed yet
+     *
+     * @return
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Return the exponentially weighted moving average of response latency in milliseconds, 0 before the first response
+     *
+     * @return
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Mark a request to the instance as started
+     *
+     * @return the start time to pass to {@link #requestCompleted(long)}
+     */
+    public long requestStarted() {
+        int current = outstanding.incrementAndGet();
+        peakOutstanding.accumulateAndGet(current, Math::max);
+        return System.nanoTime();
+    }
+
+    /**
+     * Mark a request to the instance as completed and record its latency
+     *
+     * @param startTime the value returned by {@link #requestStarted()}
+     */
+    public void requestCompleted(long startTime) {
+        outstanding.decrementAndGet();
+        double sample = (double) (System.nanoTime() - startTime) / TimeUnit.MILLISECONDS.toNanos(1);
+        double current = latency;
+        latency = current == 0 ? sample : current + LATENCY_DECAY * (sample - current);
+    }
+
+    /**
+     * Mark a request to the instance as completed, record its latency and report its outcome to the outlier detector
+     *
+     * @param startTime the value returned by {@link #requestStarted()}
+     * @param failed    true if the request got no response or a 5xx response
+     */
+    public void requestCompleted(long startTime, boolean failed) {
+        this.requestCompleted(startTime);
+        if (null != outlierDetector) {
+            outlierDetector.record(record.getRegistration(), failed, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Return whether the instance is ejected from load balancing by the outlier detector
+     *
+     * @return
+     */
+    public boolean isEjected() {
+        return null != outlierDetector && outlierDetector.isEjected(record.getRegistration());
+    }
+
+    OutlierDetector getOutlierDetector() {
+        return outlierDetector;
+    }
+
+    /**
+     * Open connections to the instance ahead of the first requests, by sending as many concurrent HEAD requests
+     *
+     * @param connections the number of connections to open
+     * @param path        the path of requests
+     */
+    void prewarm(int connections, String path) {
+        logger.debug("Pre-warm {} connections to service {} at {}", connections, record.getName(), record.getLocation());
+        for (int i = 0; i < connections; i++) {
+            httpClient.getDelegate().request(HttpMethod.HEAD, path, response -> response.exceptionHandler(throwable -> {
+            }).endHandler(v -> {
+            }))
+                    .exceptionHandler(throwable -> logger.debug("Failed to pre-warm service {}: {}", record.getName(), throwable.getMessage()))
+                    .end();
+        }
+    }
+
+    /**
+     * Probe the health of instance with a GET request, the instance is healthy if it answers with a status
+     * below 500 within the timeout. The outcome is reported to the outlier detector like that of a request
+     *
+     * @param path    the path of request
+     * @param timeout the timeout of request in milliseconds
+     */
+    void probe(String path, long timeout) {
+        long startTime = System.nanoTime();
+        boolean[] completed = new boolean[1];
+        Handler<Boolean> outcomeHandler = failed -> {
+            if (!completed[0]) {
+                completed[0] = true;
+                outlierDetector.record(record.getRegistration(), failed, System.nanoTime() - startTime);
+            }
+        };
+        httpClient.getDelegate().request(HttpMethod.GET, path, response -> response.exceptionHandler(throwable -> outcomeHandler.handle(true))
+                .bodyHandler(body -> outcomeHandler.handle(response.statusCode() >= HttpResponseCodes.SC_INTERNAL_SERVER_ERROR)))
+                .exceptionHandler(throwable -> {
+                    logger.debug("Health probe of service {} at {} failed: {}", record.getName(), record.getLocation(), throwable.getMessage());
+                    outcomeHandler.handle(true);
+                })
+                .setTimeout(timeout)
+                .end();
+    }
+
+    /**
+     * Return the state of pool, "capacity" is 0 when the pool is not bounded by the client
+     *
+     * @return
+     */
+    public JsonObject toJson() {
+        int inFlight = outstanding.get();
+        int peakInFlight = peakOutstanding.get();
+        JsonObject json = new JsonObject()
+                .put("registration", record.getRegistration())
+                .put("protocol", protocol)
+                .put("capacity", capacity)
+                .put("inFlight", inFlight)
+                .put("peakInFlight", peakInFlight)
+                .put("ejected", this.isEjected());
+        if (capacity > 0) {
+            json.put("occupancy", Math.min(inFlight, capacity))
+                    .put("queued", Math.max(0, inFlight - capacity))
+                    .put("peakQueued", Math.max(0, peakInFlight - capacity));
+        }
+        return json;
+    }
+
+    ServiceReference getReference() {
+        return reference;
+    }
+}
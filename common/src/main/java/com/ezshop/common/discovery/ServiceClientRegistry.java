@@ -0,0 +1,225 @@
+package com.ezshop.common.discovery;
+
+import io.reactivex.Single;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.ext.web.client.WebClient;
+import io.vertx.reactivex.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.ezshop.common.ConfigKeys.KEY_PREWARM_CONNECTIONS;
+import static com.ezshop.common.ConfigKeys.KEY_PREWARM_PATH;
+
+/**
+ * The registry which keeps one pooled client per discovered service instance, clients are reused across requests
+ * and released through service discovery once the instance changed or went away. Instances are resolved from
+ * the local {@link ServiceRecordCache}. Each client speaks the protocol announced in the record of its instance,
+ * so HTTP/1.1 and h2c instances of the same service can be mixed.
+ * <p>
+ * When "prewarmConnections" is configured for a service, the pool of an instance announced after start is
+ * connected right away, so the first requests routed to it do not pay for the connection setup.
+ * <p>
+ * The instances ejected by the {@link OutlierDetector} of a service are left out of its clients, and the
+ * instances of services with an active health check are probed by the registry
+ *
+ * @author Gary Cheng
+ */
+public class ServiceClientRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceClientRegistry.class);
+    private static final String DEFAULT_PREWARM_PATH = "/";
+    private static final long HEALTH_CHECK_TICK = 1000;
+
+    private final Vertx vertx;
+    private final ServiceDiscovery discovery;
+    private final Map<String, ServiceClient> serviceClients = new ConcurrentHashMap<>();
+    private final Map<String, WebClient> hostClients = new ConcurrentHashMap<>();
+    private final ServiceRecordCache recordCache;
+    private final Function<String, JsonObject> clientConfig;
+    private final Function<String, OutlierDetector> outlierDetectors;
+    private final long healthCheckTimerId;
+
+    private ServiceClientRegistry(Vertx vertx, ServiceDiscovery discovery, ServiceRecordCache recordCache,
+                                  Function<String, JsonObject> clientConfig, Function<String, OutlierDetector> outlierDetectors) {
+        this.vertx = vertx;
+        this.discovery = discovery;
+        this.clientConfig = clientConfig;
+        this.outlierDetectors = outlierDetectors;
+        this.recordCache = recordCache.changeHandler(this::onRecordChanged);
+        this.healthCheckTimerId = vertx.setPeriodic(HEALTH_CHECK_TICK, id -> this.probeInstances());
+    }
+
+    /**
+     * Create a client registry on top of given service discovery
+     *
+     * @param vertx       the vertx instance
+     * @param discovery   the service discovery
+     * @param recordCache  the local snapshot of published records
+     * @param clientConfig returns the HttpClientOptions in JSON by service name, clients of given host and port
+     *                     are configured as service "host:port"
+     * @param outlierDetectors returns the outlier detector by service name
+     * @return
+     */
+    public static ServiceClientRegistry create(Vertx vertx, ServiceDiscovery discovery, ServiceRecordCache recordCache,
+                                               Function<String, JsonObject> clientConfig, Function<String, OutlierDetector> outlierDetectors) {
+        return new ServiceClientRegistry(vertx, discovery, recordCache, clientConfig, outlierDetectors);
+    }
+
+    /**
+     * Return the clients of the published instances by service name, except those which are ejected
+     *
+     * @param serviceName the name of service
+     * @return
+     */
+    public Single<List<ServiceClient>> getClients(String serviceName) {
+        return recordCache.getRecords(serviceName).map(records -> outlierDetectors.apply(serviceName)
+                .select(records.stream().map(this::getClient).collect(Collectors.toList())));
+    }
+
+    /**
+     * Return the client of given service instance, the client is created on first use
+     *
+     * @param record the discovery record of service instance
+     * @return
+     */
+    public ServiceClient getClient(Record record) {
+        return serviceClients.computeIfAbsent(record.getRegistration(), registration -> {
+            logger.debug("Create client for service {}, registration:{}", record.getName(), registration);
+            JsonObject options = this.clientOptions(record);
+            return ServiceClient.create(discovery.getReferenceWithConfiguration(record, options),
+                    capacityOf(record, new HttpClientOptions(options)), outlierDetectors.apply(record.getName()));
+        });
+    }
+
+    /**
+     * Return the number of requests the pool of an instance carries at once, 0 if it is not bounded by the client
+     */
+    private static int capacityOf(Record record, HttpClientOptions options) {
+        if (ServiceClient.PROTOCOL_H2C.equals(ServiceClient.protocolOf(record))) {
+            // the streams of a connection are otherwise bounded by the server only
+            return options.getHttp2MultiplexingLimit() > 0 ? options.getHttp2MaxPoolSize() * options.getHttp2MultiplexingLimit() : 0;
+        }
+        return options.getMaxPoolSize() * (options.isPipelining() ? options.getPipeliningLimit() : 1);
+    }
+
+    private JsonObject clientOptions(Record record) {
+        JsonObject options = clientConfig.apply(record.getName()).copy();
+        options.remove(KEY_PREWARM_CONNECTIONS);
+        options.remove(KEY_PREWARM_PATH);
+        if (ServiceClient.PROTOCOL_H2C.equals(ServiceClient.protocolOf(record))) {
+            // the instance announced h2c, talk HTTP/2 with prior knowledge instead of upgrading every connection
+            options.put("protocolVersion", HttpVersion.HTTP_2.name()).put("http2ClearTextUpgrade", false);
+        } else {
+            options.put("protocolVersion", HttpVersion.HTTP_1_1.name());
+        }
+        return options;
+    }
+
+    /**
+     * Return the WebClient of given host and port, the client is created on first use
+     *
+     * @param host the host of EndPoint
+     * @param port the port of EndPoint
+     * @return
+     */
+    public WebClient getWebClient(String host, int port) {
+        return hostClients.computeIfAbsent(host + ":" + port, key -> {
+            logger.debug("Create client for {}", key);
+            return WebClient.create(vertx, new WebClientOptions(clientConfig.apply(key)).setDefaultHost(host).setDefaultPort(port));
+        });
+    }
+
+    /**
+     * Release the client of a service instance, the next lookup creates a new one
+     *
+     * @param registration the registration id of service instance
+     */
+    public void invalidate(String registration) {
+        ServiceClient client = serviceClients.remove(registration);
+        if (null != client) {
+            logger.debug("Release client of service {}, registration:{}", client.getRecord().getName(), registration);
+            discovery.release(client.getReference());
+        }
+    }
+
+    /**
+     * Return the pool state of the clients by service name
+     *
+     * @return
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        serviceClients.values().forEach(client -> {
+            String serviceName = client.getRecord().getName();
+            if (!json.containsKey(serviceName)) {
+                json.put(serviceName, new JsonArray());
+            }
+            json.getJsonArray(serviceName).add(client.toJson());
+        });
+        return json;
+    }
+
+    /**
+     * Release all clients
+     */
+    public void close() {
+        vertx.cancelTimer(healthCheckTimerId);
+        serviceClients.keySet().forEach(this::invalidate);
+        hostClients.values().forEach(WebClient::close);
+        hostClients.clear();
+    }
+
+    private void onRecordChanged(Record record) {
+        ServiceClient client = serviceClients.get(record.getRegistration());
+        if (null != client && (record.getStatus() != Status.UP
+                || !record.getLocation().equals(client.getRecord().getLocation())
+                || !ServiceClient.protocolOf(record).equals(client.getProtocol()))) {
+            this.invalidate(record.getRegistration());
+            client.getOutlierDetector().forget(record.getRegistration());
+            client = null;
+        }
+        if (null == client && record.getStatus() == Status.UP) {
+            this.prewarm(record);
+        }
+    }
+
+    /**
+     * Probe the instances whose probe is due, each instance is probed once per interval on the node
+     */
+    private void probeInstances() {
+        serviceClients.values().forEach(client -> {
+            OutlierDetector outlierDetector = client.getOutlierDetector();
+            if (outlierDetector.claimProbe(client.getRecord().getRegistration())) {
+                client.probe(outlierDetector.getHealthCheckPath(), outlierDetector.getHealthCheckTimeout());
+            }
+        });
+    }
+
+    private void prewarm(Record record) {
+        JsonObject config = clientConfig.apply(record.getName());
+        int connections = config.getInteger(KEY_PREWARM_CONNECTIONS, 0);
+        if (connections <= 0) {
+            return;
+        }
+        if (!ServiceClient.PROTOCOL_H2C.equals(ServiceClient.protocolOf(record))) {
+            // the HttpClient closes an idle HTTP/1.1 connection as soon as no request waits for it, only HTTP/2
+            // connections stay open in the pool until their idle timeout
+            logger.debug("Skip pre-warming HTTP/1.1 service {}", record.getName());
+            return;
+        }
+        HttpClientOptions options = new HttpClientOptions(this.clientOptions(record));
+        this.getClient(record).prewarm(Math.min(connections, options.getHttp2MaxPoolSize()), config.getString(KEY_PREWARM_PATH, DEFAULT_PREWARM_PATH));
+    }
+}
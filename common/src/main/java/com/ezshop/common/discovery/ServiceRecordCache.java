@@ -0,0 +1,195 @@
+package com.ezshop.common.discovery;
+
+import io.reactivex.Single;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.eventbus.MessageConsumer;
+import io.vertx.reactivex.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process snapshot of the published records, indexed by service name. The snapshot follows the discovery
+ * announcements and is fully re-synchronized periodically in case an announcement was missed, so lookups never
+ * leave the process once the first synchronization completed.
+ *
+ * @author Gary Cheng
+ */
+public class ServiceRecordCache {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceRecordCache.class);
+    private static final String KEY_NAME = "name";
+
+    private final ServiceDiscovery discovery;
+    private final Map<String, List<Record>> recordsByName = new ConcurrentHashMap<>();
+    private final MessageConsumer<JsonObject> announceConsumer;
+    private final Vertx vertx;
+    private final long resyncTimerId;
+    private Handler<Record> changeHandler = record -> {
+    };
+    private volatile boolean synced;
+    private List<Record> pendingAnnouncements;
+    private boolean resyncRequested;
+
+    private ServiceRecordCache(Vertx vertx, ServiceDiscovery discovery, long resyncInterval) {
+        this.vertx = vertx;
+        this.discovery = discovery;
+        this.announceConsumer = vertx.eventBus().consumer(discovery.options().getAnnounceAddress(),
+                message -> this.onAnnounce(new Record(message.body())));
+        this.resyncTimerId = vertx.setPeriodic(resyncInterval, id -> this.resync());
+        this.resync();
+    }
+
+    /**
+     * Create a record cache on top of given service discovery
+     *
+     * @param vertx          the vertx instance
+     * @param discovery      the service discovery
+     * @param resyncInterval the interval of full re-synchronization in milliseconds
+     * @return
+     */
+    public static ServiceRecordCache create(Vertx vertx, ServiceDiscovery discovery, long resyncInterval) {
+        return new ServiceRecordCache(vertx, discovery, resyncInterval);
+    }
+
+    /**
+     * Set the handler called with the new state of a record when it was announced, changed or removed
+     *
+     * @param changeHandler the handler
+     * @return
+     */
+    public ServiceRecordCache changeHandler(Handler<Record> changeHandler) {
+        this.changeHandler = changeHandler;
+        return this;
+    }
+
+    /**
+     * Return the published records of a service, served from the snapshot once it is synchronized
+     *
+     * @param serviceName the name of service
+     * @return
+     */
+    public Single<List<Record>> getRecords(String serviceName) {
+        if (synced) {
+            return Single.just(recordsByName.getOrDefault(serviceName, Collections.emptyList()));
+        }
+        return discovery.rxGetRecords(new JsonObject().put(KEY_NAME, serviceName));
+    }
+
+    /**
+     * Stop following the announcements
+     */
+    public void close() {
+        vertx.cancelTimer(resyncTimerId);
+        announceConsumer.unregister();
+    }
+
+    private void onAnnounce(Record record) {
+        if (null == record.getName()) {
+            return;
+        }
+        if (null == record.getRegistration()) {
+            // the announcement of a new record does not carry its registration, read it from the backend
+            this.requestResync();
+            return;
+        }
+        if (null != pendingAnnouncements) {
+            // a re-synchronization is in flight, replay the announcement on top of its result
+            pendingAnnouncements.add(record);
+        }
+        this.apply(record);
+    }
+
+    private void apply(Record record) {
+        List<Record> current = recordsByName.getOrDefault(record.getName(), Collections.emptyList());
+        List<Record> updated = new ArrayList<>(current.size() + 1);
+        Record previous = null;
+        for (Record r : current) {
+            if (r.getRegistration().equals(record.getRegistration())) {
+                previous = r;
+            } else {
+                updated.add(r);
+            }
+        }
+        if (record.getStatus() == Status.UP) {
+            updated.add(record);
+        }
+        this.putRecords(record.getName(), updated);
+        if (null != previous || record.getStatus() == Status.UP) {
+            changeHandler.handle(record);
+        }
+    }
+
+    private void requestResync() {
+        if (null != pendingAnnouncements) {
+            resyncRequested = true;
+        } else {
+            this.resync();
+        }
+    }
+
+    private void resync() {
+        if (null != pendingAnnouncements) {
+            return;
+        }
+        pendingAnnouncements = new ArrayList<>();
+        discovery.rxGetRecords(record -> true).subscribe(records -> {
+            Map<String, List<Record>> snapshot = new HashMap<>();
+            records.forEach(record -> snapshot.computeIfAbsent(record.getName(), name -> new ArrayList<>()).add(record));
+            List<Record> added = new ArrayList<>();
+            if (synced) {
+                snapshot.forEach((name, current) -> current.forEach(record -> {
+                    if (recordsByName.getOrDefault(name, Collections.emptyList()).stream()
+                            .noneMatch(r -> r.getRegistration().equals(record.getRegistration()))) {
+                        added.add(record);
+                    }
+                }));
+            }
+            List<Record> removed = new ArrayList<>();
+            recordsByName.forEach((name, current) -> current.forEach(record -> {
+                if (snapshot.getOrDefault(name, Collections.emptyList()).stream()
+                        .noneMatch(r -> r.getRegistration().equals(record.getRegistration()) && r.getLocation().equals(record.getLocation()))) {
+                    removed.add(record);
+                }
+            }));
+            recordsByName.keySet().retainAll(snapshot.keySet());
+            snapshot.forEach(this::putRecords);
+            List<Record> announcements = pendingAnnouncements;
+            pendingAnnouncements = null;
+            announcements.forEach(this::apply);
+            synced = true;
+            removed.forEach(record -> changeHandler.handle(new Record(record).setStatus(Status.DOWN)));
+            added.forEach(changeHandler::handle);
+            logger.debug("Service records re-synchronized, {} records", records.size());
+            this.resyncRequested();
+        }, throwable -> {
+            pendingAnnouncements = null;
+            logger.debug("Failed to re-synchronize service records:{}", throwable.getMessage());
+            this.resyncRequested();
+        });
+    }
+
+    private void resyncRequested() {
+        if (resyncRequested) {
+            resyncRequested = false;
+            this.resync();
+        }
+    }
+
+    private void putRecords(String serviceName, List<Record> records) {
+        if (records.isEmpty()) {
+            recordsByName.remove(serviceName);
+        } else {
+            recordsByName.put(serviceName, Collections.unmodifiableList(records));
+        }
+    }
+}
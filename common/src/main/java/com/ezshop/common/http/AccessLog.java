@@ -0,0 +1,216 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured access log written by a background thread. Request threads copy the fields of a record into a
+ * preallocated slot of a bounded ring buffer, which takes a compare and set and a few stores and never blocks.
+ * The writer thread encodes the records as JSON lines to the "com.ezshop.access" logger, it parks while the
+ * buffer is empty and the producer of the next record wakes it up. When the writer falls behind and the buffer
+ * is full, new records are dropped and counted rather than waited for
+ *
+ * @author Gary Cheng
+ */
+public class AccessLog {
+    private static final Logger accessLogger = LoggerFactory.getLogger("com.ezshop.access");
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Entry[] entries;
+    // the sequence a slot expects next, a producer may fill it when it equals the claimed position and the
+    // writer may read it when it is one past, the slot is handed back one lap later
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile long head;
+    private volatile boolean running = true;
+    // set while the writer waits for records, a producer then wakes it up
+    private volatile boolean idle;
+
+    private AccessLog(int bufferSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.entries = new Entry[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.writer = new Thread(this::writeLoop, "ezshop-access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Create an access log and start its writer thread
+     *
+     * @param bufferSize the number of records buffered for the writer, rounded up to a power of two
+     * @return
+     */
+    public static AccessLog create(int bufferSize) {
+        return new AccessLog(bufferSize);
+    }
+
+    /**
+     * Record a completed request
+     *
+     * @param timestamp     the time the request was received, in milliseconds since the epoch
+     * @param method        the HTTP method
+     * @param route         the route the request matched, or its path
+     * @param service       the name of service the request was dispatched to, may be null
+     * @param instance      the instance of service which answered, may be null
+     * @param status        the status code of response
+     * @param bytes         the number of bytes of response body written
+     * @param upstreamNanos the time the service took to answer in nanoseconds, negative if none was called
+     * @param totalNanos    the time from the request to the end of response in nanoseconds
+     * @return false if the buffer was full and the record was dropped
+     */
+    public boolean log(long timestamp, String method, String route, String service, String instance,
+                       int status, long bytes, long upstreamNanos, long totalNanos) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+        }
+        Entry entry = entries[index];
+        entry.timestamp = timestamp;
+        entry.method = method;
+        entry.route = route;
+        entry.service = service;
+        entry.instance = instance;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.upstreamNanos = upstreamNanos;
+        entry.totalNanos = totalNanos;
+        // a volatile store, so either the writer sees the record or the producer sees it idle
+        sequences.set(index, position + 1);
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Stop the writer thread once the buffered records are written
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the state of access log
+     */
+    public JsonObject toJson() {
+        long written = head;
+        return new JsonObject()
+                .put("capacity", entries.length)
+                .put("written", written)
+                .put("pending", Math.max(0, tail.get() - written))
+                .put("dropped", dropped.get());
+    }
+
+    private void writeLoop() {
+        while (running || head < tail.get()) {
+            if (!this.writeNext()) {
+                if (!running) {
+                    // a producer claimed a slot but has not filled it yet
+                    Thread.yield();
+                } else {
+                    this.awaitRecord();
+                }
+            }
+        }
+        logger.debug("Access log writer stopped, {} records written, {} dropped", head, dropped.get());
+    }
+
+    /**
+     * Park until a producer publishes a record, the writer announces it is idle before it checks the buffer
+     * once more so a record published in between is not missed
+     */
+    private void awaitRecord() {
+        idle = true;
+        if (running && sequences.get((int) (head & mask)) != head + 1) {
+            LockSupport.parkNanos(this, MAX_PARK_NANOS);
+        }
+        idle = false;
+    }
+
+    private boolean writeNext() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return false;
+        }
+        String line = entries[index].encode();
+        sequences.lazySet(index, position + entries.length);
+        head = position + 1;
+        try {
+            accessLogger.info(line);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to write access log: {}", e.getMessage());
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private long timestamp;
+        private String method;
+        private String route;
+        private String service;
+        private String instance;
+        private int status;
+        private long bytes;
+        private long upstreamNanos;
+        private long totalNanos;
+
+        private String encode() {
+            JsonObject json = new JsonObject()
+                    .put("timestamp", timestamp)
+                    .put("method", method)
+                    .put("route", route)
+                    .put("status", status)
+                    .put("bytes", bytes)
+                    .put("totalMillis", toMillis(totalNanos));
+            if (null != service) {
+                json.put("service", service);
+            }
+            if (null != instance) {
+                json.put("instance", instance);
+            }
+            if (upstreamNanos >= 0) {
+                json.put("upstreamMillis", toMillis(upstreamNanos));
+            }
+            // the slot is reused, do not keep the strings of a written record alive
+            method = route = service = instance = null;
+            return json.encode();
+        }
+
+        private static double toMillis(long nanos) {
+            return Math.round(nanos / 1000.0) / 1000.0;
+        }
+    }
+}
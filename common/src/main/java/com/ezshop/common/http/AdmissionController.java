@@ -0,0 +1,328 @@
+package com.ezshop.common.http;
+
+import com.ezshop.common.concurrent.LatencyHistogram;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.http.HttpServerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ezshop.common.ConfigKeys.*;
+import static com.ezshop.common.HttpResponseCodes.SC_SERVICE_UNAVAILABLE;
+
+/**
+ * Admission control of the requests a HTTP server accepts. Up to "maxInFlight" requests are handled at once,
+ * the following wait in a queue of "queueDepth" and are shed with 503 when it is full.
+ * <p>
+ * Queueing time is bounded the CoDel way: a request which waited longer than "maxQueueTime" is shed, and once
+ * the queue has not been empty for a whole "maxQueueTime" the server is overloaded and the bound drops to
+ * "targetQueueTime" until the queue empties, so a standing queue does not add latency to every request.
+ * Requests are also shed on arrival while the lag of the event loop is above "maxEventLoopLag".
+ * <p>
+ * Requests to the "priorityPaths" have a lane of their own which is served first and never shed for lag, so
+ * health checks and metrics answer while the server is overloaded. A path which ends with "/*" matches all
+ * paths below it, others match exactly, so "/" is just the root. The controller is confined to the event loop
+ * of its verticle
+ *
+ * @author Gary Cheng
+ */
+public class AdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final int DEFAULT_QUEUE_DEPTH = 128;
+    private static final long DEFAULT_MAX_QUEUE_TIME = 100;
+    private static final long DEFAULT_TARGET_QUEUE_TIME = 10;
+    private static final long DEFAULT_MAX_EVENT_LOOP_LAG = 200;
+    private static final long DEFAULT_RETRY_AFTER = 1;
+    private static final long LAG_SAMPLE_INTERVAL = 50;
+    private static final long WAIT_TIME_WINDOW = 10000;
+    private static final String HEADER_RETRY_AFTER = "retry-after";
+    private static final String HEADER_CONTENT_LENGTH = "content-length";
+    private static final String WILDCARD = "*";
+
+    private final Vertx vertx;
+    private final Handler<HttpServerRequest> handler;
+    private final int maxInFlight;
+    private final int queueDepth;
+    private final long maxQueueTime;
+    private final long targetQueueTime;
+    private final long maxEventLoopLag;
+    private final String retryAfter;
+    private final List<String> priorityPaths = new ArrayList<>();
+    private final List<String> priorityPrefixes = new ArrayList<>();
+    private final Deque<Ticket> priorityQueue = new ArrayDeque<>();
+    private final Deque<Ticket> queue = new ArrayDeque<>();
+    private final LatencyHistogram waitTimes = LatencyHistogram.create(WAIT_TIME_WINDOW);
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong shedQueueFull = new AtomicLong();
+    private final AtomicLong shedQueueTime = new AtomicLong();
+    private final AtomicLong shedEventLoopLag = new AtomicLong();
+    private final AtomicLong shedClosed = new AtomicLong();
+    private final long timerId;
+    private volatile int inFlight;
+    private volatile int queued;
+    private volatile long eventLoopLag;
+    private long queueEmptyAt = System.nanoTime();
+    private long lastSampleAt = System.nanoTime();
+    private boolean dispatching;
+    private boolean closed;
+
+    private AdmissionController(Vertx vertx, JsonObject config, Handler<HttpServerRequest> handler) {
+        this.vertx = vertx;
+        this.handler = handler;
+        this.maxInFlight = config.getInteger(KEY_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT);
+        this.queueDepth = config.getInteger(KEY_QUEUE_DEPTH, DEFAULT_QUEUE_DEPTH);
+        this.maxQueueTime = TimeUnit.MILLISECONDS.toNanos(config.getLong(KEY_MAX_QUEUE_TIME, DEFAULT_MAX_QUEUE_TIME));
+        this.targetQueueTime = TimeUnit.MILLISECONDS.toNanos(config.getLong(KEY_TARGET_QUEUE_TIME, DEFAULT_TARGET_QUEUE_TIME));
+        this.maxEventLoopLag = TimeUnit.MILLISECONDS.toNanos(config.getLong(KEY_MAX_EVENT_LOOP_LAG, DEFAULT_MAX_EVENT_LOOP_LAG));
+        this.retryAfter = String.valueOf(config.getLong(KEY_RETRY_AFTER, DEFAULT_RETRY_AFTER));
+        config.getJsonArray(KEY_PRIORITY_PATHS, new JsonArray()).forEach(entry -> {
+            String path = entry.toString();
+            if (path.endsWith("/" + WILDCARD)) {
+                priorityPrefixes.add(path.substring(0, path.length() - WILDCARD.length()));
+            } else {
+                priorityPaths.add(path);
+            }
+        });
+        this.timerId = vertx.setPeriodic(LAG_SAMPLE_INTERVAL, id -> this.sample());
+    }
+
+    /**
+     * Create an admission controller on the event loop of the calling verticle
+     *
+     * @param vertx   the Vert.x instance
+     * @param config  the "admission" config
+     * @param handler handles the admitted requests
+     * @return
+     */
+    public static AdmissionController create(Vertx vertx, JsonObject config, Handler<HttpServerRequest> handler) {
+        return new AdmissionController(vertx, null == config ? new JsonObject() : config, handler);
+    }
+
+    /**
+     * Create the ticket of a request, {@link Ticket#release()} must be called once the request has ended
+     *
+     * @param request the request
+     * @return
+     */
+    public Ticket ticket(HttpServerRequest request) {
+        return new Ticket(request, this.isPriority(request.path()));
+    }
+
+    /**
+     * Handle the request of a ticket now if there is room, queue it otherwise, or shed it
+     *
+     * @param ticket the ticket of request
+     */
+    public void admit(Ticket ticket) {
+        if (closed) {
+            shedClosed.incrementAndGet();
+            this.shed(ticket);
+            return;
+        }
+        if (!ticket.priority && eventLoopLag > maxEventLoopLag) {
+            shedEventLoopLag.incrementAndGet();
+            this.shed(ticket);
+            return;
+        }
+        if (inFlight < maxInFlight && queued == 0) {
+            this.dispatch(ticket, 0);
+            return;
+        }
+        Deque<Ticket> lane = ticket.priority ? priorityQueue : queue;
+        if (lane.size() >= queueDepth) {
+            shedQueueFull.incrementAndGet();
+            this.shed(ticket);
+            return;
+        }
+        ticket.enqueuedAt = System.nanoTime();
+        ticket.state = Ticket.QUEUED;
+        ticket.request.pause();
+        lane.add(ticket);
+        queued++;
+        this.dispatchQueued();
+    }
+
+    /**
+     * Stop sampling the event loop and shed the queued requests, as well as those which arrive later,
+     * the requests already handled carry on
+     */
+    public void close() {
+        closed = true;
+        vertx.cancelTimer(timerId);
+        this.shedQueued(priorityQueue);
+        this.shedQueued(queue);
+    }
+
+    private void shedQueued(Deque<Ticket> lane) {
+        Ticket ticket;
+        while (null != (ticket = lane.poll())) {
+            queued--;
+            if (ticket.state == Ticket.QUEUED) {
+                shedClosed.incrementAndGet();
+                this.shed(ticket);
+            }
+        }
+    }
+
+    /**
+     * @return the state of admission control
+     */
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("inFlight", inFlight)
+                .put("queued", queued)
+                .put("admitted", admitted.get())
+                .put("waitTime", new JsonObject()
+                        .put("p50", waitTimes.percentile(50))
+                        .put("p99", waitTimes.percentile(99)))
+                .put("eventLoopLag", eventLoopLag / 1000000.0)
+                .put("shed", new JsonObject()
+                        .put("queueFull", shedQueueFull.get())
+                        .put("queueTime", shedQueueTime.get())
+                        .put("eventLoopLag", shedEventLoopLag.get())
+                        .put("closed", shedClosed.get()));
+    }
+
+    private boolean isPriority(String path) {
+        if (priorityPaths.contains(path)) {
+            return true;
+        }
+        for (String prefix : priorityPrefixes) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand the queued requests to the handler while there is room, shedding those which waited too long.
+     * Handling a request may end another one right away, the outer call carries on instead of recursing
+     */
+    private void dispatchQueued() {
+        if (dispatching) {
+            return;
+        }
+        dispatching = true;
+        try {
+            long now = System.nanoTime();
+            if (queued == 0) {
+                queueEmptyAt = now;
+                return;
+            }
+            // a queue which has not drained for a whole interval is a standing queue, keep it short
+            long maxWait = now - queueEmptyAt > maxQueueTime ? targetQueueTime : maxQueueTime;
+            this.expire(priorityQueue, now, maxWait);
+            this.expire(queue, now, maxWait);
+            while (inFlight < maxInFlight) {
+                Ticket ticket = null != priorityQueue.peek() ? priorityQueue.poll() : queue.poll();
+                if (null == ticket) {
+                    break;
+                }
+                queued--;
+                if (ticket.state == Ticket.QUEUED) {
+                    this.dispatch(ticket, now - ticket.enqueuedAt);
+                }
+            }
+            if (queued == 0) {
+                queueEmptyAt = now;
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+
+    private void expire(Deque<Ticket> lane, long now, long maxWait) {
+        Ticket ticket;
+        while (null != (ticket = lane.peek()) && now - ticket.enqueuedAt > maxWait) {
+            lane.poll();
+            queued--;
+            if (ticket.state == Ticket.QUEUED) {
+                waitTimes.record(now - ticket.enqueuedAt);
+                shedQueueTime.incrementAndGet();
+                this.shed(ticket);
+            }
+        }
+    }
+
+    private void dispatch(Ticket ticket, long waitTime) {
+        ticket.state = Ticket.DISPATCHED;
+        inFlight++;
+        admitted.incrementAndGet();
+        waitTimes.record(waitTime);
+        if (waitTime > 0) {
+            ticket.request.resume();
+        }
+        handler.handle(ticket.request);
+    }
+
+    private void shed(Ticket ticket) {
+        if (ticket.state == Ticket.QUEUED) {
+            // let the connection read on, the body of a shed request is discarded
+            ticket.request.resume();
+        }
+        ticket.state = Ticket.RELEASED;
+        ticket.request.response()
+                .setStatusCode(SC_SERVICE_UNAVAILABLE)
+                .putHeader(HEADER_RETRY_AFTER, retryAfter)
+                .putHeader(HEADER_CONTENT_LENGTH, "0")
+                .end();
+    }
+
+    /**
+     * Measure how late the periodic timer fires, which is how long tasks wait for the event loop
+     */
+    private void sample() {
+        long now = System.nanoTime();
+        long lag = Math.max(0, now - lastSampleAt - TimeUnit.MILLISECONDS.toNanos(LAG_SAMPLE_INTERVAL));
+        lastSampleAt = now;
+        if (lag > maxEventLoopLag && eventLoopLag <= maxEventLoopLag) {
+            logger.debug("Event loop lag {}ms, shedding requests", lag / 1000000);
+        }
+        eventLoopLag = lag;
+        this.dispatchQueued();
+    }
+
+    /**
+     * The admission of a request, it is waiting, handled or released
+     */
+    public class Ticket {
+        private static final int NEW = 0;
+        private static final int QUEUED = 1;
+        private static final int DISPATCHED = 2;
+        private static final int RELEASED = 3;
+
+        private final HttpServerRequest request;
+        private final boolean priority;
+        private int state = NEW;
+        private long enqueuedAt;
+
+        private Ticket(HttpServerRequest request, boolean priority) {
+            this.request = request;
+            this.priority = priority;
+        }
+
+        /**
+         * Release the ticket once its request has ended or its connection closed, it makes room for the next
+         * queued request if the request was handled
+         */
+        public void release() {
+            int previous = state;
+            state = RELEASED;
+            if (previous == DISPATCHED) {
+                inFlight--;
+                dispatchQueued();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.web.client.HttpResponse;
+
+import java.util.List;
+
+/**
+ * A response received with the core HttpClient together with its body, so it can be handed on in place
+ * of a WebClient response
+ *
+ * @author Gary Cheng
+ */
+public class BufferedHttpResponse implements HttpResponse<Buffer> {
+    private final HttpClientResponse response;
+    private final Buffer body;
+
+    private BufferedHttpResponse(HttpClientResponse response, Buffer body) {
+        this.response = response;
+        this.body = body;
+    }
+
+    /**
+     * Create a buffered response
+     *
+     * @param response the response, it must have ended
+     * @param body     the body of response
+     * @return
+     */
+    public static BufferedHttpResponse create(HttpClientResponse response, Buffer body) {
+        return new BufferedHttpResponse(response, body);
+    }
+
+    @Override
+    public HttpVersion version() {
+        return response.version();
+    }
+
+    @Override
+    public int statusCode() {
+        return response.statusCode();
+    }
+
+    @Override
+    public String statusMessage() {
+        return response.statusMessage();
+    }
+
+    @Override
+    public MultiMap headers() {
+        return response.headers();
+    }
+
+    @Override
+    public String getHeader(String headerName) {
+        return response.getHeader(headerName);
+    }
+
+    @Override
+    public MultiMap trailers() {
+        return response.trailers();
+    }
+
+    @Override
+    public String getTrailer(String trailerName) {
+        return response.getTrailer(trailerName);
+    }
+
+    @Override
+    public List<String> cookies() {
+        return response.cookies();
+    }
+
+    @Override
+    public Buffer body() {
+        return body;
+    }
+
+    @Override
+    public Buffer bodyAsBuffer() {
+        return body;
+    }
+
+    @Override
+    public JsonArray bodyAsJsonArray() {
+        return null == body ? null : body.toJsonArray();
+    }
+}
@@ -0,0 +1,96 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Write stream which compresses everything written to it before passing it on, back pressure is the one of
+ * the underlying stream
+ *
+ * @author Gary Cheng
+ */
+public class CompressingWriteStream implements WriteStream<Buffer> {
+    private final WriteStream<Buffer> target;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final OutputStream out;
+
+    private CompressingWriteStream(WriteStream<Buffer> target, CompressionPolicy policy, String encoding) {
+        this.target = target;
+        try {
+            this.out = policy.compressingStream(bytes, encoding);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create a compressing stream in front of given stream
+     *
+     * @param target   the stream which receives compressed data
+     * @param policy   the compression policy
+     * @param encoding gzip or deflate
+     * @return
+     */
+    public static CompressingWriteStream create(WriteStream<Buffer> target, CompressionPolicy policy, String encoding) {
+        return new CompressingWriteStream(target, policy, encoding);
+    }
+
+    @Override
+    public CompressingWriteStream exceptionHandler(Handler<Throwable> handler) {
+        target.exceptionHandler(handler);
+        return this;
+    }
+
+    @Override
+    public CompressingWriteStream write(Buffer data) {
+        try {
+            out.write(data.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the deflater keeps a window of input, only what it already produced is passed on
+        this.flush();
+        return this;
+    }
+
+    @Override
+    public void end() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.flush();
+        target.end();
+    }
+
+    @Override
+    public CompressingWriteStream setWriteQueueMaxSize(int maxSize) {
+        target.setWriteQueueMaxSize(maxSize);
+        return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return target.writeQueueFull();
+    }
+
+    @Override
+    public CompressingWriteStream drainHandler(Handler<Void> handler) {
+        target.drainHandler(handler);
+        return this;
+    }
+
+    private void flush() {
+        if (bytes.size() > 0) {
+            target.write(Buffer.buffer(bytes.toByteArray()));
+            bytes.reset();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.ezshop.common.ConfigKeys.*;
+
+/**
+ * Decide whether and how a response is compressed. Responses are compressed with gzip or deflate as negotiated
+ * with the client when they have a compressible content type, are not encoded already and are not smaller
+ * than the configured minimum size
+ *
+ * @author Gary Cheng
+ */
+public class CompressionPolicy {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    private static final int DEFAULT_LEVEL = 6;
+    private static final JsonArray DEFAULT_CONTENT_TYPES = new JsonArray()
+            .add("text/").add("application/json").add("application/javascript").add("application/xml").add("image/svg+xml");
+
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+    private final List<String> contentTypes;
+
+    private CompressionPolicy(JsonObject config) {
+        this.enabled = config.getBoolean(KEY_ENABLED, false);
+        this.minSize = config.getInteger(KEY_MIN_SIZE, DEFAULT_MIN_SIZE);
+        this.level = config.getInteger(KEY_LEVEL, DEFAULT_LEVEL);
+        this.contentTypes = config.getJsonArray(KEY_CONTENT_TYPES, DEFAULT_CONTENT_TYPES).stream()
+                .map(Object::toString).collect(Collectors.toList());
+    }
+
+    /**
+     * Create compression policy from config
+     *
+     * @param config the compression config, null for a disabled policy
+     * @return
+     */
+    public static CompressionPolicy create(JsonObject config) {
+        return new CompressionPolicy(null == config ? new JsonObject() : config);
+    }
+
+    /**
+     * Choose the encoding of response from the Accept-Encoding header of request, gzip is preferred
+     *
+     * @param acceptEncoding the Accept-Encoding header of request
+     * @return gzip, deflate or null if the response must not be compressed
+     */
+    public String negotiate(String acceptEncoding) {
+        if (!enabled || null == acceptEncoding) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase();
+            if (parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?")) {
+                continue;
+            }
+            if (GZIP.equals(coding) || "*".equals(coding)) {
+                return GZIP;
+            }
+            deflate = deflate || DEFLATE.equals(coding);
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * Return whether a response is worth compressing
+     *
+     * @param contentType     the content type of response
+     * @param contentEncoding the content encoding of response, null if not encoded
+     * @param contentLength   the length of response body, -1 if unknown
+     * @return
+     */
+    public boolean isCompressible(String contentType, String contentEncoding, long contentLength) {
+        if (!enabled || null == contentType || (null != contentEncoding && !"identity".equalsIgnoreCase(contentEncoding))) {
+            return false;
+        }
+        if (contentLength >= 0 && contentLength < minSize) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return contentTypes.stream().anyMatch(type::startsWith);
+    }
+
+    /**
+     * Compress a whole body
+     *
+     * @param body     the body to compress
+     * @param encoding gzip or deflate
+     * @return the compressed body
+     */
+    public Buffer compress(Buffer body, String encoding) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length() / 4));
+        try (OutputStream out = this.compressingStream(bytes, encoding)) {
+            out.write(body.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Buffer.buffer(bytes.toByteArray());
+    }
+
+    OutputStream compressingStream(OutputStream out, String encoding) throws IOException {
+        if (GZIP.equals(encoding)) {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+}
@@ -0,0 +1,161 @@
+package com.ezshop.common.http;
+
+import com.ezshop.common.concurrent.LatencyHistogram;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.ext.web.client.WebClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ezshop.common.ConfigKeys.*;
+import static com.ezshop.common.HttpResponseCodes.SC_BAD_REQUEST;
+
+/**
+ * Warms up a HTTP server before it takes production traffic, by sending batches of synthetic GET requests to
+ * its "paths" until a batch meets the latency target. The requests go through the router, the handlers and
+ * whatever they call, so the code on the request path is compiled and the pools behind it are filled.
+ * <p>
+ * A batch meets the target when none of its requests failed and its "percentile" latency is no more than
+ * "latencyTarget" milliseconds. Once "maxDuration" has passed the warm-up ends even if no batch met the target,
+ * a slow instance still serves better than none
+ *
+ * @author Gary Cheng
+ */
+public class WarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final double DEFAULT_PERCENTILE = 95;
+    private static final long DEFAULT_LATENCY_TARGET = 50;
+    private static final long DEFAULT_MAX_DURATION = 30000;
+    private static final long HISTOGRAM_WINDOW = 3600000;
+
+    private final JsonArray paths;
+    private final int batchSize;
+    private final int concurrency;
+    private final double percentile;
+    private final long latencyTarget;
+    private final long maxDuration;
+    private volatile boolean ready;
+    private volatile boolean targetMet;
+    private volatile int batches;
+    private volatile long requests;
+    private volatile double lastLatency = -1;
+    private volatile long duration;
+    private Single<JsonObject> result;
+
+    private WarmUp(JsonObject config) {
+        this.paths = config.getJsonArray(KEY_PATHS, new JsonArray());
+        this.batchSize = config.getInteger(KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        this.concurrency = config.getInteger(KEY_CONCURRENCY, DEFAULT_CONCURRENCY);
+        this.percentile = config.getDouble(KEY_PERCENTILE, DEFAULT_PERCENTILE);
+        this.latencyTarget = config.getLong(KEY_LATENCY_TARGET, DEFAULT_LATENCY_TARGET);
+        this.maxDuration = config.getLong(KEY_MAX_DURATION, DEFAULT_MAX_DURATION);
+    }
+
+    /**
+     * Create a warm-up from the "readiness" config
+     *
+     * @param config the config, nothing is sent if it has no "paths"
+     * @return
+     */
+    public static WarmUp fromJson(JsonObject config) {
+        return new WarmUp(null == config ? new JsonObject() : config);
+    }
+
+    /**
+     * Warm up the server, only the first call starts the warm-up and every call gets its outcome
+     *
+     * @param client the client of server
+     * @return the state of warm-up once it has ended
+     */
+    public synchronized Single<JsonObject> run(WebClient client) {
+        if (null == result) {
+            result = this.warmUp(client).cache();
+        }
+        return result;
+    }
+
+    private Single<JsonObject> warmUp(WebClient client) {
+        if (paths.isEmpty()) {
+            ready = true;
+            return Single.just(this.toJson());
+        }
+        long startTime = System.currentTimeMillis();
+        return this.runBatches(client, startTime).map(latency -> {
+            ready = true;
+            duration = System.currentTimeMillis() - startTime;
+            if (targetMet) {
+                logger.debug("Warmed up in {}ms with {} requests, p{} latency {}ms", duration, requests, percentile, latency);
+            } else {
+                logger.warn("Latency target not met after {}ms of warm-up, p{} latency {}ms", duration, percentile, latency);
+            }
+            return this.toJson();
+        });
+    }
+
+    private Single<Double> runBatches(WebClient client, long startTime) {
+        return this.runBatch(client).flatMap(latency -> {
+            if (targetMet || System.currentTimeMillis() - startTime >= maxDuration) {
+                return Single.just(latency);
+            }
+            return this.runBatches(client, startTime);
+        });
+    }
+
+    /**
+     * Send a batch of requests, with up to "concurrency" in flight
+     *
+     * @return the latency of batch at the percentile in milliseconds
+     */
+    private Single<Double> runBatch(WebClient client) {
+        LatencyHistogram histogram = LatencyHistogram.create(HISTOGRAM_WINDOW);
+        AtomicInteger failures = new AtomicInteger();
+        return Flowable.range(0, batchSize).flatMapSingle(i -> {
+            String path = paths.getString(i % paths.size());
+            long startTime = System.nanoTime();
+            return client.get(path).rxSend().map(response -> {
+                if (response.statusCode() >= SC_BAD_REQUEST) {
+                    failures.incrementAndGet();
+                }
+                return System.nanoTime() - startTime;
+            }).onErrorReturn(throwable -> {
+                failures.incrementAndGet();
+                return System.nanoTime() - startTime;
+            });
+        }, false, concurrency).doOnNext(histogram::record).ignoreElements().toSingle(() -> {
+            double latency = histogram.percentile(percentile);
+            batches++;
+            requests += batchSize;
+            lastLatency = latency;
+            targetMet = failures.get() == 0 && latency <= latencyTarget;
+            logger.debug("Warm-up batch {}: p{} latency {}ms, {} failed", batches, percentile, latency, failures.get());
+            return latency;
+        });
+    }
+
+    /**
+     * @return true once the warm-up has ended
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return the state of warm-up
+     */
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("ready", ready)
+                .put("targetMet", targetMet)
+                .put("batches", batches)
+                .put("requests", requests)
+                .put("latency", lastLatency)
+                .put("latencyTarget", latencyTarget)
+                .put("duration", duration);
+    }
+}
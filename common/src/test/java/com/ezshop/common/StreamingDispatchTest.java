@@ -0,0 +1,192 @@
+package com.ezshop.common;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Context;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.http.HttpClient;
+import io.vertx.reactivex.core.http.HttpClientRequest;
+import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.core.http.HttpServerRequest;
+import io.vertx.reactivex.ext.web.Router;
+import io.vertx.reactivex.servicediscovery.ServiceDiscovery;
+import io.vertx.reactivex.servicediscovery.types.HttpEndpoint;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamingDispatchTest
+ *
+ * @author Gary Cheng
+ */
+public class StreamingDispatchTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private final Vertx vertx = Vertx.vertx();
+    private Context context;
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void slowUploadOutlastsBreakerTimeout() throws Exception {
+        this.createService(request -> {
+            AtomicLong received = new AtomicLong();
+            request.handler(chunk -> received.addAndGet(chunk.length()));
+            request.endHandler(v -> request.response().end(String.valueOf(received.get())));
+        });
+        HttpClient client = this.createGateway(200);
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            HttpClientRequest request = this.upload(client, answer);
+            // ten chunks over half a second, longer than the circuit breaker's timeout
+            vertx.setPeriodic(50, new io.vertx.core.Handler<Long>() {
+                private int chunks;
+
+                @Override
+                public void handle(Long timerId) {
+                    request.write(StreamingDispatchTest.this.chunk());
+                    if (++chunks == 10) {
+                        vertx.cancelTimer(timerId);
+                        request.end();
+                    }
+                }
+            });
+        });
+        assertEquals("200 " + 10 * CHUNK_SIZE, answer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void uploadHonoursBackPressure() throws Exception {
+        AtomicReference<HttpServerRequest> held = new AtomicReference<>();
+        AtomicLong received = new AtomicLong();
+        this.createService(request -> {
+            // the service does not read until the test resumes it
+            request.pause();
+            request.handler(chunk -> received.addAndGet(chunk.length()));
+            request.endHandler(v -> request.response().end(String.valueOf(received.get())));
+            held.set(request);
+        });
+        HttpClient client = this.createGateway(200);
+        long total = 256L * 1024 * 1024;
+        AtomicLong written = new AtomicLong();
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            HttpClientRequest request = this.upload(client, answer);
+            // the write queue of request only fills up once it is connected
+            request.sendHead(version -> this.writeBody(request, written, total));
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (null == held.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(held.get());
+        // the client is stalled once the buffers between it and the paused service are full
+        long stalled;
+        do {
+            stalled = written.get();
+            Thread.sleep(500);
+        } while (written.get() != stalled);
+        assertTrue("the gateway buffered " + stalled + " bytes", stalled < total / 4);
+        assertEquals(0, received.get());
+        context.runOnContext(v -> held.get().resume());
+        assertEquals("200 " + total, answer.get(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedCallResetsUpstreamRequest() throws Exception {
+        CompletableFuture<Void> upstreamClosed = new CompletableFuture<>();
+        this.createService(request -> {
+            // the body is read but never answered
+            request.handler(chunk -> {
+            });
+            request.connection().closeHandler(v -> upstreamClosed.complete(null));
+        });
+        HttpClient client = this.createGateway(200);
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        context.runOnContext(v -> this.upload(client, answer).end(this.chunk()));
+        assertTrue(answer.get(5, TimeUnit.SECONDS).startsWith("500 "));
+        upstreamClosed.get(5, TimeUnit.SECONDS);
+    }
+
+    private HttpClientRequest upload(HttpClient client, CompletableFuture<String> answer) {
+        HttpClientRequest request = client.post("/api/upload", response -> response.bodyHandler(
+                body -> answer.complete(response.statusCode() + " " + body.toString())));
+        request.exceptionHandler(answer::completeExceptionally);
+        return request.setChunked(true);
+    }
+
+    private void writeBody(HttpClientRequest request, AtomicLong written, long total) {
+        Buffer chunk = this.chunk();
+        while (!request.writeQueueFull() && written.get() < total) {
+            request.write(chunk);
+            written.addAndGet(CHUNK_SIZE);
+        }
+        if (written.get() >= total) {
+            request.end();
+        } else {
+            request.drainHandler(v -> this.writeBody(request, written, total));
+        }
+    }
+
+    private Buffer chunk() {
+        return Buffer.newInstance(io.vertx.core.buffer.Buffer.buffer(new byte[CHUNK_SIZE]));
+    }
+
+    private void createService(Consumer<HttpServerRequest> handler) {
+        this.context = vertx.getOrCreateContext();
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        context.runOnContext(v -> vertx.createHttpServer().requestHandler(handler::accept)
+                .rxListen(0).subscribe(listening::complete, listening::completeExceptionally));
+        int port = listening.join().actualPort();
+        ServiceDiscovery discovery = ServiceDiscovery.create(vertx);
+        discovery.rxPublish(HttpEndpoint.createRecord("upload", "localhost", port, "/")).blockingGet();
+        discovery.close();
+    }
+
+    private HttpClient createGateway(long breakerTimeout) throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        JsonObject config = new JsonObject()
+                // class loading in a fresh JVM stalls the event loop, which must not shed the first requests
+                .put("httpServer", new JsonObject().put("port", port)
+                        .put("admission", new JsonObject().put("maxEventLoopLag", 60000)))
+                .put("circuitBreaker", new JsonObject().put("timeout", breakerTimeout));
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.getDelegate().deployVerticle(new GatewayVerticle(), new DeploymentOptions().setConfig(config), ar -> {
+            if (ar.succeeded()) {
+                deployed.complete(ar.result());
+            } else {
+                deployed.completeExceptionally(ar.cause());
+            }
+        });
+        deployed.join();
+        return vertx.createHttpClient(new io.vertx.core.http.HttpClientOptions().setDefaultPort(port));
+    }
+
+    public static class GatewayVerticle extends BaseHttpMicroServicesVerticle {
+        @Override
+        public void start(io.vertx.core.Future<Void> startFuture) {
+            super.start();
+            Router router = Router.router(vertx);
+            router.route("/api/upload").handler(context -> this.dispatchStreamRequest(context, "upload", "/upload",
+                    error -> this.restErrorHandler(context, error)));
+            this.createHttpServer(this.config().getJsonObject("httpServer"), router)
+                    .subscribe(server -> startFuture.complete(), startFuture::fail);
+        }
+    }
+}
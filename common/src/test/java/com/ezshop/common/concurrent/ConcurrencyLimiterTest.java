@@ -0,0 +1,55 @@
+package com.ezshop.common.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ConcurrencyLimiterTest
+ *
+ * @author Gary Cheng
+ */
+public class ConcurrencyLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void rejectsWhenLimitReached() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.create(2, 1, 10, 100, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(FAST, false);
+        assertTrue(limiter.tryAcquire());
+        assertEquals(1L, limiter.toJson().getLong("rejected").longValue());
+    }
+
+    @Test
+    public void growsWhileFastAndBusy() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.create(4, 1, 10, 100, 0.5);
+        for (int i = 0; i < 40; i++) {
+            while (limiter.tryAcquire()) {
+            }
+            limiter.release(FAST, false);
+        }
+        assertTrue(limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void backsOffOnSlowOrDroppedCalls() {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.create(8, 2, 10, 100, 0.5);
+        limiter.tryAcquire();
+        limiter.release(SLOW, false);
+        assertEquals(4, limiter.getLimit());
+        limiter.tryAcquire();
+        limiter.release(FAST, true);
+        assertEquals(2, limiter.getLimit());
+        limiter.tryAcquire();
+        limiter.release(SLOW, false);
+        assertEquals(2, limiter.getLimit());
+    }
+}
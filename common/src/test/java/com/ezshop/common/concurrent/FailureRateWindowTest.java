@@ -0,0 +1,49 @@
+package com.ezshop.common.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * FailureRateWindowTest
+ *
+ * @author Gary Cheng
+ */
+public class FailureRateWindowTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void tripOnFailureRateOnceEnoughCallsAreSeen() {
+        FailureRateWindow window = FailureRateWindow.create(FailureRateWindow.COUNT_BASED, 10, 4, 50, 100, 100);
+        assertFalse(window.record(true, FAST));
+        assertFalse(window.record(true, FAST));
+        assertFalse(window.record(false, FAST));
+        assertTrue(window.record(false, FAST));
+        window.reset();
+        assertEquals(0, window.toJson().getInteger("calls").intValue());
+    }
+
+    @Test
+    public void oldCallsLeaveCountBasedWindow() {
+        FailureRateWindow window = FailureRateWindow.create(FailureRateWindow.COUNT_BASED, 4, 4, 50, 100, 100);
+        window.record(true, FAST);
+        window.record(true, FAST);
+        for (int i = 0; i < 3; i++) {
+            window.record(false, FAST);
+        }
+        assertFalse(window.record(false, FAST));
+        assertEquals(0.0, window.toJson().getDouble("failureRate"), 0.001);
+        assertEquals(4, window.toJson().getInteger("calls").intValue());
+    }
+
+    @Test
+    public void tripOnSlowCallRate() {
+        FailureRateWindow window = FailureRateWindow.create(FailureRateWindow.TIME_BASED, 10, 2, 50, 50, 100);
+        assertFalse(window.record(false, FAST));
+        assertTrue(window.record(false, SLOW));
+        assertEquals(50.0, window.toJson().getDouble("slowCallRate"), 0.001);
+    }
+}
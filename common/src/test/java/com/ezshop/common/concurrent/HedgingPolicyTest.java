@@ -0,0 +1,59 @@
+package com.ezshop.common.concurrent;
+
+import io.reactivex.Single;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * HedgingPolicyTest
+ *
+ * @author Gary Cheng
+ */
+public class HedgingPolicyTest {
+    private final Vertx vertx = Vertx.vertx();
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void slowAttemptIsHedgedAndCancelled() {
+        HedgingPolicy policy = this.createPolicy(RetryBudget.create(0, 10, 10));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        String result = policy.<String, String>execute(vertx, "slow", "fast", target -> "slow".equals(target)
+                ? Single.<String>never().doOnDispose(() -> cancelled.set(true))
+                : Single.just(target))
+                .timeout(5, TimeUnit.SECONDS).blockingGet();
+        assertEquals("fast", result);
+        assertTrue(cancelled.get());
+        assertEquals(1L, policy.toJson().getLong("hedgeWins").longValue());
+    }
+
+    @Test
+    public void failedAttemptIsRetriedWithinBudget() {
+        HedgingPolicy policy = this.createPolicy(RetryBudget.create(0, 1, 1));
+        String result = policy.<String, String>execute(vertx, "down", "up", target -> "down".equals(target)
+                ? Single.error(new IllegalStateException(target))
+                : Single.just(target))
+                .blockingGet();
+        assertEquals("up", result);
+        try {
+            policy.<String, String>execute(vertx, "down", "up", target -> Single.error(new IllegalStateException(target))).blockingGet();
+            fail("Expected the retry budget to be exhausted");
+        } catch (IllegalStateException e) {
+            assertEquals("down", e.getMessage());
+        }
+        assertEquals(1L, policy.toJson().getLong("retries").longValue());
+    }
+
+    private HedgingPolicy createPolicy(RetryBudget retryBudget) {
+        return HedgingPolicy.create(95, 1, 20, LatencyHistogram.create(10000), retryBudget);
+    }
+}
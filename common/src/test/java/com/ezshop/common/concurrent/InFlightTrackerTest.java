@@ -0,0 +1,57 @@
+package com.ezshop.common.concurrent;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * InFlightTrackerTest
+ *
+ * @author Gary Cheng
+ */
+public class InFlightTrackerTest {
+    private final Vertx vertx = Vertx.vertx();
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void awaitRequestsInFlight() {
+        InFlightTracker tracker = InFlightTracker.create();
+        tracker.begin();
+        tracker.begin();
+        assertEquals(2, tracker.getInFlight());
+        tracker.end();
+        assertFalse(tracker.awaitIdle(vertx, 50).blockingGet());
+        vertx.setTimer(20, timerId -> tracker.end());
+        assertTrue(tracker.awaitIdle(vertx, 5000).blockingGet());
+        assertEquals(2L, tracker.toJson().getLong("completed").longValue());
+        assertEquals(2, tracker.toJson().getInteger("peakInFlight").intValue());
+    }
+
+    @Test
+    public void trackCallsUntilResultHandled() {
+        InFlightTracker tracker = InFlightTracker.create();
+        AtomicReference<Handler<AsyncResult<String>>> pending = new AtomicReference<>();
+        Greeter greeter = tracker.track(Greeter.class, pending::set);
+        AtomicReference<String> result = new AtomicReference<>();
+        greeter.greet(ar -> result.set(ar.result()));
+        assertEquals(1, tracker.getInFlight());
+        pending.get().handle(Future.succeededFuture("hello"));
+        assertEquals(0, tracker.getInFlight());
+        assertEquals("hello", result.get());
+    }
+
+    public interface Greeter {
+        void greet(Handler<AsyncResult<String>> resultHandler);
+    }
+}
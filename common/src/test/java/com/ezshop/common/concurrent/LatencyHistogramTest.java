@@ -0,0 +1,24 @@
+package com.ezshop.common.concurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * LatencyHistogramTest
+ *
+ * @author Gary Cheng
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void latencyPercentileIsApproximated() {
+        LatencyHistogram histogram = LatencyHistogram.create(10000);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(95, histogram.percentile(95), 95 * 0.125);
+        assertEquals(50, histogram.percentile(50), 50 * 0.125);
+    }
+}
@@ -0,0 +1,25 @@
+package com.ezshop.common.concurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * RetryBudgetTest
+ *
+ * @author Gary Cheng
+ */
+public class RetryBudgetTest {
+
+    @Test
+    public void retriesAreBoundedByRequests() {
+        RetryBudget budget = RetryBudget.create(0.5, 0, 10);
+        for (int i = 0; i < 4; i++) {
+            budget.deposit();
+        }
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(1L, budget.toJson().getLong("rejected").longValue());
+    }
+}
@@ -0,0 +1,47 @@
+package com.ezshop.common.concurrent;
+
+import io.vertx.reactivex.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SharedResourcesTest
+ *
+ * @author Gary Cheng
+ */
+public class SharedResourcesTest {
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void instancesShareOneObjectUntilLastRelease() {
+        AtomicInteger created = new AtomicInteger();
+        SharedResources<Object> first = SharedResources.create(vertx, "test");
+        SharedResources<Object> second = SharedResources.create(vertx, "test");
+        Object a = first.acquire("key", k -> created.incrementAndGet());
+        Object b = second.acquire("key", k -> created.incrementAndGet());
+        assertSame(a, b);
+        assertEquals(1, created.get());
+        assertFalse(first.release("key"));
+        assertTrue(second.release("key"));
+        assertNotSame(a, first.acquire("key", k -> created.incrementAndGet()));
+    }
+}
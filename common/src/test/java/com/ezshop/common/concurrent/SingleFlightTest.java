@@ -0,0 +1,63 @@
+package com.ezshop.common.concurrent;
+
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * SingleFlightTest
+ *
+ * @author Gary Cheng
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCallsShareOneInvocation() {
+        SingleFlight<String> singleFlight = SingleFlight.create();
+        SingleSubject<String> upstream = SingleSubject.create();
+        AtomicInteger invocations = new AtomicInteger();
+        Single<String> first = singleFlight.execute("key", () -> {
+            invocations.incrementAndGet();
+            return upstream;
+        });
+        Single<String> second = singleFlight.execute("key", () -> {
+            invocations.incrementAndGet();
+            return upstream;
+        });
+        StringBuilder results = new StringBuilder();
+        first.subscribe(results::append);
+        second.subscribe(results::append);
+        upstream.onSuccess("a");
+        assertEquals(1, invocations.get());
+        assertEquals("aa", results.toString());
+        assertEquals(1L, singleFlight.toJson().getLong("coalesced").longValue());
+        assertEquals(0, singleFlight.toJson().getInteger("inFlight").intValue());
+    }
+
+    @Test
+    public void completedCallIsNotReused() {
+        SingleFlight<Integer> singleFlight = SingleFlight.create();
+        AtomicInteger invocations = new AtomicInteger();
+        singleFlight.execute("key", () -> Single.just(invocations.incrementAndGet())).blockingGet();
+        int result = singleFlight.execute("key", () -> Single.just(invocations.incrementAndGet())).blockingGet();
+        assertEquals(2, result);
+    }
+
+    @Test
+    public void failureIsSharedAndReleased() {
+        SingleFlight<String> singleFlight = SingleFlight.create();
+        SingleSubject<String> upstream = SingleSubject.create();
+        AtomicInteger failures = new AtomicInteger();
+        singleFlight.execute("key", () -> upstream).subscribe(s -> {
+        }, e -> failures.incrementAndGet());
+        singleFlight.execute("key", () -> upstream).subscribe(s -> {
+        }, e -> failures.incrementAndGet());
+        upstream.onError(new IllegalStateException());
+        assertEquals(2, failures.get());
+        assertEquals("b", singleFlight.execute("key", () -> Single.just("b")).blockingGet());
+    }
+}
@@ -0,0 +1,35 @@
+package com.ezshop.common.concurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TokenBucketTest
+ *
+ * @author Gary Cheng
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void admitBurstThenRefill() throws InterruptedException {
+        TokenBucket bucket = TokenBucket.create(100, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        assertEquals(1, bucket.getRetryAfter());
+        Thread.sleep(50);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void debitIntoDebt() {
+        TokenBucket bucket = TokenBucket.create(1, 10);
+        bucket.debit(25);
+        assertFalse(bucket.tryAcquire());
+        assertEquals(0, bucket.getAvailable());
+        // the debt is bounded by the burst size
+        assertTrue(bucket.getRetryAfter() > 10 && bucket.getRetryAfter() <= 11);
+    }
+}
@@ -0,0 +1,90 @@
+package com.ezshop.common.discovery;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * LoadBalancerTest
+ *
+ * @author Gary Cheng
+ */
+public class LoadBalancerTest {
+
+    @Test
+    public void roundRobinHonoursWeights() {
+        ServiceClient light = this.createClient("a", 1);
+        ServiceClient heavy = this.createClient("b", 3);
+        Map<ServiceClient, Integer> counts = this.select(LoadBalancer.create(LoadBalancer.ROUND_ROBIN), Arrays.asList(light, heavy), 400, null);
+        assertEquals(100, counts.get(light).intValue());
+        assertEquals(300, counts.get(heavy).intValue());
+    }
+
+    @Test
+    public void leastOutstandingAvoidsBusyInstance() {
+        ServiceClient busy = this.createClient("a", 1);
+        ServiceClient idle = this.createClient("b", 1);
+        busy.requestStarted();
+        busy.requestStarted();
+        idle.requestStarted();
+        LoadBalancer loadBalancer = LoadBalancer.create(LoadBalancer.LEAST_OUTSTANDING);
+        for (int i = 0; i < 10; i++) {
+            assertSame(idle, loadBalancer.select(Arrays.asList(busy, idle), null));
+        }
+    }
+
+    @Test
+    public void powerOfTwoChoicesPrefersFasterInstance() {
+        ServiceClient slow = this.createClient("a", 1);
+        ServiceClient fast = this.createClient("b", 1);
+        slow.requestCompleted(slow.requestStarted() - 100_000_000L);
+        fast.requestCompleted(fast.requestStarted() - 1_000_000L);
+        LoadBalancer loadBalancer = LoadBalancer.create(LoadBalancer.POWER_OF_TWO_CHOICES);
+        for (int i = 0; i < 10; i++) {
+            assertSame(fast, loadBalancer.select(Arrays.asList(slow, fast), null));
+        }
+    }
+
+    @Test
+    public void consistentHashKeepsAffinity() {
+        List<ServiceClient> clients = new ArrayList<>(Arrays.asList(
+                this.createClient("a", 1), this.createClient("b", 1), this.createClient("c", 1)));
+        LoadBalancer loadBalancer = LoadBalancer.create(LoadBalancer.CONSISTENT_HASH);
+        Map<String, ServiceClient> before = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            String key = "/products/" + i;
+            before.put(key, loadBalancer.select(clients, key));
+            assertSame(before.get(key), loadBalancer.select(clients, key));
+        }
+        // only the keys owned by the removed instance may move
+        ServiceClient removed = clients.remove(2);
+        before.forEach((key, client) -> {
+            if (client != removed) {
+                assertSame(client, loadBalancer.select(clients, key));
+            }
+        });
+    }
+
+    private Map<ServiceClient, Integer> select(LoadBalancer loadBalancer, List<ServiceClient> clients, int times, String key) {
+        Map<ServiceClient, Integer> counts = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            counts.merge(loadBalancer.select(clients, key), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private ServiceClient createClient(String registration, int weight) {
+        Record record = new Record().setName("product").setRegistration(registration)
+                .setMetadata(new JsonObject().put("weight", weight));
+        return new ServiceClient(record, null, null, null);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ezshop.common.discovery;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * OutlierDetectorTest
+ *
+ * @author Gary Cheng
+ */
+public class OutlierDetectorTest {
+
+    @Test
+    public void ejectAfterConsecutiveFailures() {
+        OutlierDetector detector = OutlierDetector.fromJson(new JsonObject().put("enabled", true).put("consecutiveFailures", 3));
+        ServiceClient a = this.createClient("a");
+        ServiceClient b = this.createClient("b");
+        detector.record("a", true, 0);
+        detector.record("a", true, 0);
+        detector.record("a", false, 0);
+        detector.record("a", true, 0);
+        detector.record("a", true, 0);
+        assertFalse(detector.isEjected("a"));
+        detector.record("a", true, 0);
+        assertTrue(detector.isEjected("a"));
+        assertEquals(Arrays.asList(b), detector.select(Arrays.asList(a, b)));
+    }
+
+    @Test
+    public void slowCallsCountAsFailures() {
+        OutlierDetector detector = OutlierDetector.fromJson(new JsonObject().put("enabled", true)
+                .put("consecutiveFailures", 2).put("slowCallDuration", 100));
+        detector.record("a", false, 200_000_000L);
+        detector.record("a", false, 200_000_000L);
+        assertTrue(detector.isEjected("a"));
+    }
+
+    @Test
+    public void neverEjectMoreThanMaxPercent() {
+        OutlierDetector detector = OutlierDetector.fromJson(new JsonObject().put("enabled", true)
+                .put("consecutiveFailures", 1).put("maxEjectionPercent", 50));
+        ServiceClient a = this.createClient("a");
+        ServiceClient b = this.createClient("b");
+        detector.record("a", true, 0);
+        detector.record("b", true, 0);
+        List<ServiceClient> selected = detector.select(Arrays.asList(a, b));
+        assertEquals(1, selected.size());
+        assertSame(a, selected.get(0));
+        // the only instance of a service is left to the circuit breaker
+        assertEquals(Arrays.asList(a), detector.select(Arrays.asList(a)));
+    }
+
+    @Test
+    public void ejectAgainWithBackOff() throws InterruptedException {
+        OutlierDetector detector = OutlierDetector.fromJson(new JsonObject().put("enabled", true)
+                .put("consecutiveFailures", 1).put("baseEjectionTime", 50));
+        detector.record("a", true, 0);
+        Thread.sleep(60);
+        assertFalse(detector.isEjected("a"));
+        detector.record("a", true, 0);
+        Thread.sleep(60);
+        // the second ejection lasts twice as long as the first
+        assertTrue(detector.isEjected("a"));
+        assertEquals(2, detector.toJson().getLong("ejections").longValue());
+    }
+
+    @Test
+    public void disabledDetectorKeepsAllInstances() {
+        OutlierDetector detector = OutlierDetector.fromJson(new JsonObject());
+        detector.record("a", true, 0);
+        assertFalse(detector.isEjected("a"));
+    }
+
+    private ServiceClient createClient(String registration) {
+        return new ServiceClient(new Record().setName("product").setRegistration(registration), null, null, null);
+    }
+}
@@ -0,0 +1,145 @@
+package com.ezshop.common.discovery;
+
+import com.ezshop.common.BaseHttpMicroServicesVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.ext.web.Router;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+import io.vertx.reactivex.servicediscovery.ServiceDiscovery;
+import io.vertx.reactivex.servicediscovery.types.HttpEndpoint;
+import io.vertx.servicediscovery.Record;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * ServiceClientRegistryTest
+ *
+ * @author Gary Cheng
+ */
+public class ServiceClientRegistryTest {
+    private final Vertx vertx = Vertx.vertx();
+    private final OutlierDetector outlierDetector = OutlierDetector.fromJson(new JsonObject());
+    private ServiceDiscovery discovery;
+    private ServiceRecordCache recordCache;
+    private ServiceClientRegistry registry;
+
+    @Before
+    public void setUp() {
+        this.discovery = ServiceDiscovery.create(vertx);
+        this.recordCache = ServiceRecordCache.create(vertx, discovery, 3600000);
+        this.registry = ServiceClientRegistry.create(vertx, discovery, recordCache,
+                serviceName -> new JsonObject(), serviceName -> outlierDetector);
+    }
+
+    @After
+    public void tearDown() {
+        registry.close();
+        recordCache.close();
+        discovery.close();
+        vertx.close();
+    }
+
+    @Test
+    public void reuseClientOfRegistration() {
+        Record record = discovery.rxPublish(HttpEndpoint.createRecord("product", "localhost", 8081, "/")).blockingGet();
+        this.await(() -> this.getClients().size() == 1);
+        ServiceClient client = this.getClients().get(0);
+        assertSame(client, this.getClients().get(0));
+        assertSame(client, registry.getClient(record));
+        assertEquals(1, discovery.bindings().size());
+    }
+
+    @Test
+    public void releaseClientOfChangedRecord() {
+        Record record = discovery.rxPublish(HttpEndpoint.createRecord("product", "localhost", 8081, "/")).blockingGet();
+        this.await(() -> this.getClients().size() == 1);
+        ServiceClient client = this.getClients().get(0);
+        // the instance was redeployed on another port under the same registration
+        record.setLocation(record.getLocation().copy().put("port", 8082));
+        discovery.rxUpdate(record).blockingGet();
+        this.await(() -> discovery.bindings().isEmpty());
+        ServiceClient moved = this.getClients().get(0);
+        assertNotSame(client, moved);
+        assertEquals(8082, moved.getRecord().getLocation().getInteger("port").intValue());
+        assertEquals(1, discovery.bindings().size());
+    }
+
+    @Test
+    public void releaseClientOfRemovedRecord() {
+        Record record = discovery.rxPublish(HttpEndpoint.createRecord("product", "localhost", 8081, "/")).blockingGet();
+        this.await(() -> this.getClients().size() == 1);
+        assertEquals(1, discovery.bindings().size());
+        discovery.rxUnpublish(record.getRegistration()).blockingAwait();
+        this.await(() -> discovery.bindings().isEmpty());
+        assertTrue(this.getClients().isEmpty());
+        assertEquals(new JsonObject(), registry.toJson());
+    }
+
+    @Test
+    public void speakProtocolOfEachInstance() throws IOException {
+        this.deployService(new JsonObject().put("protocol", ServiceClient.PROTOCOL_H2C));
+        this.deployService(new JsonObject());
+        this.await(() -> this.getClients().size() == 2);
+        Map<String, String> versions = new HashMap<>();
+        for (ServiceClient client : this.getClients()) {
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<Buffer> response = client.getWebClient().get("/version").rxSend().blockingGet();
+                assertEquals(200, response.statusCode());
+                versions.put(client.getProtocol(), response.bodyAsString());
+            }
+        }
+        // each instance is spoken to in the protocol it announced, h2c with prior knowledge
+        assertEquals(HttpVersion.HTTP_2.name(), versions.get(ServiceClient.PROTOCOL_H2C));
+        assertEquals(HttpVersion.HTTP_1_1.name(), versions.get(ServiceClient.PROTOCOL_HTTP_1_1));
+    }
+
+    private void deployService(JsonObject httpServerConfig) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            httpServerConfig.put("port", socket.getLocalPort());
+        }
+        JsonObject config = new JsonObject().put("httpServer", httpServerConfig
+                .put("admission", new JsonObject().put("maxEventLoopLag", 60000)));
+        vertx.rxDeployVerticle(VersionVerticle.class.getName(), new DeploymentOptions().setConfig(config)).blockingGet();
+    }
+
+    private List<ServiceClient> getClients() {
+        return registry.getClients("product").blockingGet();
+    }
+
+    private void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * A service which answers the HTTP version of request
+     */
+    public static class VersionVerticle extends BaseHttpMicroServicesVerticle {
+        @Override
+        public void start(io.vertx.core.Future<Void> startFuture) {
+            super.start();
+            JsonObject config = this.config().getJsonObject("httpServer");
+            Router router = Router.router(vertx);
+            router.get("/version").handler(context -> context.response().end(context.request().version().name()));
+            this.createHttpServer(config, router)
+                    .flatMap(server -> this.publishHttpEndPoint("product", config))
+                    .subscribe(record -> startFuture.complete(), startFuture::fail);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.ezshop.common.discovery;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * ServiceClientTest
+ *
+ * @author Gary Cheng
+ */
+public class ServiceClientTest {
+
+    @Test
+    public void reportOccupancyAndQueue() {
+        ServiceClient client = new ServiceClient(new Record().setName("product").setRegistration("a"), null, null, null, 2, null);
+        long startTime = client.requestStarted();
+        client.requestStarted();
+        client.requestStarted();
+        JsonObject json = client.toJson();
+        assertEquals(3, json.getInteger("inFlight").intValue());
+        assertEquals(2, json.getInteger("occupancy").intValue());
+        assertEquals(1, json.getInteger("queued").intValue());
+        client.requestCompleted(startTime);
+        json = client.toJson();
+        assertEquals(0, json.getInteger("queued").intValue());
+        assertEquals(1, json.getInteger("peakQueued").intValue());
+    }
+
+    @Test
+    public void unboundedPoolHasNoOccupancy() {
+        ServiceClient client = new ServiceClient(new Record().setName("product").setRegistration("a"), null, null, null);
+        client.requestStarted();
+        assertFalse(client.toJson().containsKey("occupancy"));
+        assertEquals(1, client.toJson().getInteger("peakInFlight").intValue());
+    }
+}
@@ -0,0 +1,144 @@
+package com.ezshop.common.discovery;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Context;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * ServiceRecordCacheTest
+ *
+ * @author Gary Cheng
+ */
+public class ServiceRecordCacheTest {
+    private static final String ANNOUNCE_ADDRESS = new ServiceDiscoveryOptions().getAnnounceAddress();
+
+    private final Vertx vertx = Vertx.vertx();
+    // the lookups of the backend, completed by the tests
+    private final List<Handler<AsyncResult<List<Record>>>> lookups = new CopyOnWriteArrayList<>();
+    private final List<Record> changes = new CopyOnWriteArrayList<>();
+    private Context context;
+    private ServiceRecordCache cache;
+
+    @Before
+    public void setUp() {
+        this.context = vertx.getOrCreateContext();
+        io.vertx.servicediscovery.ServiceDiscovery backend = (io.vertx.servicediscovery.ServiceDiscovery) Proxy.newProxyInstance(
+                this.getClass().getClassLoader(), new Class<?>[]{io.vertx.servicediscovery.ServiceDiscovery.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "options":
+                            return new ServiceDiscoveryOptions();
+                        case "getRecords":
+                            lookups.add((Handler<AsyncResult<List<Record>>>) args[args.length - 1]);
+                            return proxy;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        this.cache = this.onContext(() -> ServiceRecordCache.create(vertx, ServiceDiscovery.newInstance(backend), 3600000)
+                .changeHandler(changes::add));
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void announceUpAndDown() {
+        this.completeLookup(0);
+        this.announce(this.record("a", "host-a", Status.UP));
+        assertEquals(Collections.singletonList("a"), this.registrations());
+        this.announce(this.record("a", "host-a", Status.DOWN));
+        assertEquals(Collections.emptyList(), this.registrations());
+        assertEquals(Arrays.asList(Status.UP, Status.DOWN), changes.stream().map(Record::getStatus).collect(Collectors.toList()));
+        // an instance which went down before it was known changes nothing
+        this.announce(this.record("b", "host-b", Status.DOWN));
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    public void announcementsDuringResyncAreReplayed() {
+        this.completeLookup(0, this.record("a", "host-a", Status.UP));
+        // a new record is announced without its registration, the cache reads the backend again
+        this.announce(new Record().setName("product").setStatus(Status.UP));
+        assertEquals(2, lookups.size());
+        this.announce(this.record("a", "host-a", Status.DOWN));
+        this.announce(this.record("b", "host-b", Status.UP));
+        // the backend answers with what it held before the announcements, which they override
+        this.completeLookup(1, this.record("a", "host-a", Status.UP));
+        assertEquals(Collections.singletonList("b"), this.registrations());
+    }
+
+    @Test
+    public void resyncReplacesSnapshot() {
+        this.completeLookup(0, this.record("a", "host-a", Status.UP), this.record("b", "host-b", Status.UP));
+        assertEquals(Arrays.asList("a", "b"), this.registrations());
+        this.announce(new Record().setName("product").setStatus(Status.UP));
+        // a went away and b moved while their announcements were missed
+        this.completeLookup(1, this.record("b", "host-b2", Status.UP), this.record("c", "host-c", Status.UP));
+        assertEquals(Arrays.asList("b", "c"), this.registrations());
+        assertEquals("host-b2", this.onContext(() -> cache.getRecords("product").blockingGet())
+                .get(0).getLocation().getString("host"));
+        List<String> removed = changes.stream().filter(record -> record.getStatus() == Status.DOWN)
+                .map(record -> record.getLocation().getString("host")).sorted().collect(Collectors.toList());
+        assertEquals(Arrays.asList("host-a", "host-b"), removed);
+        assertEquals(Collections.singletonList("c"), changes.stream().filter(record -> record.getStatus() == Status.UP)
+                .map(Record::getRegistration).collect(Collectors.toList()));
+    }
+
+    private Record record(String registration, String host, Status status) {
+        return new Record().setName("product").setRegistration(registration).setStatus(status)
+                .setLocation(new JsonObject().put("host", host).put("port", 8080));
+    }
+
+    private List<String> registrations() {
+        return this.onContext(() -> cache.getRecords("product").blockingGet()).stream()
+                .map(Record::getRegistration).sorted().collect(Collectors.toList());
+    }
+
+    private void announce(Record record) {
+        this.onContext(() -> vertx.eventBus().publish(ANNOUNCE_ADDRESS, record.toJson()));
+        // the announcement is delivered to the cache on the same context before this runs
+        this.onContext(() -> null);
+    }
+
+    private void completeLookup(int index, Record... records) {
+        this.onContext(() -> {
+            lookups.get(index).handle(Future.succeededFuture(Arrays.asList(records)));
+            return null;
+        });
+    }
+
+    private <T> T onContext(Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            try {
+                result.complete(task.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.join();
+    }
+}
@@ -0,0 +1,59 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * AccessLogTest
+ *
+ * @author Gary Cheng
+ */
+public class AccessLogTest {
+
+    @Test
+    public void writeBufferedRecordsOnClose() throws InterruptedException {
+        AccessLog accessLog = AccessLog.create(16);
+        Thread[] producers = new Thread[4];
+        int[] accepted = new int[producers.length];
+        for (int i = 0; i < producers.length; i++) {
+            int producer = i;
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 250; j++) {
+                    if (accessLog.log(System.currentTimeMillis(), "GET", "/api/{service}", "product", null, 200, 10, -1, 1000)) {
+                        accepted[producer]++;
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        accessLog.close();
+        JsonObject json = accessLog.toJson();
+        int total = 0;
+        for (int count : accepted) {
+            total += count;
+        }
+        assertEquals(16, json.getInteger("capacity").intValue());
+        assertEquals(total, json.getLong("written").longValue());
+        assertEquals(1000 - total, json.getLong("dropped").longValue());
+        assertEquals(0, json.getLong("pending").longValue());
+    }
+
+    @Test
+    public void idleWriterIsWokenByNextRecord() throws InterruptedException {
+        AccessLog accessLog = AccessLog.create(16);
+        // let the writer find the buffer empty and park
+        Thread.sleep(100);
+        accessLog.log(System.currentTimeMillis(), "GET", "/api/{service}", "product", null, 200, 10, -1, 1000);
+        long deadline = System.currentTimeMillis() + 200;
+        while (accessLog.toJson().getLong("written") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1L, accessLog.toJson().getLong("written").longValue());
+        accessLog.close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.ezshop.common.http;
+
+import io.reactivex.Single;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.reactivex.core.Context;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.core.http.HttpServerRequest;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+import io.vertx.reactivex.ext.web.client.WebClient;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * AdmissionControllerTest
+ *
+ * @author Gary Cheng
+ */
+public class AdmissionControllerTest {
+    private final Vertx vertx = Vertx.vertx();
+    private final List<HttpServerRequest> held = new CopyOnWriteArrayList<>();
+    private AdmissionController controller;
+    private Context context;
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void queueAndShedBeyondDepth() throws InterruptedException {
+        WebClient client = this.createServer(new JsonObject().put("maxInFlight", 1).put("queueDepth", 1).put("maxQueueTime", 10000));
+        Single<HttpResponse<Buffer>> first = this.send(client, "/a");
+        this.awaitHeld(1);
+        Single<HttpResponse<Buffer>> second = this.send(client, "/b");
+        Thread.sleep(100);
+        assertEquals(503, this.send(client, "/c").blockingGet().statusCode());
+        assertEquals(1, held.size());
+        this.end(0);
+        assertEquals(200, first.blockingGet().statusCode());
+        this.awaitHeld(2);
+        this.end(1);
+        assertEquals(200, second.blockingGet().statusCode());
+        JsonObject json = controller.toJson();
+        assertEquals(2L, json.getLong("admitted").longValue());
+        assertEquals(1L, json.getJsonObject("shed").getLong("queueFull").longValue());
+    }
+
+    @Test
+    public void shedAfterMaxQueueTime() {
+        WebClient client = this.createServer(new JsonObject().put("maxInFlight", 1).put("maxQueueTime", 100));
+        this.send(client, "/a");
+        this.awaitHeld(1);
+        assertEquals(503, this.send(client, "/b").blockingGet().statusCode());
+        assertEquals(1L, controller.toJson().getJsonObject("shed").getLong("queueTime").longValue());
+    }
+
+    @Test
+    public void priorityPathsAreServedFirst() throws InterruptedException {
+        WebClient client = this.createServer(new JsonObject().put("maxInFlight", 1).put("maxQueueTime", 10000)
+                .put("priorityPaths", new JsonArray().add("/admin/*")));
+        this.send(client, "/a");
+        this.awaitHeld(1);
+        this.send(client, "/b");
+        Thread.sleep(100);
+        this.send(client, "/admin/metrics");
+        Thread.sleep(100);
+        this.end(0);
+        this.awaitHeld(2);
+        assertEquals("/admin/metrics", held.get(1).path());
+    }
+
+    @Test
+    public void healthPathIsNotShedForLag() {
+        WebClient client = this.createServer(new JsonObject().put("maxEventLoopLag", 20)
+                .put("priorityPaths", new JsonArray().add("/").add("/admin/*")));
+        // every turn of the event loop blocks longer than the lag sampling interval
+        AtomicLong blocker = new AtomicLong();
+        context.runOnContext(v -> blocker.set(vertx.setPeriodic(1, id -> this.sleep(100))));
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (controller.toJson().getDouble("eventLoopLag") <= 20 && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            assertEquals(503, this.send(client, "/categories").blockingGet().statusCode());
+            Single<HttpResponse<Buffer>> health = this.send(client, "/");
+            this.awaitHeld(1);
+            this.end(0);
+            assertEquals(200, health.blockingGet().statusCode());
+            assertEquals("/", held.get(0).path());
+            assertEquals(1L, controller.toJson().getJsonObject("shed").getLong("eventLoopLag").longValue());
+        } finally {
+            context.runOnContext(v -> vertx.cancelTimer(blocker.get()));
+        }
+    }
+
+    @Test
+    public void closeShedsQueuedRequests() throws InterruptedException {
+        WebClient client = this.createServer(new JsonObject().put("maxInFlight", 1).put("maxQueueTime", 10000));
+        Single<HttpResponse<Buffer>> first = this.send(client, "/a");
+        this.awaitHeld(1);
+        Single<HttpResponse<Buffer>> queued = this.send(client, "/b");
+        Thread.sleep(100);
+        context.runOnContext(v -> controller.close());
+        assertEquals(503, queued.blockingGet().statusCode());
+        this.end(0);
+        assertEquals(200, first.blockingGet().statusCode());
+        assertEquals(1, held.size());
+        assertEquals(1L, controller.toJson().getJsonObject("shed").getLong("closed").longValue());
+    }
+
+    private WebClient createServer(JsonObject config) {
+        this.context = vertx.getOrCreateContext();
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        context.runOnContext(v -> {
+            this.controller = AdmissionController.create(vertx, config, held::add);
+            vertx.createHttpServer().requestHandler(request -> {
+                AdmissionController.Ticket ticket = controller.ticket(request);
+                request.response().endHandler(e -> ticket.release());
+                controller.admit(ticket);
+            }).rxListen(0).subscribe(listening::complete, listening::completeExceptionally);
+        });
+        HttpServer server = listening.join();
+        // one request per connection so queued requests are not stuck behind others on the same connection
+        return WebClient.create(vertx, new WebClientOptions().setDefaultHost("localhost")
+                .setDefaultPort(server.actualPort()).setKeepAlive(false).setMaxPoolSize(10));
+    }
+
+    private Single<HttpResponse<Buffer>> send(WebClient client, String path) {
+        Single<HttpResponse<Buffer>> response = client.get(path).rxSend().timeout(5, TimeUnit.SECONDS).cache();
+        response.subscribe(r -> {
+        }, e -> {
+        });
+        return response;
+    }
+
+    private void end(int index) {
+        context.runOnContext(v -> held.get(index).response().end());
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitHeld(int count) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (held.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(count, held.size());
+    }
+}
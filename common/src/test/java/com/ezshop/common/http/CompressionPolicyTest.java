@@ -0,0 +1,58 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * CompressionPolicyTest
+ *
+ * @author Gary Cheng
+ */
+public class CompressionPolicyTest {
+    private final CompressionPolicy policy = CompressionPolicy.create(new JsonObject().put("enabled", true).put("minSize", 100));
+
+    @Test
+    public void negotiatePrefersGzip() {
+        assertEquals(CompressionPolicy.GZIP, policy.negotiate("deflate, gzip"));
+        assertEquals(CompressionPolicy.DEFLATE, policy.negotiate("gzip;q=0, deflate"));
+        assertNull(policy.negotiate("br"));
+        assertNull(policy.negotiate(null));
+        assertNull(CompressionPolicy.create(null).negotiate("gzip"));
+    }
+
+    @Test
+    public void onlyLargeUnencodedTextIsCompressed() {
+        assertTrue(policy.isCompressible("application/json; charset=utf-8", null, 1000));
+        assertTrue(policy.isCompressible("text/html", null, -1));
+        assertFalse(policy.isCompressible("application/json", null, 99));
+        assertFalse(policy.isCompressible("application/json", "gzip", 1000));
+        assertFalse(policy.isCompressible("image/png", null, 1000));
+    }
+
+    @Test
+    public void compressedBodyRoundTrips() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("{\"id\": ").append(i).append("}\n");
+        }
+        Buffer compressed = policy.compress(Buffer.buffer(text.toString()), CompressionPolicy.GZIP);
+        assertTrue(compressed.length() < text.length());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.getBytes()))) {
+            byte[] chunk = new byte[1024];
+            for (int n; (n = in.read(chunk)) > 0; ) {
+                out.write(chunk, 0, n);
+            }
+        }
+        assertEquals(text.toString(), out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.ezshop.common.http;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.reactivex.core.Vertx;
+import io.vertx.reactivex.core.http.HttpServer;
+import io.vertx.reactivex.ext.web.client.WebClient;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * WarmUpTest
+ *
+ * @author Gary Cheng
+ */
+public class WarmUpTest {
+    private final Vertx vertx = Vertx.vertx();
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void readyWithoutPaths() {
+        WarmUp warmUp = WarmUp.fromJson(null);
+        JsonObject json = warmUp.run(null).blockingGet();
+        assertTrue(warmUp.isReady());
+        assertEquals(0, json.getInteger("batches").intValue());
+    }
+
+    @Test
+    public void endsOnceBatchMeetsTarget() {
+        AtomicInteger requests = new AtomicInteger();
+        WebClient client = this.createServer(() -> requests.incrementAndGet() <= 10 ? 500 : 200);
+        WarmUp warmUp = WarmUp.fromJson(this.createConfig(10000));
+        JsonObject json = warmUp.run(client).timeout(10, TimeUnit.SECONDS).blockingGet();
+        assertTrue(json.getBoolean("targetMet"));
+        assertEquals(2, json.getInteger("batches").intValue());
+        assertEquals(20, requests.get());
+        // a second caller gets the same outcome without another warm-up
+        assertEquals(json, warmUp.run(client).blockingGet());
+        assertEquals(20, requests.get());
+    }
+
+    @Test
+    public void endsAfterMaxDuration() {
+        WebClient client = this.createServer(() -> 500);
+        JsonObject json = WarmUp.fromJson(this.createConfig(200)).run(client).timeout(10, TimeUnit.SECONDS).blockingGet();
+        assertTrue(json.getBoolean("ready"));
+        assertFalse(json.getBoolean("targetMet"));
+    }
+
+    private JsonObject createConfig(long maxDuration) {
+        return new JsonObject()
+                .put("paths", new JsonArray().add("/a").add("/b"))
+                .put("batchSize", 10)
+                .put("latencyTarget", 1000)
+                .put("maxDuration", maxDuration);
+    }
+
+    private WebClient createServer(IntSupplier status) {
+        HttpServer server = vertx.createHttpServer()
+                .requestHandler(request -> request.response().setStatusCode(status.getAsInt()).end())
+                .rxListen(0).blockingGet();
+        return WebClient.create(vertx, new WebClientOptions().setDefaultHost("localhost").setDefaultPort(server.actualPort()));
+    }
+}
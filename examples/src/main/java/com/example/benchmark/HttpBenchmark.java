@@ -0,0 +1,107 @@
+package com.example.benchmark;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed loop HTTP load generator, every connection sends its next request as soon as the previous response
+ * is read. Run it against the gateway or product service deployed with "instances" set to 1, 2, 4 ... to
+ * measure how throughput scales with the number of event loops.
+ * <p>
+ * Usage: HttpBenchmark url [connections] [seconds] [warmupSeconds]
+ *
+ * @author Gary Cheng
+ */
+public class HttpBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(HttpBenchmark.class);
+    private static final int DEFAULT_CONNECTIONS = 64;
+    private static final int DEFAULT_SECONDS = 30;
+    private static final int DEFAULT_WARMUP_SECONDS = 5;
+
+    private final HttpClient client;
+    private final URL url;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    private HttpBenchmark(Vertx vertx, URL url, int connections) {
+        this.url = url;
+        this.client = vertx.createHttpClient(new HttpClientOptions()
+                .setDefaultHost(url.getHost())
+                .setDefaultPort(url.getPort() < 0 ? url.getDefaultPort() : url.getPort())
+                .setMaxPoolSize(connections)
+                .setKeepAlive(true));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            logger.error("Usage: HttpBenchmark url [connections] [seconds] [warmupSeconds]");
+            return;
+        }
+        URL url = new URL(args[0]);
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+        int warmupSeconds = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_WARMUP_SECONDS;
+        Vertx vertx = Vertx.vertx();
+        HttpBenchmark benchmark = new HttpBenchmark(vertx, url, connections);
+        for (int i = 0; i < connections; i++) {
+            benchmark.send();
+        }
+        vertx.setTimer(TimeUnit.SECONDS.toMillis(warmupSeconds), warmup -> {
+            benchmark.measuring = true;
+            vertx.setTimer(TimeUnit.SECONDS.toMillis(seconds), done -> {
+                benchmark.running = false;
+                benchmark.report(connections, seconds);
+                vertx.close();
+            });
+        });
+    }
+
+    private void send() {
+        if (!running) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        client.get(url.getFile(), response -> response.bodyHandler(body -> {
+            if (response.statusCode() < 400) {
+                this.record(startTime);
+            } else {
+                this.recordError();
+            }
+            this.send();
+        })).exceptionHandler(throwable -> {
+            this.recordError();
+            this.send();
+        }).end();
+    }
+
+    private void record(long startTime) {
+        if (measuring && running) {
+            completed.incrementAndGet();
+            totalLatency.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    private void recordError() {
+        if (measuring && running) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private void report(int connections, int seconds) {
+        long requests = completed.get();
+        double averageLatency = requests == 0 ? 0 : totalLatency.get() / (double) requests / TimeUnit.MILLISECONDS.toNanos(1);
+        logger.info("url:{}, connections:{}, seconds:{}", url, connections, seconds);
+        logger.info("requests:{}, errors:{}, throughput:{} req/s, average latency:{} ms",
+                requests, errors.get(), String.format("%.1f", requests / (double) seconds), String.format("%.2f", averageLatency));
+    }
+}
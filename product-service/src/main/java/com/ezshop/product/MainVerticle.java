@@ -1,8 +1,14 @@
 package com.ezshop.product;
 
+import com.ezshop.common.concurrent.InFlightTracker;
+import com.ezshop.common.concurrent.SharedResources;
+import com.ezshop.common.database.JDBCClientRepository;
 import com.ezshop.product.http.ProductHttpVerticle;
+import io.reactivex.Single;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
 import io.vertx.reactivex.core.AbstractVerticle;
 import io.vertx.reactivex.ext.jdbc.JDBCClient;
 import io.vertx.serviceproxy.ServiceBinder;
@@ -10,7 +16,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static com.ezshop.common.ConfigKeys.KEY_DATABASE;
+import static com.ezshop.common.ConfigKeys.KEY_DRAIN_TIMEOUT;
+import static com.ezshop.common.ConfigKeys.KEY_INSTANCES;
+import static com.ezshop.common.ConfigKeys.KEY_JDBC_CONNECTIONS;
+import static com.ezshop.common.ConfigKeys.KEY_READINESS;
 import static com.ezshop.common.ConfigKeys.KEY_SERVICE_ADDRESS;
+import static com.ezshop.common.ConfigKeys.KEY_SHUTDOWN;
 
 /**
  * The Main Verticle of Product Micro Services
@@ -18,20 +29,60 @@ import static com.ezshop.common.ConfigKeys.KEY_SERVICE_ADDRESS;
  * @author Gary Cheng
  */
 public class MainVerticle extends AbstractVerticle {
+    /**
+     * The node wide trackers of requests to service proxies, by address
+     */
+    public static final String SHARED_SERVICE_PROXY_TRACKERS = "ezshop.serviceProxyTrackers";
     private static final Logger logger = LoggerFactory.getLogger(MainVerticle.class);
+    private static final long DEFAULT_DRAIN_TIMEOUT = 10000;
+
+    private SharedResources<InFlightTracker> sharedTrackers;
+    private InFlightTracker inFlightRequests;
+    private ServiceBinder serviceBinder;
+    private MessageConsumer<JsonObject> serviceConsumer;
 
     @Override
     public void start(Future<Void> startFuture) {
         logger.debug("Starting main verticle of product micro services");
-        this.bindProductService();
-        vertx.rxDeployVerticle(ProductHttpVerticle.class.getName(), new DeploymentOptions().setConfig(this.config()))
+        JDBCClient jdbc = JDBCClient.createShared(vertx, config().getJsonObject(KEY_DATABASE));
+        this.bindProductService(jdbc);
+        // the HTTP server scales across event loops, the service proxy and the JDBC client stay one per node
+        int instances = this.config().getInteger(KEY_INSTANCES, Runtime.getRuntime().availableProcessors());
+        int connections = this.config().getJsonObject(KEY_READINESS, new JsonObject()).getInteger(KEY_JDBC_CONNECTIONS, 0);
+        logger.debug("Opening {} database connections", connections);
+        JDBCClientRepository.create(jdbc).openConnections(connections)
+                .andThen(Single.defer(() -> {
+                    logger.debug("Deploying {} instances of product HTTP server", instances);
+                    return vertx.rxDeployVerticle(ProductHttpVerticle.class.getName(),
+                            new DeploymentOptions().setConfig(this.config()).setInstances(instances));
+                }))
                 .subscribe(id -> startFuture.complete(), startFuture::fail);
     }
 
-    private void bindProductService() {
-        JDBCClient jdbc = JDBCClient.createShared(vertx, config().getJsonObject(KEY_DATABASE));
-        new ServiceBinder(vertx.getDelegate())
-                .setAddress(config().getString(KEY_SERVICE_ADDRESS))
-                .register(ProductService.class, ProductService.create(jdbc));
+    /**
+     * The HTTP servers are undeployed and drained first, then the service proxy stops taking requests and
+     * those in flight are drained
+     */
+    @Override
+    public void stop(Future<Void> stopFuture) {
+        long drainTimeout = this.config().getJsonObject(KEY_SHUTDOWN, new JsonObject()).getLong(KEY_DRAIN_TIMEOUT, DEFAULT_DRAIN_TIMEOUT);
+        serviceBinder.unregister(serviceConsumer);
+        logger.debug("Draining {} requests to product service", inFlightRequests.getInFlight());
+        inFlightRequests.awaitIdle(vertx, drainTimeout).subscribe(idle -> {
+            if (!idle) {
+                logger.warn("{} requests to product service still in flight after draining for {}ms", inFlightRequests.getInFlight(), drainTimeout);
+            }
+            sharedTrackers.release(config().getString(KEY_SERVICE_ADDRESS));
+            stopFuture.complete();
+        }, stopFuture::fail);
+    }
+
+    private void bindProductService(JDBCClient jdbc) {
+        String address = config().getString(KEY_SERVICE_ADDRESS);
+        this.sharedTrackers = SharedResources.create(vertx, SHARED_SERVICE_PROXY_TRACKERS);
+        this.inFlightRequests = sharedTrackers.acquire(address, key -> InFlightTracker.create());
+        this.serviceBinder = new ServiceBinder(vertx.getDelegate()).setAddress(address);
+        this.serviceConsumer = serviceBinder.register(ProductService.class,
+                inFlightRequests.track(ProductService.class, ProductService.create(jdbc)));
     }
 }
\ No newline at end of file
@@ -1,6 +1,10 @@
 package com.ezshop.product.http;
 
 import com.ezshop.common.BaseHttpMicroServicesVerticle;
+import com.ezshop.common.concurrent.InFlightTracker;
+import com.ezshop.common.concurrent.SharedResources;
+import com.ezshop.common.database.JDBCClientRepository;
+import com.ezshop.product.MainVerticle;
 import com.ezshop.product.reactivex.ProductService;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
@@ -19,30 +23,47 @@ import static com.ezshop.common.ConfigKeys.*;
 public class ProductHttpVerticle extends BaseHttpMicroServicesVerticle {
     private static final Logger logger = LoggerFactory.getLogger(ProductHttpVerticle.class);
     private static final String URI_ALL_CATEGORIES = "/categories";
+    private static final long CATEGORIES_MAX_AGE = 60;
+    private static final String METRICS_SERVICE_PROXY = "serviceProxy";
+    private static final String METRICS_DATA_SOURCES = "dataSources";
 
     private ProductService productService;
+    private SharedResources<InFlightTracker> sharedTrackers;
 
     @Override
     public void start(Future<Void> startFuture) {
         super.start();
         logger.debug("Starting Product HTTP Server");
-        this.productService = com.ezshop.product.ProductService.createProxy(vertx, this.config().getString(KEY_SERVICE_ADDRESS));
+        String address = this.config().getString(KEY_SERVICE_ADDRESS);
+        this.productService = com.ezshop.product.ProductService.createProxy(vertx, address);
+        this.sharedTrackers = SharedResources.create(vertx, MainVerticle.SHARED_SERVICE_PROXY_TRACKERS);
+        this.registerMetrics(METRICS_SERVICE_PROXY, sharedTrackers.acquire(address, key -> InFlightTracker.create())::toJson);
+        this.registerMetrics(METRICS_DATA_SOURCES, JDBCClientRepository::getDataSourceMetrics);
         JsonObject httpConfig = this.config().getJsonObject(KEY_HTTP_SERVER);
         Router router = Router.router(vertx);
         this.configureRouter(router);
+        // the gateway only learns of the instance once it is warmed up
         this.createHttpServer(httpConfig, router)
-                .flatMap(httpServer -> this.publishHttpEndPoint(this.config().getString(KEY_SERVICE_NAME), httpConfig))
+                .flatMap(httpServer -> this.awaitReadiness(httpConfig))
+                .flatMap(readiness -> this.publishHttpEndPoint(this.config().getString(KEY_SERVICE_NAME), httpConfig))
                 .subscribe(r -> startFuture.complete(), startFuture::fail);
     }
 
+    @Override
+    public void stop() {
+        sharedTrackers.release(this.config().getString(KEY_SERVICE_ADDRESS));
+        super.stop();
+    }
+
     private void configureRouter(Router router) {
         this.enableCorsSupport(router);
+        this.enableMetricsSupport(router);
         router.get(URI_ALL_CATEGORIES).handler(this::getAllCategories);
     }
 
     private void getAllCategories(RoutingContext context) {
         productService.rxGetAllCategories().subscribe(
-                jsonArray -> this.restResponseHandler(context, jsonArray.encodePrettily()),
+                jsonArray -> this.restCacheableResponseHandler(context, jsonArray.encodePrettily(), CATEGORIES_MAX_AGE),
                 error -> this.restErrorHandler(context, error));
     }
 }
\ No newline at end of file
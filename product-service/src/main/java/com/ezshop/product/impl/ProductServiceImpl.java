@@ -20,6 +20,7 @@ public class ProductServiceImpl implements ProductService {
     private static final Logger logger = LoggerFactory.getLogger(ProductServiceImpl.class);
 
     private static final String SQL_GET_ALL_CATEGORIES = "SELECT * FROM CATEGORY ORDER BY CATEGORY_NAME";
+    private static final int CATEGORIES_FETCH_SIZE = 100;
 
     private JDBCClient jdbc;
     private JDBCClientRepository repository;
@@ -32,8 +33,10 @@ public class ProductServiceImpl implements ProductService {
     @Override
     public ProductService getAllCategories(Handler<AsyncResult<JsonArray>> resultHandler) {
         logger.debug("getAllCategories is invoked");
-        repository.query(SQL_GET_ALL_CATEGORIES, this::convertCategory)
-                .subscribe(categories -> resultHandler.handle(Future.succeededFuture(new JsonArray(categories))),
+        // run as a prepared statement, even without parameters, so the pool caches it
+        repository.queryStream(SQL_GET_ALL_CATEGORIES, new JsonArray(), CATEGORIES_FETCH_SIZE, this::convertCategory)
+                .collect(JsonArray::new, JsonArray::add)
+                .subscribe(categories -> resultHandler.handle(Future.succeededFuture(categories)),
                         t -> resultHandler.handle(Future.failedFuture(t)));
         return this;
     }
@@ -1,5 +1,8 @@
 package com.ezshop.product;
 
+import com.ezshop.common.database.JDBCClientRepository;
+import io.reactivex.Flowable;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
@@ -14,6 +17,10 @@ import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -70,6 +77,41 @@ public class ProductServiceTest {
         async.awaitSuccess(10000);
     }
 
+    @Test
+    public void streamCategoriesWithOneConnectionEach(TestContext context) {
+        JDBCClientRepository repository = JDBCClientRepository.create(
+                JDBCClient.createShared(vertx, this.config.getJsonObject("database")));
+        int maxPoolSize = this.config.getJsonObject("database").getInteger("max_pool_size");
+        // cancelled streams must return their connection, or the pool runs dry
+        List<String> names = Flowable.range(0, maxPoolSize + 5)
+                .concatMap(i -> repository.queryStream("SELECT * FROM CATEGORY ORDER BY CATEGORY_NAME", 2,
+                        row -> row.getString("CATEGORY_NAME")).take(3).toList().toFlowable())
+                .lastOrError()
+                .timeout(10, TimeUnit.SECONDS)
+                .blockingGet();
+        context.assertEquals(3, names.size());
+        context.assertEquals(repository.query("SELECT * FROM CATEGORY ORDER BY CATEGORY_NAME",
+                row -> row.getString("CATEGORY_NAME")).blockingGet().subList(0, 3), names);
+    }
+
+    @Test
+    public void queryAndUpdateWithParams(TestContext context) {
+        JDBCClientRepository repository = JDBCClientRepository.create(
+                JDBCClient.createShared(vertx, this.config.getJsonObject("database")));
+        String sql = "SELECT * FROM CATEGORY WHERE CATEGORY_ID = ?";
+        for (int i = 0; i < 3; i++) {
+            List<String> names = repository.query(sql, new JsonArray().add(2), row -> row.getString("CATEGORY_NAME")).blockingGet();
+            context.assertEquals(Collections.singletonList("Laptop"), names);
+        }
+        context.assertEquals(1, repository.update("UPDATE CATEGORY SET CATEGORY_NAME = ? WHERE CATEGORY_ID = ?",
+                new JsonArray().add("Laptop").add(2)).blockingGet());
+        // the prepared statements stay cached on their connections
+        JsonObject dataSource = JDBCClientRepository.getDataSourceMetrics().stream()
+                .map(entry -> (JsonObject) entry.getValue())
+                .findFirst().orElseGet(JsonObject::new);
+        context.assertTrue(dataSource.getJsonObject("statementCache").getInteger("statements") > 0);
+    }
+
     @After
     public void finish(TestContext context) {
         this.vertx.close(context.asyncAssertSuccess());